@@ -0,0 +1,506 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a simulation without the graphical view, as fast as it will go, and
+ * reports how quickly it ran and what was left alive at the end. Nothing in
+ * here starts the JavaFX toolkit, so it can be run from scripts.
+ *
+ * Usage:
+ *   java BatchRunner scenario depth width seed generations [--engine=bitgrid|hashlife|cellstore|vector|rules|sparse[:DENSITY]|tiled[:THREADS]] [--threads=N] [--tiles=off] [--cycles=off] [--topology=torus|klein] [--save=FILE] [--log=FILE] [--export=FILE] [--check]
+ *   java BatchRunner --restore=FILE generations [options]
+ * where scenario is one of mycoplasma, chromacell, evolver, diseasedcells,
+ * predatorprey or ripples, a rulestring such as b36/s23 (see RuleSpec), or
+ * a .rle or .cells pattern file, placed in the middle of the field (see
+ * PatternFile). With --check the simulation is run twice, once
+ * committing generations with GenerationBuffers and once with the second
+ * pass over every cell, and the two are compared generation by generation;
+ * a bounded field of rule cells is also run with RuleEngine and
+ * TiledLifeEngine, down to the dying state of every cell. A field of
+ * Mycoplasma or rule cells is exported as RLE at the end and read back, to
+ * check the two files match.
+ * --save writes a Checkpoint at the end of the run, and --restore carries
+ * on from one instead of populating a new field. --log streams every
+ * generation of the run to a GenerationLog, for LogReplay. --export writes
+ * the field at the end of the run as a .rle or .cells pattern.
+ *
+ * A run stops stepping once the field is found to be in a cycle (see
+ * CycleDetector), skipping the whole periods left, so a soup that settles
+ * into still lifes and blinkers early on finishes at once; the field ends
+ * up as it would have after every generation. --cycles=off steps them all.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.08
+ */
+
+public class BatchRunner {
+
+    private static final String USAGE =
+        "Usage: java BatchRunner scenario depth width seed generations [--engine=bitgrid|hashlife|cellstore|vector|rules|sparse[:DENSITY]|tiled[:THREADS]] [--threads=N] [--tiles=off] [--cycles=off] [--topology=torus|klein] [--save=FILE] [--log=FILE] [--export=FILE] [--check]\n"
+        + "       java BatchRunner --restore=FILE generations [options]\n"
+        + "  scenario: mycoplasma, chromacell, evolver, diseasedcells, predatorprey, ripples\n"
+        + "            a rulestring such as b36/s23 or b2/s/c3, or a .rle or .cells pattern file";
+
+    public static void main(String[] args) {
+        if (args.length >= 2 && args[0].startsWith("--restore=")) {
+            resume(args);
+            return;
+        }
+        if (args.length < 5) {
+            exitWithUsage(null);
+        }
+        String scenario = isPattern(args[0]) ? args[0] : args[0].toLowerCase();
+        int depth = 0, width = 0, generations = 0;
+        long seed = 0;
+        try {
+            depth = Integer.parseInt(args[1]);
+            width = Integer.parseInt(args[2]);
+            seed = Long.parseLong(args[3]);
+            generations = Integer.parseInt(args[4]);
+        }
+        catch (NumberFormatException e) {
+            exitWithUsage("Not a number: " + e.getMessage());
+        }
+        if (depth <= 0 || width <= 0 || generations < 0) {
+            exitWithUsage("The grid size must be positive and generations not negative");
+        }
+
+        List<String> options = new ArrayList<>(Arrays.asList(args).subList(5, args.length));
+        Topology topology = takeTopology(options);
+        if (topology.wraps() && (depth < 3 || width < 3)) {
+            exitWithUsage("A grid that wraps around must be at least 3x3");
+        }
+        String save = takeValue(options, "--save=");
+        String log = takeValue(options, "--log=");
+        String export = takeValue(options, "--export=");
+        if (options.remove("--check")) {
+            checkConsistency(scenario, depth, width, topology, seed, generations, options);
+            return;
+        }
+
+        long setupStart = System.nanoTime();
+        Randomizer.reset(seed);
+        Simulator simulator = new Simulator(depth, width, topology);
+        simulator.setCycleDetection(true);
+        simulator.setFastForward(true);
+        for (String option : options) {
+            applyOption(simulator, option);
+        }
+        populate(simulator, scenario);
+        double setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+
+        System.out.println("Scenario: " + scenario + ", grid " + depth + "x" + width
+                           + (topology.wraps() ? " " + topology.toString().toLowerCase() : "")
+                           + ", seed " + seed);
+        System.out.printf("Setup: %.3f s%n", setupSeconds);
+        run(simulator, generations, save, log, export);
+    }
+
+    /**
+     * Carry on a run saved with --save.
+     */
+    private static void resume(String[] args) {
+        String restore = args[0].substring("--restore=".length());
+        int generations = 0;
+        try {
+            generations = Integer.parseInt(args[1]);
+        }
+        catch (NumberFormatException e) {
+            exitWithUsage("Not a number: " + e.getMessage());
+        }
+        List<String> options = new ArrayList<>(Arrays.asList(args).subList(2, args.length));
+        String save = takeValue(options, "--save=");
+        String log = takeValue(options, "--log=");
+        String export = takeValue(options, "--export=");
+        if (options.contains("--check") || options.stream().anyMatch(option -> option.startsWith("--topology="))) {
+            exitWithUsage("--check and --topology cannot be used with --restore");
+        }
+
+        long setupStart = System.nanoTime();
+        Simulator simulator = null;
+        try {
+            simulator = Simulator.restore(Paths.get(restore));
+        }
+        catch (IOException e) {
+            System.err.println("Cannot restore " + restore + ": " + e.getMessage());
+            System.exit(1);
+        }
+        simulator.setCycleDetection(true);
+        simulator.setFastForward(true);
+        for (String option : options) {
+            applyOption(simulator, option);
+        }
+        double setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+        Field field = simulator.getField();
+        System.out.println("Restored: " + restore + ", grid " + field.getDepth() + "x" + field.getWidth()
+                           + (field.getTopology().wraps() ? " " + field.getTopology().toString().toLowerCase() : "")
+                           + ", generation " + simulator.getGeneration());
+        System.out.printf("Setup: %.3f s%n", setupSeconds);
+        run(simulator, generations, save, log, export);
+    }
+
+    /**
+     * Run the generations, report how it went, and save a checkpoint or
+     * export the pattern if asked.
+     * @param save The file to save to, or null.
+     * @param log The file to stream every generation to, or null.
+     * @param export The pattern file to write the field to, or null.
+     */
+    private static void run(Simulator simulator, int generations, String save, String log, String export) {
+        Field field = simulator.getField();
+        long start = System.nanoTime();
+        try {
+            if (log != null) {
+                simulator.startLog(Paths.get(log), GenerationLog.DEFAULT_KEYFRAME_INTERVAL);
+            }
+            simulator.simGenerations(generations);
+            simulator.stopLog();
+        }
+        catch (IOException e) {
+            System.err.println("Cannot write the log " + log + ": " + e.getMessage());
+            System.exit(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int stepped = generations - simulator.getSkippedGenerations();
+        double genRate = stepped / seconds;
+        System.out.printf("Ran %d generations in %.3f s: %.1f generations/sec, %.0f cells/sec%n",
+                          stepped, seconds, genRate, genRate * field.getDepth() * field.getWidth());
+        if (simulator.getCyclePeriod() > 0) {
+            System.out.println("Cycle: period " + simulator.getCyclePeriod() + " from generation "
+                               + simulator.getCycleStart() + ", " + simulator.getSkippedGenerations()
+                               + " generations skipped");
+        }
+        System.out.println("Generation: " + simulator.getGeneration());
+        System.out.println("Population: " + simulator.getField().getStats().getPopulationDetails());
+        System.out.printf("Tiles skipped: %.1f%%%n", simulator.getAverageSkippedTileFraction() * 100);
+        if (save != null) {
+            try {
+                long saveStart = System.nanoTime();
+                simulator.save(Paths.get(save));
+                System.out.printf("Saved %s in %.3f s%n", save, (System.nanoTime() - saveStart) / 1e9);
+            }
+            catch (IOException e) {
+                System.err.println("Cannot save " + save + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (export != null) {
+            try {
+                simulator.exportPattern(Paths.get(export));
+                System.out.println("Exported " + export);
+            }
+            catch (IOException e) {
+                System.err.println("Cannot export " + export + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Run a scenario with and without double buffering, and report the
+     * first generation at which the two differ. A field of rule cells is
+     * then run with the rule engines too, and compared the same way.
+     */
+    private static void checkConsistency(String scenario, int depth, int width, Topology topology,
+                                         long seed, int generations, List<String> options) {
+        long[] buffered = runDigests(scenario, depth, width, topology, seed, generations, options, true, null);
+        long[] twoPass = runDigests(scenario, depth, width, topology, seed, generations, options, false, null);
+        compareDigests(buffered, twoPass, "Double buffering", "two-pass stepping");
+        if (scenario.equals("mycoplasma") || isRules(scenario) || isPattern(scenario)) {
+            // Patterns only hold Mycoplasma and rule cells
+            checkExport(scenario, depth, width, topology, seed, generations, options);
+        }
+        if (!isRules(scenario) || topology != Topology.BOUNDED) {
+            // The engines only take rule cells on a bounded grid
+            return;
+        }
+        long[] rules = runDigests(scenario, depth, width, topology, seed, generations, options, true,
+                                  new RuleEngine());
+        compareDigests(buffered, rules, "RuleEngine", "stepping the cells");
+        long[] tiled = runDigests(scenario, depth, width, topology, seed, generations, options, true,
+                                  new TiledLifeEngine(1));
+        compareDigests(buffered, tiled, "TiledLifeEngine", "stepping the cells");
+    }
+
+    /**
+     * Run a scenario, export the field as RLE, read that into a new field
+     * of the same size and export it again, and report whether the two
+     * files match, so that the end of one run can start another.
+     */
+    private static void checkExport(String scenario, int depth, int width, Topology topology,
+                                    long seed, int generations, List<String> options) {
+        Path exported = null, reexported = null;
+        try {
+            exported = Files.createTempFile("check", ".rle");
+            reexported = Files.createTempFile("check", ".rle");
+            Randomizer.reset(seed);
+            Simulator simulator = new Simulator(depth, width, topology);
+            for (String option : options) {
+                applyOption(simulator, option);
+            }
+            populate(simulator, scenario);
+            simulator.simGenerations(generations);
+            simulator.exportPattern(exported);
+            Simulator reader = new Simulator(depth, width, topology);
+            reader.populatePattern(exported);
+            reader.exportPattern(reexported);
+            if (!Files.readAllLines(exported).equals(Files.readAllLines(reexported))) {
+                System.out.println("The exported pattern reads back differently");
+                System.exit(1);
+            }
+            System.out.println("The exported pattern reads back the same");
+        }
+        catch (IOException e) {
+            System.err.println("Cannot check the exported pattern: " + e.getMessage());
+            System.exit(1);
+        }
+        finally {
+            for (Path path : new Path[] {exported, reexported}) {
+                try {
+                    if (path != null) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                catch (IOException e) {
+                    // Only a temporary file left behind
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the first generation at which two runs differ, and stop if
+     * there is one.
+     */
+    private static void compareDigests(long[] expected, long[] actual, String name, String against) {
+        for (int gen = 0; gen < expected.length; gen++) {
+            if (expected[gen] != actual[gen]) {
+                System.out.println(name + " differs from " + against + " at generation " + gen);
+                System.exit(1);
+            }
+        }
+        System.out.println(name + " matches " + against + " for " + (expected.length - 1) + " generations");
+    }
+
+    /**
+     * Run a scenario from the start and record a digest of the field after
+     * every generation.
+     * @param engine The engine to step with, or null for the one chosen by the options.
+     * @return The digests, starting with the one before the first generation.
+     */
+    private static long[] runDigests(String scenario, int depth, int width, Topology topology, long seed,
+                                     int generations, List<String> options, boolean doubleBuffered,
+                                     LifeEngine engine) {
+        Randomizer.reset(seed);
+        Simulator simulator = new Simulator(depth, width, topology);
+        for (String option : options) {
+            applyOption(simulator, option);
+        }
+        if (engine != null) {
+            simulator.setEngine(engine);
+        }
+        simulator.setDoubleBuffered(doubleBuffered);
+        populate(simulator, scenario);
+        long[] digests = new long[generations + 1];
+        digests[0] = digest(simulator.getField());
+        for (int gen = 1; gen <= generations; gen++) {
+            simulator.simOneGeneration();
+            digests[gen] = digest(simulator.getField());
+        }
+        return digests;
+    }
+
+    /**
+     * @return A hash of what every location holds: the cell's type, where
+     *         the cell thinks it is, whether it is alive and its colour,
+     *         and the dying state of a rule cell, along with the field's
+     *         statistics.
+     */
+    private static long digest(Field field) {
+        long hash = field.getStats().getPopulationDetails().hashCode();
+        for (int i = 0; i < field.getDepth() * field.getWidth(); i++) {
+            Cell cell = field.getObjectAt(i);
+            if (cell == null) {
+                hash = hash * 31;
+            }
+            else {
+                Location location = cell.getLocation();
+                hash = hash * 31 + cell.getClass().getName().hashCode();
+                hash = hash * 31 + location.getRow() * field.getWidth() + location.getCol();
+                hash = hash * 31 + (cell.isAlive() ? cell.getArgb() : 1);
+                if (cell instanceof RuleCell) {
+                    hash = hash * 31 + ((RuleCell) cell).getDying();
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Fill the simulator with the life forms of one scenario.
+     * @param simulator The simulator to populate.
+     * @param scenario The name of the scenario, in lower case, or a pattern file.
+     */
+    private static void populate(Simulator simulator, String scenario) {
+        if (isPattern(scenario)) {
+            try {
+                simulator.populatePattern(Paths.get(scenario));
+            }
+            catch (IOException e) {
+                System.err.println("Cannot place the pattern " + scenario + ": " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        switch (scenario) {
+            case "mycoplasma":
+                simulator.populateMycoplasma();
+                break;
+            case "chromacell":
+                simulator.populateChromaCell();
+                break;
+            case "evolver":
+                simulator.populateEvolver();
+                break;
+            case "diseasedcells":
+                simulator.populateDiseasedCells();
+                break;
+            case "predatorprey":
+                simulator.populatePredator();
+                simulator.populatePrey();
+                break;
+            case "ripples":
+                simulator.populateRipples();
+                break;
+            default:
+                try {
+                    simulator.populateRule(RuleSpec.parse(scenario));
+                }
+                catch (IllegalArgumentException e) {
+                    exitWithUsage("Unknown scenario: " + scenario + " (" + e.getMessage() + ")");
+                }
+        }
+    }
+
+    /**
+     * @return Whether a scenario is a rulestring, and so fills the field
+     *         with rule cells.
+     */
+    private static boolean isRules(String scenario) {
+        switch (scenario) {
+            case "mycoplasma":
+            case "chromacell":
+            case "evolver":
+            case "diseasedcells":
+            case "predatorprey":
+            case "ripples":
+                return false;
+            default:
+                return !isPattern(scenario);
+        }
+    }
+
+    /**
+     * @return Whether a scenario names a pattern file rather than life forms.
+     */
+    private static boolean isPattern(String scenario) {
+        String name = scenario.toLowerCase();
+        return name.endsWith(".rle") || name.endsWith(".cells");
+    }
+
+    /**
+     * Remove the --topology option, if there is one, as it is needed
+     * before the simulator is created.
+     * @return The topology chosen, bounded by default.
+     */
+    private static Topology takeTopology(List<String> options) {
+        if (options.remove("--topology=torus")) {
+            return Topology.TORUS;
+        }
+        if (options.remove("--topology=klein")) {
+            return Topology.KLEIN_BOTTLE;
+        }
+        options.remove("--topology=bounded");
+        return Topology.BOUNDED;
+    }
+
+    /**
+     * Remove an option that takes a value, if there is one.
+     * @param prefix The option up to and including the =.
+     * @return Its value, or null if it is not there.
+     */
+    private static String takeValue(List<String> options, String prefix) {
+        for (String option : options) {
+            if (option.startsWith(prefix)) {
+                options.remove(option);
+                return option.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply one of the --name=value options, which match those of the view.
+     */
+    private static void applyOption(Simulator simulator, String option) {
+        if (option.equals("--engine=bitgrid")) {
+            simulator.setEngine(new BitGridEngine());
+        }
+        else if (option.equals("--engine=hashlife")) {
+            simulator.setEngine(new HashLifeEngine());
+        }
+        else if (option.equals("--engine=cellstore")) {
+            simulator.setEngine(new CellStore());
+        }
+        else if (option.equals("--engine=vector")) {
+            simulator.setEngine(new VectorLifeEngine());
+        }
+        else if (option.equals("--engine=rules")) {
+            simulator.setEngine(new RuleEngine());
+        }
+        else if (option.equals("--engine=sparse")) {
+            simulator.setEngine(new SparseLifeEngine());
+        }
+        else if (option.startsWith("--engine=sparse:")) {
+            double threshold = Double.parseDouble(option.substring("--engine=sparse:".length()));
+            simulator.setEngine(new SparseLifeEngine(threshold));
+        }
+        else if (option.equals("--engine=tiled")) {
+            simulator.setEngine(new TiledLifeEngine());
+        }
+        else if (option.startsWith("--engine=tiled:")) {
+            int threads = Integer.parseInt(option.substring("--engine=tiled:".length()));
+            simulator.setEngine(new TiledLifeEngine(threads));
+        }
+        else if (option.startsWith("--threads=")) {
+            int threads = Integer.parseInt(option.substring("--threads=".length()));
+            simulator.setParallelStepper(new ParallelStepper(threads));
+        }
+        else if (option.equals("--tiles=off")) {
+            simulator.setTileTracking(false);
+        }
+        else if (option.equals("--cycles=off")) {
+            simulator.setCycleDetection(false);
+        }
+        else {
+            exitWithUsage("Unknown option: " + option);
+        }
+    }
+
+    /**
+     * Print the usage, and an error if there is one, then stop.
+     */
+    private static void exitWithUsage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+}
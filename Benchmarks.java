@@ -0,0 +1,622 @@
+import javafx.scene.paint.Color;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A benchmark suite for the simulation. It times simOneGeneration for every
+ * scenario at several grid sizes, plus the Field and FieldStats methods that
+ * every generation leans on. The scenarios VectorLifeEngine can step are
+ * timed with it as well, with and without the Vector API, and
+ * SparseLifeEngine is timed with its hash set and its dense grid over a
+ * range of densities. For each benchmark it records the throughput and,
+ * like a GC profiler, the bytes allocated per operation and the number and
+ * duration of collections.
+ *
+ * Results are written as JSON in the same layout as JMH's, so runs from
+ * different builds can be diffed with the usual tools.
+ *
+ * Usage:
+ *   java -Xmx4g Benchmarks [--out=results.json] [--sizes=80x100,1000x1000,4000x4000]
+ *        [--filter=text] [--warmup=3] [--iterations=5] [--time=1000] [--snapshot=run.snap]
+ *        [--pattern=breeder.rle] [--tiles=off] [--cycles=on]
+ * --filter only runs benchmarks whose name or scenario contains the text, and
+ * --time is the length of each warmup and measurement iteration in milliseconds.
+ * Every warmup and measurement iteration of simOneGeneration starts again
+ * from the same seed, snapshot or pattern, so each one times the same
+ * generations however fast the ones before it ran. Tile skipping is on and
+ * cycle detection off, whatever the Simulator's defaults, unless --tiles=off
+ * or --cycles=on; both are recorded in the parameters of the results.
+ * --snapshot, which may be given more than once, also times simOneGeneration
+ * from a Checkpoint saved by BatchRunner --save; given without --sizes, only
+ * the snapshots are timed. --pattern, which may also be given more than
+ * once, times simOneGeneration with a .rle or .cells pattern placed in the
+ * middle of each grid size it fits in; given without --sizes, the patterns
+ * are timed at the default sizes instead of the random scenarios.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.11
+ */
+
+public class Benchmarks {
+
+    private static final String[] SCENARIOS = {
+        "mycoplasma", "chromacell", "evolver", "diseasedcells", "predatorprey", "ripples"
+    };
+    // The scenarios VectorLifeEngine can step
+    private static final List<String> VECTOR_SCENARIOS = List.of("mycoplasma", "chromacell", "ripples");
+    // Distances apart of the blinkers timed by SparseLifeEngine.step, for densities of 12% down to 0.1%
+    private static final int[] BLINKER_SPACINGS = {5, 7, 10, 14, 20, 32, 50};
+    private static final String DEFAULT_SIZES = "80x100,1000x1000,4000x4000";
+    // z value for a 99.9% confidence interval, as JMH reports
+    private static final double CONFIDENCE_Z = 3.291;
+
+    private static int warmupIterations = 3;
+    private static int iterations = 5;
+    private static long iterationNanos = 1_000_000_000L;
+    private static String filter = "";
+    private static boolean tiles = true; // Whether the simulators skip tiles where nothing changes
+    private static boolean cycles = false; // Whether the simulators look for cycles
+    // Written to by every operation so that the JIT cannot discard the work
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException {
+        String out = "benchmarks.json";
+        String sizes = null;
+        List<String> snapshots = new ArrayList<>();
+        List<String> patterns = new ArrayList<>();
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--out=")) {
+                out = value;
+            }
+            else if (arg.startsWith("--sizes=")) {
+                sizes = value;
+            }
+            else if (arg.startsWith("--filter=")) {
+                filter = value;
+            }
+            else if (arg.startsWith("--warmup=")) {
+                warmupIterations = Integer.parseInt(value);
+            }
+            else if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(value);
+            }
+            else if (arg.startsWith("--time=")) {
+                iterationNanos = Long.parseLong(value) * 1_000_000L;
+            }
+            else if (arg.startsWith("--snapshot=")) {
+                snapshots.add(value);
+            }
+            else if (arg.startsWith("--pattern=")) {
+                patterns.add(value);
+            }
+            else if (arg.equals("--tiles=off")) {
+                tiles = false;
+            }
+            else if (arg.equals("--cycles=on")) {
+                cycles = true;
+            }
+            else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(1);
+            }
+        }
+
+        // Asking for snapshots or patterns alone leaves out the random scenarios
+        boolean scenarios = sizes != null || (snapshots.isEmpty() && patterns.isEmpty());
+        if (sizes == null) {
+            sizes = snapshots.isEmpty() || !patterns.isEmpty() ? DEFAULT_SIZES : "";
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (String snapshot : snapshots) {
+            runSnapshot(results, Paths.get(snapshot));
+        }
+        for (String size : sizes.split(",")) {
+            if (size.isEmpty()) {
+                continue;
+            }
+            String[] dims = size.split("x");
+            int depth = Integer.parseInt(dims[0]);
+            int width = Integer.parseInt(dims[1]);
+            for (String pattern : patterns) {
+                runPattern(results, Paths.get(pattern), depth, width);
+            }
+            if (!scenarios) {
+                continue;
+            }
+            for (String scenario : SCENARIOS) {
+                runGeneration(results, scenario, depth, width);
+                runVectorEngine(results, scenario, depth, width);
+            }
+            runFieldOperations(results, depth, width);
+            runSparseEngine(results, depth, width);
+        }
+
+        try (Writer writer = new FileWriter(out)) {
+            writer.write(toJson(results));
+        }
+        System.out.println("Wrote " + results.size() + " results to " + out);
+    }
+
+    /**
+     * Benchmark simOneGeneration for one scenario.
+     */
+    private static void runGeneration(List<Result> results, String scenario, int depth, int width) {
+        if (!selected("simOneGeneration", scenario)) {
+            return;
+        }
+        try {
+            results.add(measureGenerations("simOneGeneration", params(scenario, depth, width), () -> {
+                Randomizer.reset();
+                Simulator simulator = new Simulator(depth, width);
+                populate(simulator, scenario);
+                return simulator;
+            }));
+        }
+        catch (OutOfMemoryError e) {
+            System.err.println("Skipped " + scenario + " at " + depth + "x" + width
+                               + ": out of memory, try a larger -Xmx");
+        }
+    }
+
+    /**
+     * Benchmark simOneGeneration from the state saved in a checkpoint.
+     */
+    private static void runSnapshot(List<Result> results, Path snapshot) throws IOException {
+        String scenario = "snapshot:" + snapshot.getFileName();
+        if (!selected("simOneGeneration", scenario)) {
+            return;
+        }
+        try {
+            Simulator simulator = Simulator.restore(snapshot);
+            Field field = simulator.getField();
+            Map<String, String> params = params(scenario, field.getDepth(), field.getWidth());
+            params.put("generation", String.valueOf(simulator.getGeneration()));
+            results.add(measureGenerations("simOneGeneration", params, () -> {
+                try {
+                    return Simulator.restore(snapshot);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        catch (OutOfMemoryError e) {
+            System.err.println("Skipped " + snapshot + ": out of memory, try a larger -Xmx");
+        }
+    }
+
+    /**
+     * Benchmark simOneGeneration from a pattern file, placed in the middle of
+     * the field, or report that it does not fit.
+     */
+    private static void runPattern(List<Result> results, Path pattern, int depth, int width) {
+        String scenario = "pattern:" + pattern.getFileName();
+        if (!selected("simOneGeneration", scenario)) {
+            return;
+        }
+        try {
+            // Read once first, so a pattern that does not fit is skipped
+            new Simulator(depth, width).populatePattern(pattern);
+            results.add(measureGenerations("simOneGeneration", params(scenario, depth, width), () -> {
+                Simulator simulator = new Simulator(depth, width);
+                try {
+                    simulator.populatePattern(pattern);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return simulator;
+            }));
+        }
+        catch (IOException e) {
+            System.err.println("Skipped " + pattern + " at " + depth + "x" + width + ": " + e.getMessage());
+        }
+        catch (OutOfMemoryError e) {
+            System.err.println("Skipped " + pattern + " at " + depth + "x" + width
+                               + ": out of memory, try a larger -Xmx");
+        }
+    }
+
+    /**
+     * Benchmark simOneGeneration for one scenario stepped by VectorLifeEngine,
+     * first with the Vector API if it is available, then with the scalar loop.
+     */
+    private static void runVectorEngine(List<Result> results, String scenario, int depth, int width) {
+        if (!VECTOR_SCENARIOS.contains(scenario) || !selected("VectorLifeEngine.simOneGeneration", scenario)) {
+            return;
+        }
+        for (boolean useVectors : new boolean[] {true, false}) {
+            VectorLifeEngine engine = new VectorLifeEngine(useVectors);
+            if (useVectors && !engine.isVectorized()) {
+                System.err.println("Vector API not available, timing VectorLifeEngine's scalar loop only");
+                continue;
+            }
+            try {
+                Map<String, String> params = params(scenario, depth, width);
+                params.put("kernel", useVectors ? "vector" : "scalar");
+                results.add(measureGenerations("VectorLifeEngine.simOneGeneration", params, () -> {
+                    Randomizer.reset();
+                    Simulator simulator = new Simulator(depth, width);
+                    populate(simulator, scenario);
+                    simulator.setEngine(new VectorLifeEngine(useVectors));
+                    return simulator;
+                }));
+            }
+            catch (OutOfMemoryError e) {
+                System.err.println("Skipped VectorLifeEngine " + scenario + " at " + depth + "x" + width
+                                   + ": out of memory, try a larger -Xmx");
+            }
+        }
+    }
+
+    /**
+     * Benchmark the Field and FieldStats methods on a Mycoplasma population.
+     * One operation of a neighbour method handles one location, moving
+     * through the grid row by row; one operation of getPopulationDetails
+     * reads the counts the cells keep up to date.
+     */
+    private static void runFieldOperations(List<Result> results, int depth, int width) {
+        if (!selected("Field", "mycoplasma") && !selected("FieldStats", "mycoplasma")) {
+            return;
+        }
+        try {
+            Randomizer.reset();
+            Simulator simulator = new Simulator(depth, width);
+            simulator.populateMycoplasma();
+            Field field = simulator.getField();
+            Map<String, String> params = params("mycoplasma", depth, width);
+            LocationCursor cursor = new LocationCursor(depth, width);
+
+            if (selected("Field.getLivingNeighbours", "mycoplasma")) {
+                results.add(measure("Field.getLivingNeighbours", params,
+                    () -> sink += field.getLivingNeighbours(cursor.next()).size()));
+            }
+            if (selected("Field.adjacentLocations", "mycoplasma")) {
+                results.add(measure("Field.adjacentLocations", params,
+                    () -> sink += field.adjacentLocations(cursor.next()).size()));
+            }
+            if (selected("Field.countLivingNeighbours", "mycoplasma")) {
+                results.add(measure("Field.countLivingNeighbours", params, () -> {
+                    Location location = cursor.next();
+                    sink += field.countLivingNeighbours(location.getRow(), location.getCol());
+                }));
+            }
+            if (selected("FieldStats.getPopulationDetails", "mycoplasma")) {
+                FieldStats stats = field.getStats();
+                results.add(measure("FieldStats.getPopulationDetails", params,
+                    () -> sink += stats.getPopulationDetails().length()));
+            }
+        }
+        catch (OutOfMemoryError e) {
+            System.err.println("Skipped field operations at " + depth + "x" + width
+                               + ": out of memory, try a larger -Xmx");
+        }
+    }
+
+    /**
+     * Benchmark SparseLifeEngine.step on a lattice of blinkers, which keeps
+     * the same density for ever, at a range of densities, once held in the
+     * hash set and once in the dense grid. Where the two cross over is
+     * where the engine should switch between them.
+     */
+    private static void runSparseEngine(List<Result> results, int depth, int width) {
+        if (!selected("SparseLifeEngine.step", "blinkers")) {
+            return;
+        }
+        for (int spacing : BLINKER_SPACINGS) {
+            if (spacing > depth || spacing > width) {
+                continue;
+            }
+            try {
+                Field field = new Field(depth, width);
+                for (int row = 0; row < depth; row++) {
+                    for (int col = 0; col < width; col++) {
+                        Mycoplasma cell = new Mycoplasma(field, new Location(row, col), Color.ORANGE);
+                        // A row of three in the middle of each spacing x spacing square
+                        if (row % spacing != spacing / 2 || Math.abs(col % spacing - spacing / 2) > 1) {
+                            cell.setDead();
+                        }
+                    }
+                }
+                double density = 3.0 / (spacing * spacing);
+                for (boolean dense : new boolean[] {false, true}) {
+                    SparseLifeEngine engine = new SparseLifeEngine(dense ? 0 : Double.POSITIVE_INFINITY);
+                    engine.load(field);
+                    Map<String, String> params = params("blinkers", depth, width);
+                    params.put("density", String.format("%.4f", density));
+                    params.put("grid", dense ? "dense" : "sparse");
+                    results.add(measure("SparseLifeEngine.step", params, engine::step));
+                }
+            }
+            catch (OutOfMemoryError e) {
+                System.err.println("Skipped SparseLifeEngine blinkers " + spacing + " apart at " + depth + "x" + width
+                                   + ": out of memory, try a larger -Xmx");
+            }
+        }
+    }
+
+    /**
+     * Benchmark simOneGeneration on simulators set up afresh for every
+     * iteration, with tile skipping and cycle detection set as chosen.
+     * @param name The name of the benchmark.
+     * @param params The parameters it is run with, to which the tile and
+     *               cycle settings are added.
+     * @param start Makes the simulator, the same way every time.
+     * @return The measurements.
+     */
+    private static Result measureGenerations(String name, Map<String, String> params, Supplier<Simulator> start) {
+        params.put("tiles", tiles ? "on" : "off");
+        params.put("cycles", cycles ? "on" : "off");
+        Simulator[] simulator = new Simulator[1];
+        return measure(name, params, () -> {
+            // Let the last one go first, as a large grid may not fit twice
+            simulator[0] = null;
+            simulator[0] = start.get();
+            simulator[0].setTileTracking(tiles);
+            simulator[0].setCycleDetection(cycles);
+        }, () -> simulator[0].simOneGeneration());
+    }
+
+    /**
+     * Run the warmup and measurement iterations of one benchmark.
+     * @param name The name of the benchmark.
+     * @param params The parameters it is run with.
+     * @param operation One operation of the benchmark.
+     * @return The measurements.
+     */
+    private static Result measure(String name, Map<String, String> params, Runnable operation) {
+        return measure(name, params, null, operation);
+    }
+
+    /**
+     * Run the warmup and measurement iterations of one benchmark, setting
+     * it up again before each. Only the operations are timed, and only
+     * their allocations and collections counted.
+     * @param name The name of the benchmark.
+     * @param params The parameters it is run with.
+     * @param setup Run before every iteration, or null if there is nothing to do.
+     * @param operation One operation of the benchmark.
+     * @return The measurements.
+     */
+    private static Result measure(String name, Map<String, String> params, Runnable setup, Runnable operation) {
+        System.out.println(name + " " + params);
+        for (int i = 0; i < warmupIterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            runIteration(operation);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        Result result = new Result(name, params);
+        long totalOps = 0;
+        long allocated = 0;
+        for (int i = 0; i < iterations; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long gcCountBefore = gcCount();
+            long gcTimeBefore = gcTime();
+            long start = System.nanoTime();
+            long ops = runIteration(operation);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            result.gcCount += gcCount() - gcCountBefore;
+            result.gcTimeMillis += gcTime() - gcTimeBefore;
+            result.scores.add(ops / seconds);
+            totalOps += ops;
+            System.out.printf("  iteration %d: %.3f ops/s%n", i + 1, ops / seconds);
+        }
+
+        result.allocBytesPerOp = (double) allocated / totalOps;
+        return result;
+    }
+
+    /**
+     * Run the operation repeatedly for one iteration's worth of time.
+     * @return The number of operations completed.
+     */
+    private static long runIteration(Runnable operation) {
+        long end = System.nanoTime() + iterationNanos;
+        long ops = 0;
+        do {
+            operation.run();
+            ops++;
+        } while (System.nanoTime() < end);
+        return ops;
+    }
+
+    /**
+     * @return The number of collections so far, over all collectors.
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return The time spent collecting so far in milliseconds, over all collectors.
+     */
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Fill the simulator with the life forms of one scenario, as the view does.
+     */
+    private static void populate(Simulator simulator, String scenario) {
+        switch (scenario) {
+            case "mycoplasma":
+                simulator.populateMycoplasma();
+                break;
+            case "chromacell":
+                simulator.populateChromaCell();
+                break;
+            case "evolver":
+                simulator.populateEvolver();
+                break;
+            case "diseasedcells":
+                simulator.populateDiseasedCells();
+                break;
+            case "predatorprey":
+                simulator.populatePredator();
+                simulator.populatePrey();
+                break;
+            case "ripples":
+                simulator.populateRipples();
+                break;
+        }
+    }
+
+    /**
+     * @return true if the benchmark was not filtered out.
+     */
+    private static boolean selected(String name, String scenario) {
+        return name.contains(filter) || scenario.contains(filter);
+    }
+
+    private static Map<String, String> params(String scenario, int depth, int width) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("scenario", scenario);
+        params.put("depth", String.valueOf(depth));
+        params.put("width", String.valueOf(width));
+        return params;
+    }
+
+    /**
+     * Lay the results out as JMH does in its JSON output.
+     */
+    private static String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            json.append("  {\n");
+            json.append("    \"benchmark\" : \"Benchmarks.").append(result.name).append("\",\n");
+            json.append("    \"mode\" : \"thrpt\",\n");
+            json.append("    \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            json.append("    \"measurementIterations\" : ").append(iterations).append(",\n");
+            json.append("    \"params\" : {");
+            String separator = " ";
+            for (Map.Entry<String, String> param : result.params.entrySet()) {
+                json.append(separator).append('"').append(param.getKey()).append("\" : \"")
+                    .append(param.getValue()).append('"');
+                separator = ", ";
+            }
+            json.append(" },\n");
+            json.append("    \"primaryMetric\" : {\n");
+            json.append("      \"score\" : ").append(result.mean()).append(",\n");
+            double error = result.error();
+            json.append("      \"scoreError\" : ").append(Double.isNaN(error) ? "\"NaN\"" : String.valueOf(error)).append(",\n");
+            json.append("      \"scoreUnit\" : \"ops/s\",\n");
+            json.append("      \"rawData\" : [ [ ");
+            for (int j = 0; j < result.scores.size(); j++) {
+                json.append(j == 0 ? "" : ", ").append(result.scores.get(j));
+            }
+            json.append(" ] ]\n");
+            json.append("    },\n");
+            json.append("    \"secondaryMetrics\" : {\n");
+            appendMetric(json, "gc.alloc.rate.norm", result.allocBytesPerOp, "B/op", true);
+            appendMetric(json, "gc.count", result.gcCount, "counts", true);
+            appendMetric(json, "gc.time", result.gcTimeMillis, "ms", false);
+            json.append("    }\n");
+            json.append(i == results.size() - 1 ? "  }\n" : "  },\n");
+        }
+        return json.append("]\n").toString();
+    }
+
+    private static void appendMetric(StringBuilder json, String name, double score, String unit, boolean more) {
+        json.append("      \"").append(name).append("\" : { \"score\" : ").append(score)
+            .append(", \"scoreUnit\" : \"").append(unit).append("\" }").append(more ? ",\n" : "\n");
+    }
+
+    /**
+     * The measurements of one benchmark.
+     */
+    private static class Result {
+
+        private final String name;
+        private final Map<String, String> params;
+        private final List<Double> scores = new ArrayList<>();
+        private double allocBytesPerOp;
+        private long gcCount;
+        private long gcTimeMillis;
+
+        Result(String name, Map<String, String> params) {
+            this.name = name;
+            this.params = params;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.size();
+        }
+
+        /**
+         * @return Half the width of the 99.9% confidence interval of the mean.
+         */
+        double error() {
+            if (scores.size() < 2) {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double score : scores) {
+                squares += (score - mean) * (score - mean);
+            }
+            double deviation = Math.sqrt(squares / (scores.size() - 1));
+            return CONFIDENCE_Z * deviation / Math.sqrt(scores.size());
+        }
+    }
+
+    /**
+     * Walks every location of the grid in turn, wrapping back to the start,
+     * without creating new locations along the way.
+     */
+    private static class LocationCursor {
+
+        private final Location[] locations;
+        private int next;
+
+        LocationCursor(int depth, int width) {
+            // Cap the number held so the cursor stays small on large grids
+            int count = Math.min(depth * width, 1 << 16);
+            locations = new Location[count];
+            for (int i = 0; i < count; i++) {
+                locations[i] = new Location(i / width, i % width);
+            }
+        }
+
+        Location next() {
+            Location location = locations[next];
+            next = (next + 1) % locations.length;
+            return location;
+        }
+    }
+}
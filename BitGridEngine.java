@@ -0,0 +1,250 @@
+/**
+ * A bit-packed engine for the Mycoplasma rules (classic Conway B3/S23).
+ * Each row of the grid is stored as 64 cells per long, and the next
+ * generation is computed a whole word at a time by adding the eight
+ * neighbour bit planes with bitwise adder logic. Cells outside the grid
+ * are always dead, exactly as in Field.
+ *
+ * Bit (col % 64) of word (col / 64) holds column col, so the neighbour to
+ * the west of a cell is one bit lower and the one to the east one bit higher.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.04
+ */
+
+public class BitGridEngine implements LifeEngine {
+
+    private int depth, width;
+    private int wordsPerRow;
+    private long lastWordMask; // Keeps the unused bits of each row's last word clear
+    private long[] current;
+    private long[] next;
+
+    /**
+     * Create an engine that is sized when a field is loaded.
+     */
+    public BitGridEngine() {
+        this(0, 0);
+    }
+
+    /**
+     * Create an empty (all dead) grid of the given size. Useful for grids
+     * that are too large to be represented with a Cell per location.
+     * @param depth The depth of the grid.
+     * @param width The width of the grid.
+     */
+    public BitGridEngine(int depth, int width) {
+        resize(depth, width);
+    }
+
+    /**
+     * Only fields made up entirely of Mycoplasma follow the Conway rules,
+     * and the grid does not wrap around.
+     */
+    public boolean supports(Field field) {
+        return field.getTopology() == Topology.BOUNDED && field.containsOnly(Mycoplasma.class);
+    }
+
+    /**
+     * Pack the living/dead state of the field into bits.
+     */
+    public void load(Field field) {
+        if (field.getDepth() != depth || field.getWidth() != width) {
+            resize(field.getDepth(), field.getWidth());
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                setAlive(row, col, cell != null && cell.isAlive());
+            }
+        }
+    }
+
+    /**
+     * Unpack the bits into the cells of the field.
+     */
+    public void store(Field field) {
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell != null) {
+                    cell.setNextState(isAlive(row, col));
+                    cell.updateState();
+                }
+            }
+        }
+    }
+
+    /**
+     * The last generation is still in the spare buffer, so the cells that
+     * changed are the bits that differ between the two.
+     */
+    public boolean reportChanges(Changes changes) {
+        for (int row = 0; row < depth; row++) {
+            int base = row * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long bits = current[base + w] ^ next[base + w];
+                if (bits != 0) {
+                    changes.flip(row * width + (w << 6), bits);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute the next generation of every row and swap the buffers.
+     */
+    public void step() {
+        for (int row = 0; row < depth; row++) {
+            stepRow(row);
+        }
+        long[] swap = current;
+        current = next;
+        next = swap;
+    }
+
+    /**
+     * Compute the next generation of one row from the rows above and below it.
+     * The neighbour count of every cell in a word is built up as three bit
+     * planes: each of the three rows contributes a two bit partial count, and
+     * the partial counts are then added column-wise. Counts are only needed
+     * modulo 8, as a count of 8 and a count of 0 both mean death.
+     * @param row The row to compute.
+     */
+    private void stepRow(int row) {
+        int base = row * wordsPerRow;
+        int above = base - wordsPerRow;
+        int below = base + wordsPerRow;
+        boolean hasAbove = row > 0;
+        boolean hasBelow = row < depth - 1;
+
+        for (int w = 0; w < wordsPerRow; w++) {
+            boolean hasWest = w > 0;
+            boolean hasEast = w < wordsPerRow - 1;
+
+            // Row above: west + centre + east as a two bit count (a1 a0)
+            long a0 = 0, a1 = 0;
+            if (hasAbove) {
+                long c = current[above + w];
+                long west = westOf(c, hasWest ? current[above + w - 1] : 0);
+                long east = eastOf(c, hasEast ? current[above + w + 1] : 0);
+                a0 = west ^ c ^ east;
+                a1 = (west & c) | (east & (west ^ c));
+            }
+
+            // Own row: only west + east, the cell itself is not a neighbour
+            long self = current[base + w];
+            long west = westOf(self, hasWest ? current[base + w - 1] : 0);
+            long east = eastOf(self, hasEast ? current[base + w + 1] : 0);
+            long m0 = west ^ east;
+            long m1 = west & east;
+
+            // Row below, as for the row above
+            long b0 = 0, b1 = 0;
+            if (hasBelow) {
+                long c = current[below + w];
+                long bWest = westOf(c, hasWest ? current[below + w - 1] : 0);
+                long bEast = eastOf(c, hasEast ? current[below + w + 1] : 0);
+                b0 = bWest ^ c ^ bEast;
+                b1 = (bWest & c) | (bEast & (bWest ^ c));
+            }
+
+            // Add the three partial counts: ones column, then twos and fours
+            long s0 = a0 ^ m0 ^ b0;
+            long carry = (a0 & m0) | (b0 & (a0 ^ m0));
+            long t = a1 ^ m1;
+            long u = b1 ^ carry;
+            long s1 = t ^ u;
+            long s2 = (a1 & m1) ^ (b1 & carry) ^ (t & u);
+
+            // Alive next if the count is 3, or it is 2 and the cell is alive
+            long result = s1 & ~s2 & (s0 | self);
+            if (!hasEast) {
+                result &= lastWordMask;
+            }
+            next[base + w] = result;
+        }
+    }
+
+    /**
+     * Shift a word so that each bit holds its western neighbour.
+     * @param word The word being computed.
+     * @param westWord The word to the west of it, or 0 at the edge.
+     */
+    private static long westOf(long word, long westWord) {
+        return (word << 1) | (westWord >>> 63);
+    }
+
+    /**
+     * Shift a word so that each bit holds its eastern neighbour.
+     * @param word The word being computed.
+     * @param eastWord The word to the east of it, or 0 at the edge.
+     */
+    private static long eastOf(long word, long eastWord) {
+        return (word >>> 1) | (eastWord << 63);
+    }
+
+    /**
+     * Check whether the cell at the given position is alive.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @return true if the cell is alive.
+     */
+    public boolean isAlive(int row, int col) {
+        return (current[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Set the state of the cell at the given position.
+     * @param row The row of the cell.
+     * @param col The column of the cell.
+     * @param alive Whether the cell should be alive.
+     */
+    public void setAlive(int row, int col, boolean alive) {
+        int index = row * wordsPerRow + (col >>> 6);
+        if (alive) {
+            current[index] |= 1L << col;
+        }
+        else {
+            current[index] &= ~(1L << col);
+        }
+    }
+
+    public long getPopulation() {
+        long population = 0;
+        for (long word : current) {
+            population += Long.bitCount(word);
+        }
+        return population;
+    }
+
+    /**
+     * Return the depth of the grid.
+     * @return The depth of the grid.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the width of the grid.
+     * @return The width of the grid.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Allocate empty buffers for a grid of the given size.
+     */
+    private void resize(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        int usedBits = width & 63;
+        lastWordMask = usedBits == 0 ? -1L : (1L << usedBits) - 1;
+        current = new long[depth * wordsPerRow];
+        next = new long[depth * wordsPerRow];
+    }
+}
@@ -9,12 +9,15 @@ import javafx.scene.paint.Color;
 
 public abstract class Cell {
 
-    private boolean alive;    
-    private boolean nextAlive; // The state of the cell in the next iteration
+    private static final int WHITE = Palette.intern(Color.WHITE);
+    private int index; // This cell's index in the field's GenerationBuffers
+    private boolean alive; // A copy of this cell's current state in the buffers, as it is read so often
     private int livingGenerations; // How many generations the cell has been alive
     private Field field;
     private Location location;
-    private Color color = Color.WHITE;
+    private int color = WHITE; // The index of the cell's colour in the Palette
+    private FieldStats stats; // The statistics of the field, told of every change, or null while not shown
+    private int statsType; // The index of this cell's class in stats
 
     /**
      * Create a new cell at location in field.
@@ -23,12 +26,14 @@ public abstract class Cell {
      * @param location The location within the field.
      */
     public Cell(Field field, Location location, Color col) {
-        alive = true;
-        nextAlive = false;
         livingGenerations = 0;
         this.field = field;
-        setLocation(location);
+        index = field.getStates().register(this);
+        alive = true;
         setColor(col);
+        statsType = field.getStats().register(getClass());
+        // Placing the cell counts it in the field's statistics
+        setLocation(location);
     }
 
     /**
@@ -37,6 +42,18 @@ public abstract class Cell {
      */
     abstract public void act();
 
+    /**
+     * Check whether act() is certain to leave this cell exactly as it is, as
+     * long as neither it nor any of its neighbours changed in the previous
+     * generation. This lets the simulator skip regions where nothing is
+     * happening. Cells that draw random numbers, move, or change colour over
+     * time must return false, which is the default.
+     * @return true if the cell can safely be skipped while its surroundings are unchanged.
+     */
+    protected boolean isStable() {
+        return false;
+    }
+
     /**
      * Check whether the cell is alive or not.
      * @return true if the cell is still alive.
@@ -49,7 +66,7 @@ public abstract class Cell {
      * Indicate that the cell is no longer alive.
      */
     protected void setDead() {
-        alive = false;
+        setAlive(false);
     }
     
     /**
@@ -75,30 +92,141 @@ public abstract class Cell {
      * Indicate that the cell will be alive or dead in the next generation.
      */
     public void setNextState(boolean value) {
-        nextAlive = value;
+        field.getStates().setNext(index, value);
+    }
+
+    /**
+     * Return the state the cell will be in after the next update.
+     */
+    public boolean getNextState() {
+        return field.getStates().getNext(index);
     }
 
     /**
-     * Changes the state of the cell
+     * Set the state this cell will be in after the next update, on behalf of
+     * a neighbour. This is applied after every cell has acted, so it wins
+     * over the state the cell sets for itself whichever of them acts first.
+     */
+    public void imposeNextState(boolean value) {
+        field.getStates().imposeNextState(index, value);
+    }
+
+    /**
+     * Set the colour this cell will have after the next update, on behalf
+     * of a neighbour, as an index in the Palette. Like imposeNextState,
+     * this is applied after every cell has acted.
+     */
+    public void imposeColor(int col) {
+        field.getStates().imposeColor(index, col);
+    }
+
+    /**
+     * Changes the state of the cell on its own, rather than as part of a
+     * GenerationBuffers commit.
      */
     public void updateState() {
-        alive = nextAlive;
+        GenerationBuffers states = field.getStates();
+        states.applyImposedState(index);
+        setAlive(getNextState());
+        int imposed = states.takeImposedColor(index);
+        if (imposed >= 0) {
+            setColorIndex(imposed);
+        }
     }
 
     /**
-     * Changes the color of the cell
+     * Change whether the cell is alive, keeping the field's statistics up to date.
+     */
+    private void setAlive(boolean value) {
+        if (alive != value) {
+            field.getStates().setAlive(index, value);
+            aliveChanged(value);
+        }
+    }
+
+    /**
+     * Take on a state that has changed in the buffers, and tell the field's
+     * statistics and display that the cell has come to life or died.
+     */
+    void aliveChanged(boolean value) {
+        alive = value;
+        if (stats != null) {
+            stats.aliveChanged(statsType, value, color);
+        }
+        markShownChanged();
+    }
+
+    /**
+     * Start or stop counting the cell in the field's statistics, as it is
+     * placed in the field or another cell is placed over it. Only the cell
+     * a location shows is counted.
+     * @param counted Whether the cell is to be counted.
+     */
+    void setCounted(boolean counted) {
+        if (counted == (stats != null)) {
+            return;
+        }
+        if (counted) {
+            stats = field.getStats();
+            stats.cellAdded(statsType, alive, color);
+        }
+        else {
+            stats.cellRemoved(statsType, alive, color);
+            stats = null;
+        }
+    }
+
+    /**
+     * Changes the color of the cell. This looks the colour up in the
+     * Palette; cells that change colour every generation should use
+     * setColorIndex.
      */
     public void setColor(Color col) {
+        setColorIndex(Palette.intern(col));
+    }
+
+    /**
+     * Changes the color of the cell to one in the Palette
+     */
+    public void setColorIndex(int col) {
+        int old = color;
         color = col;
+        if (stats != null && alive && old != col) {
+            stats.colorChanged(old, col);
+            markShownChanged();
+        }
     }
 
     /**
      * Returns the cell's color
      */
     public Color getColor() {
+        return Palette.getColor(color);
+    }
+
+    /**
+     * Returns the index of the cell's color in the Palette
+     */
+    public int getColorIndex() {
         return color;
     }
 
+    /**
+     * Returns the cell's color packed into an int, as premultiplied ARGB
+     */
+    public int getArgb() {
+        return Palette.getArgb(color);
+    }
+
+    /**
+     * Pack a colour into an int as premultiplied ARGB, as Palette.toArgb does.
+     * @param color The colour to pack, or null for transparent.
+     * @return The packed colour.
+     */
+    public static int toArgb(Color color) {
+        return Palette.toArgb(color);
+    }
+
     /**
      * Return the cell's location.
      * @return The cell's location.
@@ -116,6 +244,29 @@ public abstract class Cell {
         field.place(this, location);
     }
 
+    /**
+     * Ask to move to an adjacent location once every cell has acted. The
+     * move is only made if no other cell wins the location (see MoveClaims).
+     * @param location The location to move to.
+     */
+    protected void requestMove(Location location) {
+        field.requestMove(this, location);
+    }
+
+    /**
+     * Take note of the location the field has moved this cell to.
+     */
+    void relocate(Location location) {
+        this.location = location;
+    }
+
+    /**
+     * Tell the field that the location showing this cell needs redrawing.
+     */
+    private void markShownChanged() {
+        field.markChanged(location);
+    }
+
     /**
      * Return the cell's field.
      * @return The cell's field.
@@ -0,0 +1,178 @@
+import java.util.Random;
+
+/**
+ * The rules of the life forms that a CellStore can step, rewritten to work
+ * on the store's arrays instead of on Cell objects. Each rule is the same as
+ * the act method of its class, step for step, including the random numbers
+ * it draws; the state a cell object keeps in its fields is kept in the
+ * store instead.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.20
+ */
+
+public class CellRules {
+
+    /**
+     * Make every cell in the store act, in index order.
+     * @param store The cells.
+     */
+    public static void act(CellStore store) {
+        int size = store.getDepth() * store.getWidth();
+        // Each cell's stream, if the simulator is stepping a generation, or the shared generator
+        SplitRandom streams = Randomizer.getStreams();
+        Random rand = streams != null ? streams : Randomizer.getRandom();
+        for (int i = 0; i < size; i++) {
+            switch (store.getType(i)) {
+                case CellStore.MYCOPLASMA:
+                    mycoplasma(store, i);
+                    break;
+                case CellStore.CHROMA_CELL:
+                    chromaCell(store, i);
+                    break;
+                case CellStore.RIPPLES:
+                    ripples(store, i);
+                    break;
+                case CellStore.DISEASED_CELLS:
+                    if (streams != null) {
+                        streams.select(i);
+                    }
+                    diseasedCells(store, i, rand);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (streams != null) {
+            // Ready for the next generation, if the engine is stepping several at once
+            streams.nextGeneration();
+        }
+    }
+
+    /**
+     * Move ChromaCell and Ripples cells on to their next hue, as their act
+     * methods do, from whether they were and will be alive. The arrays are
+     * those of an engine holding a byte per cell, 1 if alive.
+     * @param types The CellStore type code of each cell.
+     * @param alive Whether each cell is alive now.
+     * @param next Whether each cell will be alive.
+     * @param hues The hue of each cell, in steps of CellStore.HUE_STEP.
+     * @param shades The hue step each cell is shown in.
+     */
+    public static void advanceHues(byte[] types, byte[] alive, byte[] next, byte[] hues, byte[] shades) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == CellStore.CHROMA_CELL) {
+                if (next[i] != 0) {
+                    if (alive[i] != 0) {
+                        hues[i] = (byte) ((hues[i] + 1) % CellStore.HUE_STEPS);
+                        shades[i] = hues[i];
+                    }
+                    else {
+                        shades[i] = 0;
+                    }
+                }
+            }
+            else if (types[i] == CellStore.RIPPLES) {
+                hues[i] = (byte) (next[i] != 0 ? (hues[i] + 1) % CellStore.HUE_STEPS : 0);
+                shades[i] = hues[i];
+            }
+        }
+    }
+
+    /**
+     * As Mycoplasma.act: Conway's rules.
+     */
+    private static void mycoplasma(CellStore store, int i) {
+        int neighbours = store.getNeighbourCount(i);
+        if (store.isAlive(i)) {
+            store.setNextAlive(i, neighbours == 2 || neighbours == 3);
+        }
+        else if (neighbours == 3) {
+            store.setNextAlive(i, true);
+        }
+    }
+
+    /**
+     * As ChromaCell.act: survives on 2 to 4 neighbours, cycling its hue.
+     */
+    private static void chromaCell(CellStore store, int i) {
+        int neighbours = store.getNeighbourCount(i);
+        if (store.isAlive(i)) {
+            if (neighbours < 2 || neighbours > 4) {
+                store.setNextAlive(i, false);
+            }
+            else {
+                int hue = (store.getHue(i) + 1) % CellStore.HUE_STEPS;
+                store.setHue(i, hue);
+                store.setColor(i, Palette.hue(hue));
+                store.setNextAlive(i, true);
+            }
+        }
+        else if (neighbours == 3) {
+            store.setColor(i, Palette.hue(0));
+            store.setNextAlive(i, true);
+        }
+    }
+
+    /**
+     * As Ripples.act: lives and cycles its hue with 2 or more neighbours.
+     */
+    private static void ripples(CellStore store, int i) {
+        int neighbours = store.getNeighbourCount(i);
+        if (neighbours >= 2) {
+            int hue = (store.getHue(i) + 1) % CellStore.HUE_STEPS;
+            store.setHue(i, hue);
+            store.setColor(i, Palette.hue(hue));
+            store.setNextAlive(i, true);
+        }
+        else {
+            store.setHue(i, 0);
+            store.setColor(i, Palette.hue(0));
+            store.setNextAlive(i, false);
+        }
+    }
+
+    /**
+     * As DiseasedCells.act: a healthy cell survives on 2 to 4 neighbours and
+     * may catch the disease; an infected one may die, recover, or infect
+     * its living neighbours.
+     */
+    private static void diseasedCells(CellStore store, int i, Random rand) {
+        int neighbours = store.getNeighbourCount(i);
+        if (store.getColor(i) == DiseasedCells.INFECTED) {
+            store.setInfected(i, true);
+        }
+
+        if (!store.isInfected(i)) {
+            if (store.isAlive(i)) {
+                store.setNextAlive(i, neighbours >= 2 && neighbours <= 4);
+            }
+            else if (neighbours == 3) {
+                store.setNextAlive(i, true);
+            }
+            if (rand.nextDouble() <= 0.01) {
+                store.setNextAlive(i, true);
+                store.setInfected(i, true);
+                store.setColor(i, DiseasedCells.INFECTED);
+            }
+        }
+        else {
+            if (rand.nextDouble() < 0.2) {
+                store.setNextAlive(i, false);
+                store.setInfected(i, false);
+                store.setColor(i, DiseasedCells.HEALTHY);
+            }
+            else if (rand.nextDouble() < 0.05) {
+                store.setNextAlive(i, true);
+                store.setInfected(i, false);
+                store.setColor(i, DiseasedCells.HEALTHY);
+            }
+            for (int n = 0; n < Field.NEIGHBOURS; n++) {
+                int index = store.neighbourIndex(i, n);
+                if (index >= 0 && rand.nextDouble() < 0.3 && store.isAlive(index)) {
+                    store.imposeInfection(index);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the state of every cell in a field as parallel arrays of
+ * primitives, and steps it with the stateless rules in CellRules. Location
+ * row, col is at index row * width + col in every array, so a generation
+ * walks each array once from start to end.
+ *
+ * This works for fields where every location holds its own cell of a type
+ * with rules in CellRules (Mycoplasma, ChromaCell, Ripples, DiseasedCells).
+ * Cells act in row-major order, the order the Simulator creates them in, so
+ * random numbers are drawn in the same order as when the cells act
+ * themselves and the results are identical.
+ *
+ * Once loaded, the store is the model: the Simulator takes the Cell objects
+ * out of the field and drops them, and draws from the store and counts its
+ * cells (see markChanged and countCells). Cells are only made again, by
+ * createCells, when something needs the objects, such as saving or export.
+ * A cell costs about 7 bytes here: a byte each for its type, hue step and
+ * neighbour count, an int for its colour (an index in the Palette), and
+ * bits for alive, next alive, infected, being infected by a neighbour and
+ * having changed. With the field's empty array of cells, that is about 12
+ * bytes a location.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.20
+ */
+
+public class CellStore implements LifeEngine {
+
+    // The types of cell, as stored in types
+    public static final byte NONE = 0;
+    public static final byte MYCOPLASMA = 1;
+    public static final byte CHROMA_CELL = 2;
+    public static final byte RIPPLES = 3;
+    public static final byte DISEASED_CELLS = 4;
+    // Hues advance in steps of this many degrees
+    public static final int HUE_STEP = Palette.HUE_STEP;
+    public static final int HUE_STEPS = Palette.HUE_STEPS;
+    // Row and column offsets of each neighbour, in the same order as Field
+    private static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
+    // The class of cell for each type
+    private static final Class<?>[] CLASSES = {null, Mycoplasma.class, ChromaCell.class, Ripples.class,
+                                                DiseasedCells.class};
+
+    private int depth, width, size;
+    private long[] alive; // One bit per cell
+    private long[] next; // Whether each cell will be alive after the update
+    private long[] flipped; // The cells that came to life or died in the last step
+    private long[] infected; // Whether each DiseasedCells cell knows it is infected
+    private long[] imposedInfections; // Cells infected by a neighbour this generation
+    private long[] shown; // The cells that came to life, died or changed colour since markChanged
+    private byte[] types;
+    private byte[] hues; // ChromaCell and Ripples hue, in steps of HUE_STEP degrees
+    private int[] colors; // Palette indices, as Cell.getColorIndex
+    private byte[] counts; // Living neighbours of each cell, worked out at the start of a step
+    private int[] columnSums; // Working space for countNeighbours
+
+    /**
+     * Check that the field has hard edges and that every location holds a
+     * cell of a type with rules in CellRules. None of those types move, so
+     * each cell stays at its location.
+     */
+    public boolean supports(Field field) {
+        if (field.getTopology() != Topology.BOUNDED) {
+            return false;
+        }
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell == null || typeOf(cell) == NONE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the state of every cell into the arrays.
+     */
+    public void load(Field field) {
+        if (field.getDepth() != depth || field.getWidth() != width) {
+            resize(field.getDepth(), field.getWidth());
+        }
+        for (int i = 0; i < size; i++) {
+            Cell cell = field.getObjectAt(i);
+            types[i] = typeOf(cell);
+            setBit(alive, i, cell.isAlive());
+            setBit(next, i, cell.getNextState());
+            colors[i] = cell.getColorIndex();
+            hues[i] = 0;
+            setBit(infected, i, false);
+            if (cell instanceof ChromaCell) {
+                hues[i] = (byte) ((ChromaCell) cell).getHue();
+            }
+            else if (cell instanceof Ripples) {
+                hues[i] = (byte) ((Ripples) cell).getHue();
+            }
+            else if (cell instanceof DiseasedCells) {
+                setBit(infected, i, ((DiseasedCells) cell).isInfected());
+            }
+        }
+        Arrays.fill(shown, 0);
+    }
+
+    /**
+     * Run one generation: every cell acts in turn, then all are updated
+     * together by copying the next alive bits over the current ones and
+     * showing the infections neighbours passed on.
+     */
+    public void step() {
+        countNeighbours();
+        CellRules.act(this);
+        for (int word = 0; word < alive.length; word++) {
+            flipped[word] = alive[word] ^ next[word];
+            shown[word] |= flipped[word];
+        }
+        System.arraycopy(next, 0, alive, 0, alive.length);
+        applyImposedInfections();
+    }
+
+    /**
+     * Write the arrays back into the cells of the field.
+     */
+    public void store(Field field) {
+        for (int i = 0; i < size; i++) {
+            Cell cell = field.getObjectAt(i);
+            cell.setColorIndex(colors[i]);
+            cell.setNextState(isAlive(i));
+            cell.updateState();
+            cell.setNextState(isNextAlive(i));
+            if (cell instanceof ChromaCell) {
+                ((ChromaCell) cell).setHue(hues[i]);
+            }
+            else if (cell instanceof Ripples) {
+                ((Ripples) cell).setHue(hues[i]);
+            }
+            else if (cell instanceof DiseasedCells) {
+                ((DiseasedCells) cell).setInfected(isInfected(i));
+            }
+        }
+    }
+
+    /**
+     * Make a cell in the field for every location, in row-major order, in
+     * the state the store holds, as when the Simulator needs the objects
+     * again. The field must be empty.
+     * @param field The field, of the size the store was loaded from.
+     * @return The cells, in the order they were made.
+     */
+    public List<Cell> createCells(Field field) {
+        List<Cell> cells = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Location location = new Location(i / width, i % width);
+            Cell cell;
+            switch (types[i]) {
+                case CHROMA_CELL:
+                    ChromaCell chroma = new ChromaCell(field, location);
+                    chroma.setHue(hues[i]);
+                    cell = chroma;
+                    break;
+                case RIPPLES:
+                    Ripples ripples = new Ripples(field, location);
+                    ripples.setHue(hues[i]);
+                    cell = ripples;
+                    break;
+                case DISEASED_CELLS:
+                    DiseasedCells diseased = new DiseasedCells(field, location);
+                    diseased.setInfected(isInfected(i));
+                    cell = diseased;
+                    break;
+                default:
+                    cell = new Mycoplasma(field, location, Palette.getColor(colors[i]));
+                    break;
+            }
+            cell.setColorIndex(colors[i]);
+            if (!isAlive(i)) {
+                cell.setDead();
+            }
+            cell.setNextState(isNextAlive(i));
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    /**
+     * Mark the locations whose cell came to life, died or changed colour
+     * since the last call as changed in the field, for a view to redraw.
+     * @param field The field.
+     */
+    public void markChanged(Field field) {
+        for (int word = 0; word < shown.length; word++) {
+            long bits = shown[word];
+            while (bits != 0) {
+                field.markChanged((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+            shown[word] = 0;
+        }
+    }
+
+    /**
+     * Count the cells afresh into the statistics of the field they came
+     * from, in place of the cells counting themselves as they change.
+     * @param stats The statistics, with every type of cell here registered.
+     */
+    public void countCells(FieldStats stats) {
+        int[] living = new int[CLASSES.length];
+        int[] colorCounts = new int[Palette.size()];
+        int dead = 0;
+        for (int i = 0; i < size; i++) {
+            if (isAlive(i)) {
+                living[types[i]]++;
+                colorCounts[colors[i]]++;
+            }
+            else {
+                dead++;
+            }
+        }
+        int[] typeCounts = new int[0];
+        for (int type = 1; type < CLASSES.length; type++) {
+            if (living[type] > 0) {
+                int index = stats.register(CLASSES[type]);
+                if (index >= typeCounts.length) {
+                    typeCounts = Arrays.copyOf(typeCounts, index + 1);
+                }
+                typeCounts[index] = living[type];
+            }
+        }
+        stats.setCounts(typeCounts, dead, colorCounts);
+    }
+
+    /**
+     * The cells that changed are kept as step copies the next alive bits
+     * over the current ones, 64 to a word in the same order as the field.
+     */
+    public boolean reportChanges(Changes changes) {
+        for (int word = 0; word < flipped.length; word++) {
+            if (flipped[word] != 0) {
+                changes.flip(word << 6, flipped[word]);
+            }
+        }
+        return true;
+    }
+
+    public long getPopulation() {
+        long population = 0;
+        for (long word : alive) {
+            population += Long.bitCount(word);
+        }
+        return population;
+    }
+
+    /**
+     * @return The number of bytes of state held for each cell.
+     */
+    public double getBytesPerCell() {
+        long bytes = 8L * (alive.length + next.length + flipped.length
+                           + infected.length + imposedInfections.length + shown.length)
+                     + types.length + hues.length + counts.length + 4L * colors.length;
+        return (double) bytes / size;
+    }
+
+    /**
+     * @return The depth of the grid.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the grid.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The type of the cell at an index.
+     */
+    public byte getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @return The number of living neighbours the cell at an index had at
+     *         the start of this generation.
+     */
+    public int getNeighbourCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return true if the cell at an index is alive in this generation.
+     */
+    public boolean isAlive(int index) {
+        return (alive[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return true if the cell at an index will be alive after the update.
+     */
+    public boolean isNextAlive(int index) {
+        return (next[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Set whether the cell at an index will be alive after the update.
+     */
+    public void setNextAlive(int index, boolean value) {
+        setBit(next, index, value);
+    }
+
+    /**
+     * @return true if the DiseasedCells cell at an index knows it is infected.
+     */
+    public boolean isInfected(int index) {
+        return (infected[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Set whether the DiseasedCells cell at an index knows it is infected.
+     */
+    public void setInfected(int index, boolean value) {
+        setBit(infected, index, value);
+    }
+
+    /**
+     * Give the cell at an index the infected colour once every cell has
+     * acted, as Cell.imposeColor does.
+     */
+    public void imposeInfection(int index) {
+        setBit(imposedInfections, index, true);
+    }
+
+    /**
+     * @return The hue of the cell at an index, in steps of HUE_STEP degrees.
+     */
+    public int getHue(int index) {
+        return hues[index];
+    }
+
+    /**
+     * Set the hue of the cell at an index, in steps of HUE_STEP degrees.
+     */
+    public void setHue(int index, int hue) {
+        hues[index] = (byte) hue;
+    }
+
+    /**
+     * @return The palette index of the colour of the cell at an index.
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Set the colour of the cell at an index to one in the Palette.
+     */
+    public void setColor(int index, int color) {
+        if (colors[index] != color) {
+            colors[index] = color;
+            setBit(shown, index, true);
+        }
+    }
+
+    /**
+     * Return the index of a neighbour of a cell, in the same order as
+     * Field.neighbourIndex.
+     * @param index The index of the cell.
+     * @param neighbour Which neighbour, from 0 to Field.NEIGHBOURS - 1.
+     * @return The index of the neighbour, or -1 if it lies outside the grid.
+     */
+    public int neighbourIndex(int index, int neighbour) {
+        int row = index / width + ROW_OFFSETS[neighbour];
+        int col = index % width + COL_OFFSETS[neighbour];
+        if (row < 0 || row >= depth || col < 0 || col >= width) {
+            return -1;
+        }
+        return row * width + col;
+    }
+
+    /**
+     * Work out the number of living neighbours of every cell, a row at a
+     * time. Each column's sum over the rows above, at and below is found
+     * first, so each count is then three additions.
+     */
+    private void countNeighbours() {
+        for (int row = 0; row < depth; row++) {
+            int base = row * width;
+            for (int col = 0; col < width; col++) {
+                int sum = isAlive(base + col) ? 1 : 0;
+                if (row > 0 && isAlive(base - width + col)) {
+                    sum++;
+                }
+                if (row < depth - 1 && isAlive(base + width + col)) {
+                    sum++;
+                }
+                columnSums[col + 1] = sum;
+            }
+            for (int col = 0; col < width; col++) {
+                int sum = columnSums[col] + columnSums[col + 1] + columnSums[col + 2];
+                counts[base + col] = (byte) (isAlive(base + col) ? sum - 1 : sum);
+            }
+        }
+    }
+
+    /**
+     * Give every cell infected by a neighbour the infected colour.
+     */
+    private void applyImposedInfections() {
+        for (int word = 0; word < imposedInfections.length; word++) {
+            long bits = imposedInfections[word];
+            while (bits != 0) {
+                colors[(word << 6) + Long.numberOfTrailingZeros(bits)] = DiseasedCells.INFECTED;
+                bits &= bits - 1;
+            }
+            shown[word] |= imposedInfections[word];
+            imposedInfections[word] = 0;
+        }
+    }
+
+    /**
+     * @return The type code for a cell, or NONE if it has no rules here.
+     */
+    private static byte typeOf(Cell cell) {
+        Class<?> type = cell.getClass();
+        if (type == Mycoplasma.class) {
+            return MYCOPLASMA;
+        }
+        if (type == ChromaCell.class) {
+            return CHROMA_CELL;
+        }
+        if (type == Ripples.class) {
+            return RIPPLES;
+        }
+        if (type == DiseasedCells.class) {
+            return DISEASED_CELLS;
+        }
+        return NONE;
+    }
+
+    private static void setBit(long[] bits, int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        }
+        else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Allocate the arrays for a grid of the given size.
+     */
+    private void resize(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        size = depth * width;
+        int words = (size + 63) >>> 6;
+        alive = new long[words];
+        next = new long[words];
+        flipped = new long[words];
+        infected = new long[words];
+        imposedInfections = new long[words];
+        shown = new long[words];
+        types = new byte[size];
+        hues = new byte[size];
+        colors = new int[size];
+        counts = new byte[size];
+        columnSums = new int[width + 2];
+    }
+}
@@ -0,0 +1,511 @@
+import javafx.scene.paint.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a simulation to a compact binary file and rebuilds it from one, so
+ * that a long run can be stopped and picked up again at the same
+ * generation, or used as the starting state of a benchmark.
+ *
+ * The file starts with a header: the size and topology of the field, the
+ * generation, the state of the Randomizer, and tables of the cell types,
+ * colours and rules in use. Then come dense planes, with one entry per
+ * cell in the order the simulator steps them:
+ *
+ *   types      a byte, the cell's index in the type table
+ *   alive      2 bits, whether the cell is alive and the state it has set
+ *              for the next generation, 4 cells to a byte
+ *   colours    the cell's index in the colour table, 1, 2 or 4 bytes
+ *   state      an int of what else the type keeps (the hue of a ChromaCell
+ *              or Ripples cell, the generation of an Evolver, whether a
+ *              DiseasedCells cell is infected, a RuleCell's rule and dying
+ *              state); only there if some cell keeps anything
+ *   locations  an int, row * width + col; only there if the field is not
+ *              simply one cell per location, in row-major order
+ *   shown      an int per location, the index of the cell it shows or -1;
+ *              only there with the locations, as a cell can be placed over
+ *              another and hide it
+ *
+ * The planes are written and read through memory-mapped regions of the
+ * file, so no objects are made for the cells while saving; a cell costs
+ * a quarter over 2 bytes when there is no state to keep. Numbers are big-endian.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.25
+ */
+
+public class Checkpoint {
+
+    private static final int MAGIC = 0x474F4C43; // "GOLC"
+    private static final int VERSION = 4;
+    // The cells in each region mapped at once; a multiple of 4 for the alive bits
+    private static final int CHUNK = 1 << 24;
+    // Flags in the header
+    private static final int DENSE = 1; // No locations or shown planes
+    private static final int HAS_STATE = 2; // There is a state plane
+    // The most cell types and rules that fit in the type and state planes
+    private static final int MAX_TYPES = 256;
+    private static final int MAX_RULES = Short.MAX_VALUE;
+    private static final FileChannel.MapMode READ = FileChannel.MapMode.READ_ONLY;
+    private static final FileChannel.MapMode WRITE = FileChannel.MapMode.READ_WRITE;
+
+    /**
+     * Save a simulation. The cells must be up to date, which
+     * Simulator.save sees to.
+     * @param path The file to write, replaced if it exists.
+     * @param field The field the cells are in.
+     * @param cells The cells, in the order they are stepped.
+     * @param generation The generation the simulation is at.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void save(Path path, Field field, List<Cell> cells, int generation) throws IOException {
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        int count = cells.size();
+
+        // Gather the tables, and see which planes are needed
+        Lookup<Class<?>> types = new Lookup<>();
+        Lookup<Color> colors = new Lookup<>();
+        Lookup<RuleSpec> rules = new Lookup<>();
+        boolean dense = count == depth * width;
+        boolean hasState = false;
+        for (int i = 0; i < count; i++) {
+            Cell cell = cells.get(i);
+            types.indexOf(cell.getClass());
+            colors.indexOf(cell.getColor());
+            if (cell instanceof RuleCell) {
+                rules.indexOf(((RuleCell) cell).getRule());
+            }
+            hasState |= hasState(cell);
+            if (dense) {
+                Location location = cell.getLocation();
+                dense = location.getRow() * width + location.getCol() == i && field.getObjectAt(i) == cell;
+            }
+        }
+        if (types.size() > MAX_TYPES || rules.size() > MAX_RULES) {
+            throw new IOException("Too many cell types or rules to save");
+        }
+        int colorBytes = colors.size() <= 1 << 8 ? 1 : colors.size() <= 1 << 16 ? 2 : 4;
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        try (DataOutputStream header = new DataOutputStream(headerBytes)) {
+            header.writeInt(depth);
+            header.writeInt(width);
+            header.writeByte(field.getTopology().ordinal());
+            header.writeInt(generation);
+            header.writeInt(count);
+            header.writeByte((dense ? DENSE : 0) | (hasState ? HAS_STATE : 0));
+            header.writeByte(colorBytes);
+            byte[] random = Randomizer.saveState();
+            header.writeInt(random.length);
+            header.write(random);
+            header.writeShort(types.size());
+            for (Class<?> type : types.values()) {
+                header.writeUTF(type.getName());
+            }
+            header.writeInt(colors.size());
+            for (Color color : colors.values()) {
+                header.writeDouble(color.getRed());
+                header.writeDouble(color.getGreen());
+                header.writeDouble(color.getBlue());
+                header.writeDouble(color.getOpacity());
+            }
+            header.writeShort(rules.size());
+            for (RuleSpec rule : rules.values()) {
+                header.writeUTF(rule.toString());
+            }
+        }
+
+        Layout layout = new Layout(headerBytes.size(), count, depth * width, dense, hasState, colorBytes);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer start = ByteBuffer.allocate(12);
+            start.putInt(MAGIC).putInt(VERSION).putInt(headerBytes.size()).flip();
+            channel.write(start, 0);
+            channel.write(ByteBuffer.wrap(headerBytes.toByteArray()), start.capacity());
+
+            for (int first = 0; first < count; first += CHUNK) {
+                int end = Math.min(count, first + CHUNK);
+                ByteBuffer typePlane = layout.map(channel, WRITE, Layout.TYPES, first, end);
+                ByteBuffer alivePlane = layout.map(channel, WRITE, Layout.ALIVE, first, end);
+                ByteBuffer colorPlane = layout.map(channel, WRITE, Layout.COLORS, first, end);
+                ByteBuffer statePlane = hasState ? layout.map(channel, WRITE, Layout.STATE, first, end) : null;
+                ByteBuffer locationPlane = dense ? null : layout.map(channel, WRITE, Layout.LOCATIONS, first, end);
+                int bits = 0;
+                for (int i = first; i < end; i++) {
+                    Cell cell = cells.get(i);
+                    typePlane.put((byte) types.indexOf(cell.getClass()));
+                    if (cell.isAlive()) {
+                        bits |= 1 << 2 * (i & 3);
+                    }
+                    if (cell.getNextState()) {
+                        bits |= 2 << 2 * (i & 3);
+                    }
+                    if ((i & 3) == 3 || i == end - 1) {
+                        alivePlane.put((byte) bits);
+                        bits = 0;
+                    }
+                    int color = colors.indexOf(cell.getColor());
+                    if (colorBytes == 1) {
+                        colorPlane.put((byte) color);
+                    }
+                    else if (colorBytes == 2) {
+                        colorPlane.putShort((short) color);
+                    }
+                    else {
+                        colorPlane.putInt(color);
+                    }
+                    if (statePlane != null) {
+                        statePlane.putInt(stateOf(cell, rules));
+                    }
+                    if (locationPlane != null) {
+                        Location location = cell.getLocation();
+                        locationPlane.putInt(location.getRow() * width + location.getCol());
+                    }
+                }
+            }
+            if (!dense) {
+                Map<Cell, Integer> indices = new HashMap<>();
+                for (int i = 0; i < count; i++) {
+                    indices.put(cells.get(i), i);
+                }
+                for (int first = 0; first < depth * width; first += CHUNK) {
+                    int end = Math.min(depth * width, first + CHUNK);
+                    ByteBuffer shownPlane = layout.map(channel, WRITE, Layout.SHOWN, first, end);
+                    for (int location = first; location < end; location++) {
+                        Cell cell = field.getObjectAt(location);
+                        shownPlane.putInt(cell == null ? -1 : indices.getOrDefault(cell, -1));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuild a simulation from a file written by save. The Randomizer is
+     * put back as it was, so the simulation carries on exactly as the one
+     * that was saved would have.
+     * @param path The file to read.
+     * @return A simulator at the saved generation.
+     * @throws IOException if the file cannot be read or is not a checkpoint.
+     */
+    public static Simulator restore(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(12);
+            readFully(channel, start, 0);
+            if (start.getInt(0) != MAGIC) {
+                throw new IOException("Not a checkpoint: " + path);
+            }
+            if (start.getInt(4) != VERSION) {
+                throw new IOException("Unknown checkpoint version " + start.getInt(4) + ": " + path);
+            }
+            ByteBuffer headerBytes = ByteBuffer.allocate(start.getInt(8));
+            readFully(channel, headerBytes, start.capacity());
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes.array()));
+
+            int depth = header.readInt();
+            int width = header.readInt();
+            int topology = header.readByte();
+            int generation = header.readInt();
+            int count = header.readInt();
+            int flags = header.readByte();
+            int colorBytes = header.readByte();
+            byte[] random = new byte[header.readInt()];
+            header.readFully(random);
+            String[] types = new String[header.readShort()];
+            for (int t = 0; t < types.length; t++) {
+                types[t] = header.readUTF();
+            }
+            Color[] colors = new Color[header.readInt()];
+            int[] colorIndices = new int[colors.length]; // In the Palette
+            for (int c = 0; c < colors.length; c++) {
+                colors[c] = new Color(header.readDouble(), header.readDouble(),
+                                      header.readDouble(), header.readDouble());
+                colorIndices[c] = Palette.intern(colors[c]);
+            }
+            RuleSpec[] rules = new RuleSpec[header.readShort()];
+            byte[][] tables = new byte[rules.length][];
+            for (int r = 0; r < rules.length; r++) {
+                rules[r] = RuleSpec.parse(header.readUTF());
+                tables[r] = rules[r].compile();
+            }
+            if (depth <= 0 || width <= 0 || topology < 0 || topology >= Topology.values().length
+                || count < 0 || (long) depth * width > Integer.MAX_VALUE) {
+                throw new IOException("Damaged checkpoint header: " + path);
+            }
+
+            boolean dense = (flags & DENSE) != 0;
+            boolean hasState = (flags & HAS_STATE) != 0;
+            if (dense && count != depth * width) {
+                throw new IOException("Damaged checkpoint header: " + path);
+            }
+            Layout layout = new Layout(headerBytes.capacity(), count, depth * width, dense, hasState, colorBytes);
+            if (channel.size() < layout.end) {
+                throw new IOException("Checkpoint cut short: " + path);
+            }
+            Simulator simulator = new Simulator(depth, width, Topology.values()[topology]);
+            Field field = simulator.getField();
+
+            // Where each cell is, and which cell each location shows
+            int[] locations = null;
+            int[] shown = null;
+            if (!dense) {
+                locations = readInts(channel, layout, Layout.LOCATIONS, count);
+                shown = readInts(channel, layout, Layout.SHOWN, depth * width);
+                for (int location = 0; location < shown.length; location++) {
+                    if (shown[location] >= count) {
+                        throw new IOException("Damaged checkpoint: " + path);
+                    }
+                }
+            }
+
+            List<Cell> cells = new ArrayList<>(count);
+            for (int first = 0; first < count; first += CHUNK) {
+                int end = Math.min(count, first + CHUNK);
+                ByteBuffer typePlane = layout.map(channel, READ, Layout.TYPES, first, end);
+                ByteBuffer alivePlane = layout.map(channel, READ, Layout.ALIVE, first, end);
+                ByteBuffer colorPlane = layout.map(channel, READ, Layout.COLORS, first, end);
+                ByteBuffer statePlane = hasState ? layout.map(channel, READ, Layout.STATE, first, end) : null;
+                for (int i = first; i < end; i++) {
+                    String type = types[typePlane.get() & 0xFF];
+                    int bits = alivePlane.get((i - first) >> 2) >> 2 * (i & 3);
+                    int color = colorBytes == 1 ? colorPlane.get() & 0xFF
+                                : colorBytes == 2 ? colorPlane.getShort() & 0xFFFF : colorPlane.getInt();
+                    int state = statePlane == null ? 0 : statePlane.getInt();
+                    int index = dense ? i : locations[i];
+                    Location location = new Location(index / width, index % width);
+                    Cell cell = create(type, field, location, colors[color], state, rules, tables);
+                    cell.setColorIndex(colorIndices[color]);
+                    restoreState(cell, state);
+                    if ((bits & 1) == 0) {
+                        cell.setDead();
+                    }
+                    cell.setNextState((bits & 2) != 0);
+                    cells.add(cell);
+                }
+            }
+            if (!dense) {
+                for (int location = 0; location < shown.length; location++) {
+                    Location at = new Location(location / width, location % width);
+                    if (shown[location] < 0) {
+                        field.clear(at);
+                    }
+                    else {
+                        field.place(cells.get(shown[location]), at);
+                    }
+                }
+            }
+            simulator.restored(cells, generation);
+            Randomizer.restoreState(random);
+            return simulator;
+        }
+        catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Damaged checkpoint: " + path, e);
+        }
+    }
+
+    /**
+     * Make a cell of a saved type.
+     */
+    private static Cell create(String type, Field field, Location location, Color color, int state,
+                               RuleSpec[] rules, byte[][] tables) throws IOException {
+        switch (type) {
+            case "Mycoplasma":
+                return new Mycoplasma(field, location, color);
+            case "ChromaCell":
+                return new ChromaCell(field, location);
+            case "Evolver":
+                return new Evolver(field, location, color);
+            case "DiseasedCells":
+                return new DiseasedCells(field, location);
+            case "Predator":
+                return new Predator(field, location, color);
+            case "Prey":
+                return new Prey(field, location, color);
+            case "Ripples":
+                return new Ripples(field, location);
+            case "RuleCell":
+                int rule = state >>> 8;
+                return new RuleCell(field, location, color, rules[rule], tables[rule]);
+            default:
+                throw new IOException("Unknown cell type in checkpoint: " + type);
+        }
+    }
+
+    /**
+     * @return true if the cell keeps more than whether it is alive and its colour.
+     */
+    private static boolean hasState(Cell cell) {
+        return cell instanceof ChromaCell || cell instanceof Ripples || cell instanceof Evolver
+               || cell instanceof DiseasedCells || cell instanceof RuleCell;
+    }
+
+    /**
+     * @return What else the cell keeps, packed into an int.
+     */
+    private static int stateOf(Cell cell, Lookup<RuleSpec> rules) {
+        if (cell instanceof ChromaCell) {
+            return ((ChromaCell) cell).getHue();
+        }
+        if (cell instanceof Ripples) {
+            return ((Ripples) cell).getHue();
+        }
+        if (cell instanceof Evolver) {
+            return ((Evolver) cell).getCurrentGeneration();
+        }
+        if (cell instanceof DiseasedCells) {
+            return ((DiseasedCells) cell).isInfected() ? 1 : 0;
+        }
+        if (cell instanceof RuleCell) {
+            RuleCell ruleCell = (RuleCell) cell;
+            return rules.indexOf(ruleCell.getRule()) << 8 | ruleCell.getDying();
+        }
+        return 0;
+    }
+
+    /**
+     * Give a cell back what else it kept, as packed by stateOf.
+     */
+    private static void restoreState(Cell cell, int state) {
+        if (cell instanceof ChromaCell) {
+            ((ChromaCell) cell).setHue(state);
+        }
+        else if (cell instanceof Ripples) {
+            ((Ripples) cell).setHue(state);
+        }
+        else if (cell instanceof Evolver) {
+            ((Evolver) cell).setCurrentGeneration(state);
+        }
+        else if (cell instanceof DiseasedCells) {
+            ((DiseasedCells) cell).setInfected(state != 0);
+        }
+        else if (cell instanceof RuleCell) {
+            ((RuleCell) cell).setDying(state & 0xFF);
+        }
+    }
+
+    /**
+     * Read a whole plane of ints into an array.
+     */
+    private static int[] readInts(FileChannel channel, Layout layout, int plane, int length) throws IOException {
+        int[] values = new int[length];
+        for (int first = 0; first < length; first += CHUNK) {
+            int end = Math.min(length, first + CHUNK);
+            IntBuffer ints = layout.map(channel, READ, plane, first, end).asIntBuffer();
+            ints.get(values, first, end - first);
+        }
+        return values;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Checkpoint cut short");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Where each plane starts in the file.
+     */
+    private static class Layout {
+
+        static final int TYPES = 0, ALIVE = 1, COLORS = 2, STATE = 3, LOCATIONS = 4, SHOWN = 5;
+
+        private final long[] offsets = new long[SHOWN + 1];
+        private final int[] entryBytes = {1, 0, 0, 4, 4, 4}; // 0 for the 2-bit alive plane, set below for the colours
+        private final long end; // The length of the whole file
+
+        Layout(int headerLength, int count, int locations, boolean dense, boolean hasState, int colorBytes) {
+            entryBytes[COLORS] = colorBytes;
+            long position = 12 + headerLength;
+            position = (position + 7) & ~7L;
+            offsets[TYPES] = position;
+            position += count;
+            offsets[ALIVE] = position;
+            position += (count + 3) / 4;
+            offsets[COLORS] = position;
+            position += (long) count * colorBytes;
+            offsets[STATE] = position;
+            if (hasState) {
+                position += (long) count * 4;
+            }
+            offsets[LOCATIONS] = position;
+            if (!dense) {
+                position += (long) count * 4;
+            }
+            offsets[SHOWN] = position;
+            if (!dense) {
+                position += (long) locations * 4;
+            }
+            end = position;
+        }
+
+        /**
+         * Map the entries of a plane from first up to end.
+         */
+        ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, int plane, int first, int end)
+            throws IOException {
+            long start, length;
+            if (plane == ALIVE) {
+                start = offsets[plane] + first / 4;
+                length = (end - first + 3) / 4;
+            }
+            else {
+                start = offsets[plane] + (long) first * entryBytes[plane];
+                length = (long) (end - first) * entryBytes[plane];
+            }
+            return channel.map(mode, start, length);
+        }
+    }
+
+    /**
+     * Numbers the distinct values it is given, in the order it first sees
+     * them. The last value looked up is remembered, as neighbouring cells
+     * are usually of the same type and colour.
+     */
+    private static class Lookup<T> {
+
+        private final Map<T, Integer> indices = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+        private T last;
+        private int lastIndex = -1;
+
+        int indexOf(T value) {
+            if (value == last && lastIndex >= 0) {
+                return lastIndex;
+            }
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                indices.put(value, index);
+                values.add(value);
+            }
+            last = value;
+            lastIndex = index;
+            return index;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        List<T> values() {
+            return values;
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import javafx.scene.paint.Color; 
-import java.util.List;
 
 /**
  * Base Task 2
@@ -11,8 +10,8 @@ import java.util.List;
 
 public class ChromaCell extends Cell {
     
-    // Starting hue value for the color cycle
-    private float hue;
+    // Step of the color cycle, in Palette.HUE_STEP degrees
+    private int hue;
 
     /**
      * Create a new ChromaCell.
@@ -23,34 +22,56 @@ public class ChromaCell extends Cell {
     public ChromaCell(Field field, Location location) {
         super(field, location, Color.WHITE);
         hue = 0;
-        setColor(Color.hsb(hue, 1, 1));
+        setColorIndex(Palette.hue(hue));
     }
 
     /**
      * This method determines the next state of the ChromaCell based on its neighbors.
      */
     public void act() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
 
         if (isAlive()) {
-            if (neighbours.size() < 2 || neighbours.size() > 4) {
+            if (neighbours < 2 || neighbours > 4) {
                 setNextState(false);
             }
             else {
                 // Increment hue to cycle through rainbow colors
-                hue += 20; // Adjust this value to control the speed of the color cycle
-                if (hue >= 360) {
+                hue++;
+                if (hue >= Palette.HUE_STEPS) {
                     hue = 0; // Reset hue after completing a full cycle
                 }
-                setColor(Color.hsb(hue, 1, 1));
+                setColorIndex(Palette.hue(hue));
                 setNextState(true);
             }
         }
         else {
-            if (neighbours.size() == 3) {
-                setColor(Color.hsb(0, 1, 1));
+            if (neighbours == 3) {
+                setColorIndex(Palette.hue(0));
                 setNextState(true);
             }
         }
     }
+
+    /**
+     * Return the step of the hue cycle the cell has reached.
+     */
+    protected int getHue() {
+        return hue;
+    }
+
+    /**
+     * Set the step of the hue cycle the cell has reached, without changing its colour.
+     */
+    protected void setHue(int hue) {
+        this.hue = hue;
+    }
+
+    /**
+     * A living cell changes colour every generation; a dead one only comes
+     * to life if its neighbours change.
+     */
+    protected boolean isStable() {
+        return !isAlive();
+    }
 }
@@ -1,9 +1,13 @@
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Provide a counter for a participant in the simulation.
  * This includes an identifying string and a count of how
  * many participants of this type currently exist within
  * the simulation.
  *
+ * The count may be changed from several threads at once.
+ *
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
  */
@@ -11,7 +15,7 @@
 public class Counter {
     
     private String name;
-    private int count;
+    private LongAdder count;
 
     /**
      * Provide a name for one of the simulation types.
@@ -19,7 +23,7 @@ public class Counter {
      */
     public Counter(String name) {
         this.name = name;
-        count = 0;
+        count = new LongAdder();
     }
 
     /**
@@ -33,20 +37,35 @@ public class Counter {
      * @return The current count for this type.
      */
     public int getCount() {
-        return count;
+        return count.intValue();
     }
 
     /**
      * Increment the current count by one.
      */
     public void increment() {
-        count++;
+        count.increment();
+    }
+
+    /**
+     * Decrement the current count by one.
+     */
+    public void decrement() {
+        count.decrement();
+    }
+
+    /**
+     * Add to the current count.
+     * @param amount The amount to add, which may be negative.
+     */
+    public void add(int amount) {
+        count.add(amount);
     }
 
     /**
      * Reset the current count to zero.
      */
     public void reset() {
-        count = 0;
+        count.reset();
     }
 }
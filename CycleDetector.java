@@ -0,0 +1,235 @@
+/**
+ * Spots a simulation going round in a cycle: a still life, which repeats
+ * every generation, or oscillators that come back to the same state every
+ * few generations.
+ *
+ * It keeps which locations hold living cells as bits, 64 locations to a
+ * word, and a 64-bit hash of them built as in Zobrist hashing: the hash is
+ * the exclusive or of a random key for each word and its bits, mixed up
+ * with SplitRandom.mix. A change to a word only means swapping its old key
+ * out and its new one in, so keeping the hash up to date costs a little
+ * per word that changed rather than a pass over the field. The changes
+ * come from the field, or straight from a whole-grid engine a word at a
+ * time (see LifeEngine.reportChanges), so the engine's grid need not be
+ * stored in the cells every generation.
+ *
+ * The hashes of the last few generations are kept, and when the hash
+ * comes round to one of them again the field is taken to have returned to
+ * that generation's state. A different state with the same hash is
+ * possible but, at 64 bits, far less likely than anything else going
+ * wrong. Which cells are alive is only the whole state, and a repeat of it
+ * only a cycle, if nothing else decides what comes next, so the detector
+ * is told when it starts whether that holds (see Simulator) and otherwise
+ * does nothing.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.04.02
+ */
+
+public class CycleDetector implements LifeEngine.Changes {
+
+    // Enough for the common oscillators, up to the period 15 pentadecathlon and beyond
+    public static final int DEFAULT_HISTORY = 64;
+
+    private final long[] hashes; // The hashes of recent generations, oldest overwritten first
+    private final int[] generations; // The generation of each hash
+    private int recorded; // How many entries of the history are in use
+    private int next; // Where the next generation goes in the history
+    private long[] living; // One bit per location whose cell is alive
+    private long hash; // The hash of living, but for pendingBits
+    private int pendingWord; // The word of living last flipped
+    private long pendingBits; // Bits flipped in pendingWord and not yet hashed
+    private boolean started; // Whether start has been called since the last reset
+    private boolean exact; // Whether a repeat is a cycle
+    private int period; // The period of the cycle found, or 0
+    private int start; // The first generation of the cycle found
+
+    /**
+     * Create a detector with the default history.
+     */
+    public CycleDetector() {
+        this(DEFAULT_HISTORY);
+    }
+
+    /**
+     * Create a detector.
+     * @param history How many generations back to look for a repeat, the
+     *                longest period it can find. Must be positive.
+     */
+    public CycleDetector(int history) {
+        if (history <= 0) {
+            throw new IllegalArgumentException("The history must be positive: " + history);
+        }
+        hashes = new long[history];
+        generations = new int[history];
+    }
+
+    /**
+     * Forget the generations recorded and any cycle found, so that looking
+     * for repeats starts again from the next call to start.
+     */
+    public void reset() {
+        recorded = 0;
+        next = 0;
+        started = false;
+        period = 0;
+        start = 0;
+    }
+
+    /**
+     * @return true if start has been called since the last reset.
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return true if it is worth recording generations: start has not been
+     *         called yet, or repeats are cycles and none has been found.
+     */
+    public boolean isSearching() {
+        return !started || (exact && period == 0);
+    }
+
+    /**
+     * Start following the field, hashing it as it is now.
+     * @param exact Whether the field's next state follows from nothing but
+     *              which cells are alive, so that a repeat is a cycle. If
+     *              not, nothing is hashed and no cycle is reported.
+     * @param field The field, with its cells up to date.
+     */
+    public void start(boolean exact, Field field) {
+        started = true;
+        this.exact = exact;
+        if (!exact) {
+            return;
+        }
+        int size = field.getDepth() * field.getWidth();
+        living = new long[(size + 63) >>> 6];
+        for (int index = 0; index < size; index++) {
+            Cell cell = field.getObjectAt(index);
+            if (cell != null && cell.isAlive()) {
+                living[index >>> 6] |= 1L << index;
+            }
+        }
+        hash = 0;
+        for (int word = 0; word < living.length; word++) {
+            hash ^= key(word, living[word]);
+        }
+        pendingWord = 0;
+        pendingBits = 0;
+    }
+
+    /**
+     * Take note of cells coming to life or dying.
+     * @param index The index (row * width + col) of the first location.
+     * @param cells One bit for each location from index on, lowest first,
+     *              set where the cell changed.
+     */
+    public void flip(int index, long cells) {
+        int word = index >>> 6;
+        int shift = index & 63;
+        flipWord(word, cells << shift);
+        if (shift != 0 && cells >>> (64 - shift) != 0) {
+            flipWord(word + 1, cells >>> (64 - shift));
+        }
+    }
+
+    /**
+     * Bring the hash up to date with the field.
+     * @param field The field.
+     * @param changes Every location that may have changed since the hash
+     *                was last up to date, as from Field.takeHashedChanges.
+     */
+    public void update(Field field, int[] changes) {
+        for (int index : changes) {
+            Cell cell = field.getObjectAt(index);
+            boolean alive = cell != null && cell.isAlive();
+            if (alive != ((living[index >>> 6] & (1L << index)) != 0)) {
+                flip(index, 1);
+            }
+        }
+    }
+
+    /**
+     * Flip bits of a word of living. The hash is brought up to date once
+     * the flips move on to another word, as runs of locations usually
+     * straddle two words and the next run starts in the second.
+     */
+    private void flipWord(int word, long bits) {
+        if (word != pendingWord) {
+            hashPending();
+            pendingWord = word;
+        }
+        living[word] ^= bits;
+        pendingBits ^= bits;
+    }
+
+    /**
+     * Swap the key of the word last flipped in the hash.
+     */
+    private void hashPending() {
+        if (pendingBits != 0) {
+            long bits = living[pendingWord];
+            hash ^= key(pendingWord, bits ^ pendingBits) ^ key(pendingWord, bits);
+            pendingBits = 0;
+        }
+    }
+
+    /**
+     * @return The key of a word of living holding the given bits.
+     */
+    private static long key(int word, long bits) {
+        return SplitRandom.mix(bits + word * 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Record the hash as that of a generation, and look for an earlier
+     * generation it matches.
+     * @param generation The generation the field is at.
+     * @return true if this generation completes the cycle found.
+     */
+    public boolean record(int generation) {
+        if (!exact || period != 0) {
+            return false;
+        }
+        hashPending();
+        // From the newest back, so the shortest period is found
+        for (int i = 1; i <= recorded; i++) {
+            int entry = Math.floorMod(next - i, hashes.length);
+            if (hashes[entry] == hash) {
+                start = generations[entry];
+                period = generation - start;
+                return true;
+            }
+        }
+        hashes[next] = hash;
+        generations[next] = generation;
+        next = (next + 1) % hashes.length;
+        recorded = Math.min(recorded + 1, hashes.length);
+        return false;
+    }
+
+    /**
+     * @return The hash of the living cells when last brought up to date.
+     */
+    public long getHash() {
+        hashPending();
+        return hash;
+    }
+
+    /**
+     * @return The period of the cycle found, or 0 if none has been.
+     */
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return The first generation of the cycle found, from which every
+     *         generation repeats period generations later.
+     */
+    public int getStart() {
+        return start;
+    }
+}
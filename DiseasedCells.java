@@ -1,5 +1,4 @@
 import javafx.scene.paint.Color; 
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -12,9 +11,12 @@ import java.util.Random;
 
 public class DiseasedCells extends Cell {
     // Healthy color of cell
-    private static final Color HEALTHY_COLOR = Color.GREEN;
+    static final Color HEALTHY_COLOR = Color.GREEN;
     // Infected color of cell
-    private static final Color INFECTED_COLOR = Color.RED;
+    static final Color INFECTED_COLOR = Color.RED;
+    // The two colours' indices in the Palette
+    static final int HEALTHY = Palette.intern(HEALTHY_COLOR);
+    static final int INFECTED = Palette.intern(INFECTED_COLOR);
     private boolean infected = false;
 
     /**
@@ -31,17 +33,19 @@ public class DiseasedCells extends Cell {
      * This method determines behaviours of the cell.
      */
     public void act() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
-        List<Location> adjacentLocations = getField().adjacentLocations(getLocation());
+        Field field = getField();
+        int row = getLocation().getRow();
+        int col = getLocation().getCol();
+        int neighbours = field.countLivingNeighbours(row, col);
         Random rand = Randomizer.getRandom();
         
-        if (getColor() == INFECTED_COLOR) {
+        if (getColorIndex() == INFECTED) {
             infected = true;
         }
         
         if (!infected) {
             if (isAlive()) {
-                if (neighbours.size() < 2 || neighbours.size() > 4) {
+                if (neighbours < 2 || neighbours > 4) {
                 setNextState(false);
                 }
                 else {
@@ -49,7 +53,7 @@ public class DiseasedCells extends Cell {
                 }
             }
             else {
-                if (neighbours.size() == 3) {
+                if (neighbours == 3) {
                 setNextState(true);
                 }
             }
@@ -57,7 +61,7 @@ public class DiseasedCells extends Cell {
             if (rand.nextDouble() <= 0.01) {
                 setNextState(true);
                 infected = true;
-                setColor(INFECTED_COLOR);
+                setColorIndex(INFECTED);
             }
         }
         else {
@@ -65,23 +69,39 @@ public class DiseasedCells extends Cell {
             if (rand.nextDouble() < 0.2) {
                 setNextState(false);
                 infected = false;
-                setColor(HEALTHY_COLOR);
+                setColorIndex(HEALTHY);
             }
             // Chance of curing disease
             else if (rand.nextDouble() < 0.05) {
                 setNextState(true);
                 infected = false;
-                setColor(HEALTHY_COLOR);
+                setColorIndex(HEALTHY);
             }
-            // Chance of spreading disease to each neigbouring cells (element one for the disease)
-            for (Location loc : adjacentLocations) {
-                if (rand.nextDouble() < 0.3) {
-                    Cell cell = getField().getObjectAt(loc);
-                    if (cell.isAlive()) {
-                        cell.setColor(INFECTED_COLOR);
+            // Chance of spreading disease to each neigbouring cells (element one for the disease),
+            // who show it once every cell has acted
+            for (int i = 0; i < Field.NEIGHBOURS; i++) {
+                int index = field.neighbourIndex(row, col, i);
+                if (index >= 0 && rand.nextDouble() < 0.3) {
+                    Cell cell = field.getObjectAt(index);
+                    if (cell != null && cell.isAlive()) {
+                        cell.imposeColor(INFECTED);
                     }
                 }
             }
         }
     }
+
+    /**
+     * Return whether the cell has noticed it is infected.
+     */
+    protected boolean isInfected() {
+        return infected;
+    }
+
+    /**
+     * Set whether the cell has noticed it is infected, without changing its colour.
+     */
+    protected void setInfected(boolean infected) {
+        this.infected = infected;
+    }
 }
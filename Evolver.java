@@ -1,5 +1,4 @@
 import javafx.scene.paint.Color; 
-import java.util.List;
 import java.util.Random;
 
 /**
@@ -37,6 +36,20 @@ public class Evolver extends Cell {
     public void evolve() {
         currentGeneration++; 
     }
+
+    /**
+     * Return the generation of its life the cell is in, from 1.
+     */
+    protected int getCurrentGeneration() {
+        return currentGeneration;
+    }
+
+    /**
+     * Set the generation of its life the cell is in, as when it is restored.
+     */
+    protected void setCurrentGeneration(int generation) {
+        currentGeneration = generation;
+    }
     
     /**
      * Behaviour is implemented based on the current generation
@@ -65,9 +78,9 @@ public class Evolver extends Cell {
      * Otherwise, the cell dies.
      */
     private void actForGeneration1() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
         
-        if (neighbours.size() >= 2) {
+        if (neighbours >= 2) {
             setNextState(true); 
             evolve(); 
         } else {
@@ -82,14 +95,14 @@ public class Evolver extends Cell {
      * Otherwise, the cell dies.
      */
     private void actForGeneration2() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
         Field field = getField();
         Location location = getLocation();
         
-        if (neighbours.size() < 2) {
+        if (neighbours < 2) {
             for (Location adjacent : field.adjacentLocations(location)) {
                 if (field.isEmpty(adjacent)) {
-                    setLocation(adjacent);
+                    requestMove(adjacent);
                     setNextState(true);
                     evolve();
                     return;
@@ -106,10 +119,10 @@ public class Evolver extends Cell {
      * Any dead cell will come alive if it has exactly three neighbours.
      */
     private void actForGeneration3() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
         
         if (isAlive()) {
-            if (neighbours.size() < 2 || neighbours.size() > 3) {
+            if (neighbours < 2 || neighbours > 3) {
                 setNextState(false);
             } else {
                 setNextState(true);
@@ -117,7 +130,7 @@ public class Evolver extends Cell {
             }
         }
         else {
-            if (neighbours.size() == 3) {
+            if (neighbours == 3) {
                 setNextState(true);
             }
         }
@@ -132,7 +145,16 @@ public class Evolver extends Cell {
      */
     private void actForFutureGenerations() {
         Random rand = Randomizer.getRandom();
-        setColor(new Color(rand.nextDouble(), rand.nextDouble(), rand.nextDouble(), 1)); 
+        setColorIndex(Palette.randomColor(rand.nextInt(Palette.RANDOM_COLORS)));
         setNextState(isAlive()); // Maintain current state
     }
+
+    /**
+     * A dead cell in its first or third generation only comes to life if its
+     * neighbours change. In its second generation even a dead cell may move,
+     * and from the fourth it picks random colours.
+     */
+    protected boolean isStable() {
+        return !isAlive() && (currentGeneration == 1 || currentGeneration == 3);
+    }
 }
@@ -1,7 +1,8 @@
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Represent a rectangular grid of field positions.
@@ -13,9 +14,27 @@ import java.util.Random;
 
 public class Field {
     
-    private static final Random rand = Randomizer.getRandom();
+    // The number of neighbours of a location away from the edges
+    public static final int NEIGHBOURS = 8;
+    // Row and column offsets of each neighbour, in row-major order
+    private static final int[] ROW_OFFSETS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] COL_OFFSETS = {-1, 0, 1, -1, 1, -1, 0, 1};
+    // Added to an index to put it outside the grid, keeping it negative
+    private static final int OUTSIDE = Integer.MIN_VALUE / 2;
     private int depth, width;
-    private Cell[][] field;
+    private Topology topology;
+    private Cell[] field; // The cell at each location, indexed row * width + col
+    // For neighbour n of a location at (row, col), rowStarts[n][row] + colIndices[n][row][col]
+    // is the index of the neighbour, or negative if there is none
+    private int[][] rowStarts;
+    private int[][][] colIndices;
+    private FieldStats stats; // Counts of the cells placed in the field
+    private GenerationBuffers states; // Whether each cell is alive, now and after the update
+    private AtomicLongArray changed; // One bit per location changed since the last takeChanges
+    private AtomicLongArray logged; // The same since the last takeLoggedChanges, or null if not logging
+    private AtomicLongArray hashed; // The same since the last takeHashedChanges, or null if not hashing
+    private volatile MoveClaims moves; // The moves asked for this generation, made when a cell first asks
+    private int moveGeneration; // The generation the moves are for
 
     /**
      * Represent a field of the given dimensions.
@@ -23,20 +42,223 @@ public class Field {
      * @param width The width of the field.
      */
     public Field(int depth, int width) {
+        this(depth, width, new GenerationBuffers());
+    }
+
+    /**
+     * Represent a field of the given dimensions whose cells keep their
+     * state in the given buffers.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param states The buffers for the state of the cells created in the field.
+     */
+    public Field(int depth, int width, GenerationBuffers states) {
+        this(depth, width, Topology.BOUNDED, states);
+    }
+
+    /**
+     * Represent a field of the given dimensions and topology whose cells
+     * keep their state in the given buffers.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param topology How the edges of the field are joined up.
+     * @param states The buffers for the state of the cells created in the field.
+     */
+    public Field(int depth, int width, Topology topology, GenerationBuffers states) {
+        if (topology.wraps() && (depth < 3 || width < 3)) {
+            throw new IllegalArgumentException("A " + topology + " field must be at least 3x3: "
+                                               + depth + "x" + width);
+        }
         this.depth = depth;
         this.width = width;
-        field = new Cell[depth][width];
+        this.topology = topology;
+        this.states = states;
+        field = new Cell[depth * width];
+        buildNeighbourTables();
+        stats = new FieldStats();
+        changed = new AtomicLongArray((depth * width + 63) / 64);
+        markAllChanged();
     }
 
     /**
      * Empty the field.
      */
     public void clear() {
-        for (int row = 0; row < depth; row++) {
-            for (int col = 0; col < width; col++) {
-                field[row][col] = null;
+        Arrays.fill(field, null);
+        stats.reset();
+        markAllChanged();
+    }
+
+    /**
+     * Take every cell out of the field without telling the statistics, for
+     * an engine that holds the cells in their place and counts them itself
+     * (see CellStore). What is shown is taken to be unchanged.
+     */
+    public void release() {
+        Arrays.fill(field, null);
+    }
+
+    /**
+     * Return the statistics of the cells created in this field since it was
+     * last emptied. They are kept up to date by the cells themselves.
+     * @return The statistics of the field.
+     */
+    public FieldStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return How the edges of the field are joined up.
+     */
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * @return The buffers holding whether each cell is alive, now and after the update.
+     */
+    public GenerationBuffers getStates() {
+        return states;
+    }
+
+    /**
+     * Record that what is shown at a location may have changed: the cell
+     * there was replaced, came to life, died or changed colour. May be
+     * called from several threads at once.
+     * @param location The location that changed.
+     */
+    public void markChanged(Location location) {
+        markChanged(location.getRow() * width + location.getCol());
+    }
+
+    /**
+     * Record that what is shown at a location may have changed.
+     * @param index The index (row * width + col) of the location.
+     */
+    public void markChanged(int index) {
+        long bit = 1L << index;
+        if ((changed.get(index >>> 6) & bit) == 0) {
+            changed.getAndAccumulate(index >>> 6, bit, (bits, mask) -> bits | mask);
+        }
+        AtomicLongArray log = logged;
+        if (log != null && (log.get(index >>> 6) & bit) == 0) {
+            log.getAndAccumulate(index >>> 6, bit, (bits, mask) -> bits | mask);
+        }
+        AtomicLongArray hash = hashed;
+        if (hash != null && (hash.get(index >>> 6) & bit) == 0) {
+            hash.getAndAccumulate(index >>> 6, bit, (bits, mask) -> bits | mask);
+        }
+    }
+
+    /**
+     * Return the locations that have changed since the last call, and
+     * start recording afresh.
+     * @return The index (row * width + col) of each changed location, in
+     *         row-major order.
+     */
+    public int[] takeChanges() {
+        return takeBits(changed);
+    }
+
+    /**
+     * Start or stop keeping a second record of the locations that change,
+     * for a GenerationLog, separate from the one takeChanges reads. It
+     * starts with every location changed.
+     * @param enabled Whether to keep the record.
+     */
+    public void setChangeLogging(boolean enabled) {
+        if (!enabled) {
+            logged = null;
+        }
+        else if (logged == null) {
+            AtomicLongArray log = new AtomicLongArray(changed.length());
+            setAll(log);
+            logged = log;
+        }
+    }
+
+    /**
+     * Return the locations that have changed since the last call, or since
+     * change logging was turned on, and start recording afresh.
+     * @return The index (row * width + col) of each changed location, in
+     *         row-major order, or none if change logging is off.
+     */
+    public int[] takeLoggedChanges() {
+        AtomicLongArray log = logged;
+        return log == null ? new int[0] : takeBits(log);
+    }
+
+    /**
+     * Start or stop keeping a third record of the locations that change,
+     * for a CycleDetector. It starts with every location changed.
+     * @param enabled Whether to keep the record.
+     */
+    public void setChangeHashing(boolean enabled) {
+        if (!enabled) {
+            hashed = null;
+        }
+        else if (hashed == null) {
+            AtomicLongArray hash = new AtomicLongArray(changed.length());
+            setAll(hash);
+            hashed = hash;
+        }
+    }
+
+    /**
+     * Return the locations that have changed since the last call, or since
+     * change hashing was turned on, and start recording afresh.
+     * @return The index (row * width + col) of each changed location, in
+     *         row-major order, or none if change hashing is off.
+     */
+    public int[] takeHashedChanges() {
+        AtomicLongArray hash = hashed;
+        return hash == null ? new int[0] : takeBits(hash);
+    }
+
+    /**
+     * Clear the bits of a record of changes.
+     * @return The indices of the bits that were set, in order.
+     */
+    private static int[] takeBits(AtomicLongArray record) {
+        int[] indices = new int[64];
+        int count = 0;
+        for (int word = 0; word < record.length(); word++) {
+            long bits = record.getAndSet(word, 0);
+            while (bits != 0) {
+                if (count == indices.length) {
+                    indices = Arrays.copyOf(indices, count * 2);
+                }
+                indices[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
             }
         }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * Mark every location as changed.
+     */
+    private void markAllChanged() {
+        setAll(changed);
+        AtomicLongArray log = logged;
+        if (log != null) {
+            setAll(log);
+        }
+        AtomicLongArray hash = hashed;
+        if (hash != null) {
+            setAll(hash);
+        }
+    }
+
+    /**
+     * Set the bit of every location in a record of changes.
+     */
+    private void setAll(AtomicLongArray record) {
+        int size = depth * width;
+        for (int word = 0; word < record.length(); word++) {
+            int bits = Math.min(64, size - (word << 6));
+            record.set(word, bits == 64 ? -1L : (1L << bits) - 1);
+        }
     }
 
     /**
@@ -44,7 +266,87 @@ public class Field {
      * @param location The location to clear.
      */
     public void clear(Location location) {
-        field[location.getRow()][location.getCol()] = null;
+        int index = location.getRow() * width + location.getCol();
+        if (field[index] != null) {
+            field[index].setCounted(false);
+        }
+        field[index] = null;
+        markChanged(location);
+    }
+
+    /**
+     * Get ready for the cells of a generation to ask to move.
+     * @param generation The generation being stepped.
+     */
+    public void startMoves(int generation) {
+        moveGeneration = generation;
+        MoveClaims claims = moves;
+        if (claims != null) {
+            claims.startGeneration(generation);
+        }
+    }
+
+    /**
+     * Ask for a cell to be moved once every cell has acted. Safe to call
+     * while cells act on several threads. A cell another has been placed
+     * over cannot move.
+     * @param cell The cell.
+     * @param target The location it wants to move to.
+     */
+    public void requestMove(Cell cell, Location target) {
+        if (getObjectAt(cell.getLocation()) != cell) {
+            return;
+        }
+        MoveClaims claims = moves;
+        if (claims == null) {
+            claims = makeMoves();
+        }
+        claims.request(indexOf(cell.getLocation()), indexOf(target));
+    }
+
+    /**
+     * Make the moves asked for since startMoves, if any. Called once every
+     * cell has acted, before the generation is committed.
+     * @param tracker Told of the cells that moved, or null.
+     */
+    public void applyMoves(TileTracker tracker) {
+        MoveClaims claims = moves;
+        if (claims != null) {
+            claims.apply(this, tracker);
+        }
+    }
+
+    /**
+     * Swap whatever is at two locations, telling the cells where they now are.
+     * @param from The index of a location holding a cell.
+     * @param to The index of the other location, which may be empty.
+     * @param tracker Told of the cells that moved, or null.
+     */
+    public void swap(int from, int to, TileTracker tracker) {
+        Cell mover = field[from];
+        Cell occupant = field[to];
+        Location source = mover.getLocation();
+        Location target = occupant != null ? occupant.getLocation() : new Location(to / width, to % width);
+        field[to] = mover;
+        field[from] = occupant;
+        mover.relocate(target);
+        if (occupant != null) {
+            occupant.relocate(source);
+        }
+        markChanged(source);
+        markChanged(target);
+        if (tracker != null) {
+            tracker.cellMoved(source, target);
+        }
+    }
+
+    private synchronized MoveClaims makeMoves() {
+        if (moves == null) {
+            MoveClaims claims = new MoveClaims(depth * width);
+            claims.startGeneration(moveGeneration);
+            moves = claims;
+        }
+        return moves;
     }
 
     /**
@@ -60,12 +362,22 @@ public class Field {
 
     /**
      * Place a cell at the given location.
-     * If there is already a cell at the location it will be lost.
+     * If there is already a cell at the location it will be lost, and is
+     * no longer counted in the statistics.
      * @param cell The cell to be placed.
      * @param location Where to place the cell.
      */
     public void place(Cell cell, Location location) {
-        field[location.getRow()][location.getCol()] = cell;
+        int index = location.getRow() * width + location.getCol();
+        Cell old = field[index];
+        if (old != cell) {
+            if (old != null) {
+                old.setCounted(false);
+            }
+            field[index] = cell;
+            cell.setCounted(true);
+        }
+        markChanged(location);
     }
 
     /**
@@ -84,7 +396,16 @@ public class Field {
      * @return The cell at the given location, or null if there is none.
      */
     public Cell getObjectAt(int row, int col) {
-        return field[row][col];
+        return field[row * width + col];
+    }
+
+    /**
+     * Return the cell at the given index, if any.
+     * @param index The index of the location, row * width + col.
+     * @return The cell at the given index, or null if there is none.
+     */
+    public Cell getObjectAt(int index) {
+        return field[index];
     }
 
     /**
@@ -114,28 +435,123 @@ public class Field {
         if (location != null) {
             int row = location.getRow();
             int col = location.getCol();
-            for (int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if (nextRow >= 0 && nextRow < depth) {
-                    for (int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if (nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
+            for (int n = 0; n < NEIGHBOURS; n++) {
+                int index = rowStarts[n][row] + colIndices[n][row][col];
+                if (index >= 0) {
+                    locations.add(new Location(index / width, index % width));
                 }
             }
 
             // Shuffle the list. Several other methods rely on the list
             // being in a random order.
-            Collections.shuffle(locations, rand);
+            Collections.shuffle(locations, Randomizer.getRandom());
         }
         return locations;
     }
 
     /**
-     * Get a shuffled list of living neighbours
+     * Return the index of one of the neighbours of a location.
+     * Together with getObjectAt(int) this lets the neighbours be visited
+     * in a fixed order without allocating anything:
+     * for (int i = 0; i < Field.NEIGHBOURS; i++) { int n = neighbourIndex(row, col, i); ... }
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @param neighbour Which neighbour, from 0 to NEIGHBOURS - 1.
+     * @return The index (row * width + col) of the neighbour, or a
+     *         negative number if it lies outside the grid.
+     */
+    public int neighbourIndex(int row, int col, int neighbour) {
+        return rowStarts[neighbour][row] + colIndices[neighbour][row][col];
+    }
+
+    /**
+     * Work out where each neighbour of every row and column lies, so that
+     * finding a neighbour never has to check the edges. Rows and columns
+     * are kept apart, which takes a few small tables rather than one entry
+     * per neighbour per location.
+     */
+    private void buildNeighbourTables() {
+        rowStarts = new int[NEIGHBOURS][depth];
+        colIndices = new int[NEIGHBOURS][depth][];
+        for (int n = 0; n < NEIGHBOURS; n++) {
+            int[] straight = new int[width];
+            int[] mirrored = new int[width];
+            for (int col = 0; col < width; col++) {
+                int nextCol = col + COL_OFFSETS[n];
+                if (nextCol < 0 || nextCol >= width) {
+                    nextCol = topology.wraps() ? (nextCol + width) % width : OUTSIDE;
+                }
+                straight[col] = nextCol;
+                mirrored[col] = nextCol < 0 ? OUTSIDE : width - 1 - nextCol;
+            }
+            for (int row = 0; row < depth; row++) {
+                int nextRow = row + ROW_OFFSETS[n];
+                boolean crossed = nextRow < 0 || nextRow >= depth;
+                if (!crossed) {
+                    rowStarts[n][row] = nextRow * width;
+                }
+                else if (topology.wraps()) {
+                    rowStarts[n][row] = ((nextRow + depth) % depth) * width;
+                }
+                else {
+                    rowStarts[n][row] = OUTSIDE;
+                }
+                colIndices[n][row] = crossed && topology == Topology.KLEIN_BOTTLE ? mirrored : straight;
+            }
+        }
+    }
+
+    /**
+     * Count the living neighbours of a location without building any lists.
+     * Use this whenever only the number of neighbours matters.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The number of living cells adjacent to the location.
+     */
+    public int countLivingNeighbours(int row, int col) {
+        if (row > 0 && row < depth - 1 && col > 0 && col < width - 1) {
+            // Away from the edges the neighbours are simply the locations around it
+            int above = (row - 1) * width + col;
+            int below = (row + 1) * width + col;
+            int here = row * width + col;
+            return living(field[above - 1]) + living(field[above]) + living(field[above + 1])
+                   + living(field[here - 1]) + living(field[here + 1])
+                   + living(field[below - 1]) + living(field[below]) + living(field[below + 1]);
+        }
+        int count = 0;
+        for (int n = 0; n < NEIGHBOURS; n++) {
+            int index = rowStarts[n][row] + colIndices[n][row][col];
+            if (index >= 0) {
+                Cell cell = field[index];
+                if (cell != null && cell.isAlive()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 1 if there is a living cell, 0 otherwise.
+     */
+    private static int living(Cell cell) {
+        return cell != null && cell.isAlive() ? 1 : 0;
+    }
+
+    /**
+     * Count the living neighbours of a location.
+     * @param location The location whose neighbours are counted.
+     * @return The number of living cells adjacent to the location.
+     */
+    public int countLivingNeighbours(Location location) {
+        return countLivingNeighbours(location.getRow(), location.getCol());
+    }
+
+    /**
+     * Get a shuffled list of living neighbours.
+     * This allocates two lists per call; it is only worth using where the
+     * random order of the neighbours matters. Use countLivingNeighbours
+     * or neighbourIndex otherwise.
      * @param location Get locations adjacent to this.
      * @return A list of living neighbours
      */
@@ -147,15 +563,29 @@ public class Field {
         List<Location> adjLocations = adjacentLocations(location);
 
         for (Location loc : adjLocations) {
-          Cell cell = field[loc.getRow()][loc.getCol()];
-          if (cell.isAlive())
+          Cell cell = getObjectAt(loc);
+          if (cell != null && cell.isAlive())
             neighbours.add(cell);
         }
-        Collections.shuffle(neighbours, rand);
+        Collections.shuffle(neighbours, Randomizer.getRandom());
       }
       return neighbours;
     }
     
+    /**
+     * Check whether every location in the field holds a cell of the given type.
+     * @param type The type of cell.
+     * @return true if there are no empty locations and no other types of cell.
+     */
+    public boolean containsOnly(Class<? extends Cell> type) {
+        for (Cell cell : field) {
+            if (!type.isInstance(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns true if there is no cell @location, or if the cell is 'dead'
      * thus effectively empty.
@@ -185,4 +615,13 @@ public class Field {
     public int getWidth() {
         return width;
     }
+
+    /**
+     * Return the index of a location, as used by getObjectAt(int).
+     * @param location The location.
+     * @return row * width + col.
+     */
+    public int indexOf(Location location) {
+        return location.getRow() * width + location.getCol();
+    }
 }
@@ -1,3 +1,4 @@
+import javafx.scene.Node;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color; 
@@ -9,11 +10,12 @@ import javafx.scene.paint.Color;
  * @version 2024.02.03
  */
 
-public class FieldCanvas extends Canvas {
+public class FieldCanvas extends Canvas implements FieldDisplay {
 
     private static final int GRID_VIEW_SCALING_FACTOR = 6;
     private int width, height;
     private int xScale, yScale;
+    private Color fill; // The fill colour last set on gc
     GraphicsContext gc;
     
     /**
@@ -38,10 +40,33 @@ public class FieldCanvas extends Canvas {
     }
   
     /**
-    * Paint a rectangle of the given color on the canvas
+    * Paint a rectangle of the given color on the canvas. The fill is only
+    * changed when the colour differs from the last mark, so a run of marks
+    * of the same colour shares one fill.
     */
     public void drawMark(int x, int y, Color color) {
-        gc.setFill(color);
+        if (!color.equals(fill)) {
+            gc.setFill(color);
+            fill = color;
+        }
         gc.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
     }
+
+    /**
+    * Paint a rectangle of the given color on the canvas; the packed colour
+    * is not needed.
+    */
+    public void drawMark(int x, int y, Color color, int argb) {
+        drawMark(x, y, color);
+    }
+
+    /**
+    * The marks are painted as they are drawn, so there is nothing to do.
+    */
+    public void finishFrame() {
+    }
+
+    public Node getNode() {
+        return this;
+    }
 }
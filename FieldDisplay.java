@@ -0,0 +1,42 @@
+import javafx.scene.Node;
+import javafx.scene.paint.Color;
+
+/**
+ * Something that can show the cells of a field in the user interface.
+ * The view draws the locations that changed in each frame and then tells
+ * the display the frame is complete.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.17
+ */
+
+public interface FieldDisplay {
+
+    /**
+     * Size the marks to suit a grid of the given dimensions.
+     * @param gridHeight The number of rows in the grid.
+     * @param gridWidth The number of columns in the grid.
+     */
+    void setScale(int gridHeight, int gridWidth);
+
+    /**
+     * Show a colour at a grid position. The colour is given both as an
+     * object and packed as premultiplied ARGB; each display uses whichever
+     * suits it.
+     * @param x The column.
+     * @param y The row.
+     * @param color The colour.
+     * @param argb The same colour, packed.
+     */
+    void drawMark(int x, int y, Color color, int argb);
+
+    /**
+     * Make the marks drawn since the last frame visible.
+     */
+    void finishFrame();
+
+    /**
+     * @return The node to place in the scene.
+     */
+    Node getNode();
+}
@@ -0,0 +1,127 @@
+import javafx.scene.paint.Color;
+
+/**
+ * An unchanging record of how the field looked after one generation, made
+ * by the simulation thread for the view to draw. It holds what is shown at
+ * each location that changed since the previous snapshot, so drawing it on
+ * top of the previous one brings the display up to date.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.19
+ */
+
+public class FieldSnapshot {
+
+    public static final Color EMPTY_COLOR = Color.WHITE;
+    private static final int EMPTY_ARGB = Cell.toArgb(EMPTY_COLOR);
+    private final int generation;
+    private final int width;
+    private final int[] indices; // The locations that changed, row * width + col
+    private final Color[] colors; // What each of them now shows
+    private final int[] argbs; // The same colours, packed
+    private final String populationDetails;
+    private final double skippedTileFraction;
+    private final int cyclePeriod;
+
+    /**
+     * Record the current state of the changed locations of a field.
+     * @param generation The generation the field is at.
+     * @param field The field.
+     * @param indices The locations that changed since the last snapshot.
+     * @param skippedTileFraction The fraction of tiles skipped in the last generation.
+     * @param cyclePeriod The period of the cycle the field is in, or 0 if none has been found.
+     */
+    public FieldSnapshot(int generation, Field field, int[] indices, double skippedTileFraction,
+                         int cyclePeriod) {
+        this.generation = generation;
+        this.width = field.getWidth();
+        this.indices = indices;
+        colors = new Color[indices.length];
+        argbs = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            Cell cell = field.getObjectAt(indices[i]);
+            if (cell != null && cell.isAlive()) {
+                colors[i] = cell.getColor();
+                argbs[i] = cell.getArgb();
+            }
+            else {
+                colors[i] = EMPTY_COLOR;
+                argbs[i] = EMPTY_ARGB;
+            }
+        }
+        populationDetails = field.getStats().getPopulationDetails();
+        this.skippedTileFraction = skippedTileFraction;
+        this.cyclePeriod = cyclePeriod;
+    }
+
+    /**
+     * Record the current state of the changed locations of a field whose
+     * cells are held by a CellStore rather than the field.
+     * @param generation The generation the store is at.
+     * @param store The store.
+     * @param indices The locations that changed since the last snapshot.
+     * @param populationDetails A description of what is alive, as from FieldStats.
+     * @param skippedTileFraction The fraction of tiles skipped in the last generation.
+     * @param cyclePeriod The period of the cycle the field is in, or 0 if none has been found.
+     */
+    public FieldSnapshot(int generation, CellStore store, int[] indices, String populationDetails,
+                         double skippedTileFraction, int cyclePeriod) {
+        this.generation = generation;
+        this.width = store.getWidth();
+        this.indices = indices;
+        colors = new Color[indices.length];
+        argbs = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            if (store.isAlive(indices[i])) {
+                colors[i] = Palette.getColor(store.getColor(indices[i]));
+                argbs[i] = Palette.getArgb(store.getColor(indices[i]));
+            }
+            else {
+                colors[i] = EMPTY_COLOR;
+                argbs[i] = EMPTY_ARGB;
+            }
+        }
+        this.populationDetails = populationDetails;
+        this.skippedTileFraction = skippedTileFraction;
+        this.cyclePeriod = cyclePeriod;
+    }
+
+    /**
+     * Draw the changed locations.
+     * @param display Where to draw them.
+     */
+    public void drawOn(FieldDisplay display) {
+        for (int i = 0; i < indices.length; i++) {
+            display.drawMark(indices[i] % width, indices[i] / width, colors[i], argbs[i]);
+        }
+        display.finishFrame();
+    }
+
+    /**
+     * @return The generation the field was at.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return A description of what was alive in the field.
+     */
+    public String getPopulationDetails() {
+        return populationDetails;
+    }
+
+    /**
+     * @return The fraction of tiles skipped in the generation.
+     */
+    public double getSkippedTileFraction() {
+        return skippedTileFraction;
+    }
+
+    /**
+     * @return The period of the cycle the field was in, or 0 if none had been found.
+     */
+    public int getCyclePeriod() {
+        return cyclePeriod;
+    }
+}
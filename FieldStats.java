@@ -1,9 +1,20 @@
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javafx.scene.paint.Color;
 
 /**
  * This class collects and provides some statistical data on the state
  * of a field. It is flexible: it will create and maintain a counter
- * for any class of object that is found within the field.
+ * for any class of object that is placed within the field.
+ *
+ * The counts are kept up to date as cells are created, come to life, die
+ * and change colour, so reading them never needs to look at the field.
+ * Each class of cell is registered once and given a fixed index, which its
+ * cells use to report their changes. Changes may be reported from several
+ * threads at once, except during a batch (see startBatch). Colours are
+ * counted by their index in the Palette.
  *
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
@@ -11,29 +22,198 @@ import java.util.HashMap;
 
 public class FieldStats {
     
-    private HashMap<Class, Counter> counters;
-    private boolean countsValid;
+    private Class<?>[] types; // The registered classes, in order of registration
+    private Counter[] counters; // The living cells of each registered class
+    private Counter living;
+    private Counter dead;
+    private AtomicIntegerArray colors; // Living cells of each colour, by palette index
+    // Births and deaths not yet counted during a batch: a run of cells of one class and colour each
+    private boolean batching;
+    private int bornType, bornCount, diedType, diedCount;
+    private int bornColor, diedColor;
 
     /**
-     * Construct a FieldStats object.  Set up a collection for counters for
-     * each type of cell that we might find
+     * Construct a FieldStats object, with no classes of cell registered yet.
      */
     public FieldStats() {
-        counters = new HashMap<>();
-        countsValid = true;
+        types = new Class<?>[0];
+        counters = new Counter[0];
+        living = new Counter("Living");
+        dead = new Counter("Dead");
+        colors = new AtomicIntegerArray(Palette.CAPACITY);
     }
 
     /**
-     * Get details of what is in the field.
-     * @return A string describing what is in the field.
+     * Register a class of cell, if it is not registered already.
+     * @param cellClass The class of cell.
+     * @return The index used to report changes to cells of the class.
      */
-    public String getPopulationDetails(Field field) {
-        StringBuffer buffer = new StringBuffer();
-        if (!countsValid) {
-            generateCounts(field);
+    public synchronized int register(Class<?> cellClass) {
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == cellClass) {
+                return i;
+            }
+        }
+        int index = types.length;
+        Class<?>[] newTypes = new Class<?>[index + 1];
+        Counter[] newCounters = new Counter[index + 1];
+        System.arraycopy(types, 0, newTypes, 0, index);
+        System.arraycopy(counters, 0, newCounters, 0, index);
+        newTypes[index] = cellClass;
+        newCounters[index] = new Counter(cellClass.getName());
+        types = newTypes;
+        counters = newCounters;
+        return index;
+    }
+
+    /**
+     * Record a cell that has just been placed in the field.
+     * @param type The index of the cell's class.
+     * @param alive Whether the cell is alive.
+     * @param color The palette index of the cell's colour.
+     */
+    public void cellAdded(int type, boolean alive, int color) {
+        if (alive) {
+            cellBorn(type, color);
+        }
+        else {
+            dead.increment();
+        }
+    }
+
+    /**
+     * Record a cell that has been taken out of the field, or hidden by
+     * another placed over it.
+     * @param type The index of the cell's class.
+     * @param alive Whether the cell is alive.
+     * @param color The palette index of the cell's colour.
+     */
+    public void cellRemoved(int type, boolean alive, int color) {
+        if (alive) {
+            counters[type].decrement();
+            living.decrement();
+            addColor(color, -1);
+        }
+        else {
+            dead.decrement();
+        }
+    }
+
+    /**
+     * Record a cell coming to life or dying.
+     * @param type The index of the cell's class.
+     * @param alive Whether the cell is now alive.
+     * @param color The palette index of the cell's colour.
+     */
+    public void aliveChanged(int type, boolean alive, int color) {
+        if (batching) {
+            if (alive) {
+                if (bornCount > 0 && (type != bornType || color != bornColor)) {
+                    countBorn();
+                }
+                bornType = type;
+                bornColor = color;
+                bornCount++;
+            }
+            else {
+                if (diedCount > 0 && (type != diedType || color != diedColor)) {
+                    countDied();
+                }
+                diedType = type;
+                diedColor = color;
+                diedCount++;
+            }
+        }
+        else if (alive) {
+            dead.decrement();
+            cellBorn(type, color);
+        }
+        else {
+            counters[type].decrement();
+            living.decrement();
+            addColor(color, -1);
+            dead.increment();
+        }
+    }
+
+    /**
+     * Start gathering up births and deaths, so that each run of cells of
+     * the same class and colour is counted in one go rather than one cell
+     * at a time. Changes must only be reported from one thread until
+     * finishBatch is called.
+     */
+    public void startBatch() {
+        batching = true;
+    }
+
+    /**
+     * Count the births and deaths gathered since startBatch, and go back to
+     * counting each change as it is reported.
+     */
+    public void finishBatch() {
+        countBorn();
+        countDied();
+        batching = false;
+    }
+
+    /**
+     * Record a living cell changing colour.
+     * @param from The palette index of the old colour.
+     * @param to The palette index of the new colour.
+     */
+    public void colorChanged(int from, int to) {
+        if (from != to) {
+            addColor(from, -1);
+            addColor(to, 1);
+        }
+    }
+
+    /**
+     * Set all counts to zero, as when the field is emptied. The classes
+     * stay registered.
+     */
+    public void reset() {
+        for (Counter counter : counters) {
+            counter.reset();
+        }
+        living.reset();
+        dead.reset();
+        for (int i = 0; i < Palette.size(); i++) {
+            colors.set(i, 0);
         }
-        for (Class key : counters.keySet()) {
-            Counter info = counters.get(key);
+    }
+
+    /**
+     * Set every count outright, for cells that are counted by whatever
+     * holds them rather than as they change (see CellStore).
+     * @param typeCounts The living cells of each registered class, by its index.
+     * @param deadCount The number of dead cells.
+     * @param colorCounts The living cells of each colour, by palette index.
+     */
+    public synchronized void setCounts(int[] typeCounts, int deadCount, int[] colorCounts) {
+        int population = 0;
+        for (int i = 0; i < counters.length; i++) {
+            int count = i < typeCounts.length ? typeCounts[i] : 0;
+            counters[i].reset();
+            counters[i].add(count);
+            population += count;
+        }
+        living.reset();
+        living.add(population);
+        dead.reset();
+        dead.add(deadCount);
+        for (int i = 0; i < Palette.size(); i++) {
+            colors.set(i, i < colorCounts.length ? colorCounts[i] : 0);
+        }
+    }
+
+    /**
+     * Get details of what is alive in the field.
+     * @return A string describing what is alive in the field.
+     */
+    public String getPopulationDetails() {
+        StringBuffer buffer = new StringBuffer();
+        for (Counter info : counters) {
             buffer.append(info.getName());
             buffer.append(": ");
             buffer.append(info.getCount());
@@ -43,36 +223,58 @@ public class FieldStats {
     }
 
     /**
-     * Invalidate the current set of statistics; reset all
-     * counts to zero.
+     * @param cellClass A class of cell.
+     * @return The number of living cells of the class.
      */
-    public void reset() {
-        countsValid = false;
-        for (Class key : counters.keySet()) {
-            Counter count = counters.get(key);
-            count.reset();
+    public int getCount(Class<?> cellClass) {
+        Class<?>[] registered = types;
+        for (int i = 0; i < registered.length; i++) {
+            if (registered[i] == cellClass) {
+                return counters[i].getCount();
+            }
         }
+        return 0;
     }
 
     /**
-     * Increment the count for one class of life
-     * @param cellClass The class of cell to increment.
+     * @return The number of living cells.
      */
-    public void incrementCount(Class cellClass) {
-        Counter count = counters.get(cellClass);
-        if (count == null) {
-            // We do not have a counter for this species yet. Create one.
-            count = new Counter(cellClass.getName());
-            counters.put(cellClass, count);
+    public int getPopulation() {
+        return living.getCount();
+    }
+
+    /**
+     * @return The number of dead cells.
+     */
+    public int getDeadCount() {
+        return dead.getCount();
+    }
+
+    /**
+     * @param color A colour.
+     * @return The number of living cells of that colour, under any of its
+     *         indices in the Palette.
+     */
+    public int getColorCount(Color color) {
+        int count = 0;
+        for (int index : Palette.indicesOf(color)) {
+            count += colors.get(index);
         }
-        count.increment();
+        return count;
     }
 
     /**
-     * Indicate that a cell count has been completed.
+     * @return The number of living cells of each colour in use.
      */
-    public void countFinished() {
-        countsValid = true;
+    public Map<Color, Integer> getColorCounts() {
+        Map<Color, Integer> counts = new HashMap<>();
+        for (int i = 0; i < Palette.size(); i++) {
+            int count = colors.get(i);
+            if (count != 0) {
+                counts.merge(Palette.getColor(Palette.firstIndexOf(i)), count, Integer::sum);
+            }
+        }
+        return Collections.unmodifiableMap(counts);
     }
 
     /**
@@ -80,36 +282,49 @@ public class FieldStats {
      * I.e., should it continue to run.
      * @return true If there is more than one life form alive
      */
-    public boolean isViable(Field field) {
-        int nonZero = 0;
-        if (!countsValid) {
-            generateCounts(field);
-        }
-        for (Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            if (info.getCount() > 0) {
-                nonZero++;
-            }
-        }
-        return nonZero >= 1;
+    public boolean isViable() {
+        return living.getCount() > 0;
     }
 
     /**
-     * Generate counts of the number of cells.
-     * These are not kept up to date.
-     * @param field The field to generate the stats for.
+     * Count a cell that is now alive.
      */
-    private void generateCounts(Field field) {
-        reset();
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Cell cell = field.getObjectAt(row, col);
+    private void cellBorn(int type, int color) {
+        counters[type].increment();
+        living.increment();
+        addColor(color, 1);
+    }
 
-                if (cell != null) {
-                    incrementCount(cell.getClass());
-                }
-            }
+    /**
+     * Count the run of births gathered during a batch.
+     */
+    private void countBorn() {
+        if (bornCount > 0) {
+            dead.add(-bornCount);
+            counters[bornType].add(bornCount);
+            living.add(bornCount);
+            addColor(bornColor, bornCount);
+            bornCount = 0;
+        }
+    }
+
+    /**
+     * Count the run of deaths gathered during a batch.
+     */
+    private void countDied() {
+        if (diedCount > 0) {
+            counters[diedType].add(-diedCount);
+            living.add(-diedCount);
+            addColor(diedColor, -diedCount);
+            dead.add(diedCount);
+            diedCount = 0;
         }
-        countsValid = true;
+    }
+
+    /**
+     * Add to the count of a colour.
+     */
+    private void addColor(int color, int delta) {
+        colors.addAndGet(color, delta);
     }
 }
@@ -0,0 +1,227 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds whether each cell is alive in the current generation and whether it
+ * will be alive in the next, as two arrays indexed by the order the cells
+ * were created in. While a generation is stepped, cells write the next
+ * array and leave the current one alone, so no cell ever sees a neighbour's
+ * new state early. Committing the generation swaps the two arrays, then
+ * tells the cells whose state changed, rather than visiting every cell
+ * again. (Each cell also keeps a copy of its current state, which it and
+ * its neighbours read far more often than it changes.)
+ *
+ * A cell that does not set its next state keeps its current one. The
+ * next array always matches the current one except where it was written,
+ * and the writes that change it are recorded, so swapping the arrays
+ * leaves every cell that was not written as it was. The commit only
+ * visits the cells recorded, bringing their next state back into line,
+ * so a generation where little changes costs little beyond the acting.
+ * Writes may come from several threads at once (see ParallelStepper).
+ *
+ * A cell can also write to a neighbour: Predator eats Prey, DiseasedCells
+ * infects living neighbours. These writes (Cell.imposeNextState and
+ * Cell.imposeColor) are held back until the commit, after every cell has
+ * acted, so they win over whatever the neighbour decided for itself and do
+ * not depend on which of the two acted first.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.21
+ */
+
+public class GenerationBuffers {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Flags in imposed
+    private static final byte STATE_IMPOSED = 1;
+    private static final byte IMPOSED_ALIVE = 2;
+    private static final byte COLOR_IMPOSED = 4;
+    private static final VarHandle FLAGS = MethodHandles.arrayElementVarHandle(boolean[].class);
+    private Cell[] cells = new Cell[INITIAL_CAPACITY];
+    private boolean[] current = new boolean[INITIAL_CAPACITY];
+    private boolean[] next = new boolean[INITIAL_CAPACITY];
+    private byte[] imposed = new byte[INITIAL_CAPACITY]; // What neighbours have written to each cell
+    private int[] imposedColors = new int[INITIAL_CAPACITY]; // Palette indices, if COLOR_IMPOSED
+    private boolean[] recorded = new boolean[INITIAL_CAPACITY]; // Whether each cell is in writes
+    private int[] writes = new int[INITIAL_CAPACITY]; // The cells written since the last commit
+    private final AtomicInteger writeCount = new AtomicInteger();
+    private int count;
+
+    /**
+     * Add a new cell, alive now and dead after the next update unless it
+     * says otherwise.
+     * @param cell The cell.
+     * @return The cell's index in the buffers.
+     */
+    public int register(Cell cell) {
+        if (count == cells.length) {
+            int capacity = count * 2;
+            cells = Arrays.copyOf(cells, capacity);
+            current = Arrays.copyOf(current, capacity);
+            next = Arrays.copyOf(next, capacity);
+            imposed = Arrays.copyOf(imposed, capacity);
+            imposedColors = Arrays.copyOf(imposedColors, capacity);
+            recorded = Arrays.copyOf(recorded, capacity);
+            writes = Arrays.copyOf(writes, capacity);
+        }
+        cells[count] = cell;
+        current[count] = true;
+        next[count] = false;
+        imposed[count] = 0;
+        recorded[count] = false;
+        record(count);
+        return count++;
+    }
+
+    /**
+     * Forget every cell.
+     */
+    public void clear() {
+        Arrays.fill(cells, 0, count, null);
+        Arrays.fill(recorded, 0, count, false);
+        writeCount.set(0);
+        count = 0;
+    }
+
+    /**
+     * Forget every cell and give back the space taken for them, as when an
+     * engine holds the cells instead (see CellStore).
+     */
+    public void release() {
+        cells = new Cell[INITIAL_CAPACITY];
+        current = new boolean[INITIAL_CAPACITY];
+        next = new boolean[INITIAL_CAPACITY];
+        imposed = new byte[INITIAL_CAPACITY];
+        imposedColors = new int[INITIAL_CAPACITY];
+        recorded = new boolean[INITIAL_CAPACITY];
+        writes = new int[INITIAL_CAPACITY];
+        writeCount.set(0);
+        count = 0;
+    }
+
+    /**
+     * @return true if the cell with the given index is alive in this generation.
+     */
+    public boolean isAlive(int index) {
+        return current[index];
+    }
+
+    /**
+     * Set whether a cell is alive in this generation, as when setting up
+     * the field or committing a single cell.
+     */
+    public void setAlive(int index, boolean value) {
+        current[index] = value;
+        if (next[index] != value) {
+            record(index);
+        }
+    }
+
+    /**
+     * @return true if the cell with the given index will be alive after the update.
+     */
+    public boolean getNext(int index) {
+        return next[index];
+    }
+
+    /**
+     * Set whether a cell will be alive after the update.
+     */
+    public void setNext(int index, boolean value) {
+        if (next[index] != value) {
+            next[index] = value;
+            record(index);
+        }
+    }
+
+    /**
+     * Set whether a cell will be alive after the update, on behalf of a
+     * neighbour. This wins over the state the cell sets for itself.
+     */
+    public void imposeNextState(int index, boolean value) {
+        imposed[index] = (byte) ((imposed[index] & COLOR_IMPOSED) | STATE_IMPOSED
+                                 | (value ? IMPOSED_ALIVE : 0));
+        record(index);
+    }
+
+    /**
+     * Set the colour a cell will have after the update, on behalf of a neighbour.
+     * @param color The palette index of the colour.
+     */
+    public void imposeColor(int index, int color) {
+        imposedColors[index] = color;
+        imposed[index] |= COLOR_IMPOSED;
+        record(index);
+    }
+
+    /**
+     * Make any state imposed on a cell its next state, when it is updated
+     * on its own.
+     */
+    public void applyImposedState(int index) {
+        if ((imposed[index] & STATE_IMPOSED) != 0) {
+            next[index] = (imposed[index] & IMPOSED_ALIVE) != 0;
+        }
+    }
+
+    /**
+     * Return the colour imposed on a cell, and forget everything imposed on it.
+     * @return The palette index of the colour, or -1 if none was imposed.
+     */
+    public int takeImposedColor(int index) {
+        int color = (imposed[index] & COLOR_IMPOSED) != 0 ? imposedColors[index] : -1;
+        imposed[index] = 0;
+        return color;
+    }
+
+    /**
+     * Add a cell to the cells written since the last commit, unless it is
+     * there already.
+     */
+    private void record(int index) {
+        if (!recorded[index] && FLAGS.compareAndSet(recorded, index, false, true)) {
+            writes[writeCount.getAndIncrement()] = index;
+        }
+    }
+
+    /**
+     * Make the next generation the current one. Every cell must have acted,
+     * and none may be committed on its own with Cell.updateState.
+     * @param stats The statistics of the field, which count the cells
+     *              that changed as a batch.
+     * @param tracker Told of each cell that changed, or null.
+     */
+    public void commit(FieldStats stats, TileTracker tracker) {
+        boolean[] previous = current;
+        current = next;
+        next = previous;
+        int written = writeCount.getAndSet(0);
+        stats.startBatch();
+        for (int w = 0; w < written; w++) {
+            int i = writes[w];
+            recorded[i] = false;
+            byte flags = imposed[i];
+            if ((flags & STATE_IMPOSED) != 0) {
+                current[i] = (flags & IMPOSED_ALIVE) != 0;
+            }
+            boolean changed = current[i] != previous[i];
+            if (changed) {
+                cells[i].aliveChanged(current[i]);
+            }
+            if (flags != 0) {
+                int color = takeImposedColor(i);
+                if (color >= 0) {
+                    cells[i].setColorIndex(color);
+                }
+            }
+            if (tracker != null && (changed || flags != 0)) {
+                tracker.cellChanged(cells[i]);
+            }
+            // Cells that set no next state keep the one they have now
+            next[i] = current[i];
+        }
+        stats.finishBatch();
+    }
+}
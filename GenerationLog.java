@@ -0,0 +1,363 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the history of a run to a file, one record per generation, for
+ * LogReplay to read back. Simulator.startLog attaches one to a simulation.
+ *
+ * What each location shows is recorded as a number: 0 if it is empty, and
+ * otherwise the index of the cell's type plus 1, plus 256 times the index
+ * of its colour plus 1 if it is alive. Births, deaths, moves and colour
+ * changes all change that number. Most generations are deltas listing
+ * only the locations that changed, and every so often there is a keyframe
+ * of the whole field, so a replay can start from the nearest one instead
+ * of the beginning. Both are written as runs of locations with the same
+ * number, and all numbers as varints (7 bits a byte, low bits first).
+ *
+ * The stepping thread only works out the numbers of the changed locations
+ * and hands them to a writer thread, which encodes and writes them. The
+ * queue between them is bounded; if the disk falls that far behind,
+ * stepping waits for it rather than losing generations.
+ *
+ * The file is a header (magic, version, depth, width) then records, each
+ * starting with a letter:
+ *   T  a new cell type: its class name
+ *   C  a new colour: its ARGB
+ *   K  a keyframe: generation, the types and colours so far, then runs of
+ *      (length, number) covering every location
+ *   D  a delta: generation, the number of locations changed, then runs of
+ *      (gap since the last run, length, number)
+ *   I  written on close: the last generation plus 1 (0 if none was
+ *      recorded), the generation and file offset of each keyframe, then
+ *      the offset of this record and a closing magic number
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.26
+ */
+
+public class GenerationLog {
+
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+    static final int MAGIC = 0x474F4C4C; // "GOLL"
+    static final int VERSION = 1;
+    static final int END_MAGIC = 0x454E444C; // "ENDL"
+    static final int TYPE = 'T', COLOR = 'C', KEYFRAME = 'K', DELTA = 'D', INDEX = 'I';
+    // How many generations the stepping thread can get ahead of the disk
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int MAX_TYPES = 255;
+    // Put on the queue by close
+    private static final Frame END = new Frame(0, false);
+
+    private final int depth, width;
+    private final int keyframeInterval;
+    private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile IOException failure; // Why the writer thread stopped, if it failed
+    // The numbering of types and colours, kept on the stepping thread
+    private final Map<Class<?>, Integer> types = new HashMap<>();
+    private final Map<Integer, Integer> colors = new HashMap<>();
+    private Class<?> lastType;
+    private int lastTypeIndex;
+    private int lastArgb;
+    private int lastColorIndex = -1;
+    private int lastGeneration = -1; // The last generation recorded, or -1 before the first
+    private boolean closed;
+
+    /**
+     * Create a log file and start its writer thread.
+     * @param path The file to write, replaced if it exists.
+     * @param depth The depth of the field that will be recorded.
+     * @param width The width of the field that will be recorded.
+     * @param keyframeInterval Record the whole field every this many generations.
+     * @throws IOException if the file cannot be created.
+     */
+    public GenerationLog(Path path, int depth, int width, int keyframeInterval) throws IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("The keyframe interval must be positive: " + keyframeInterval);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.keyframeInterval = keyframeInterval;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(depth);
+        out.writeInt(width);
+        writer = new Thread(() -> write(out), "Generation log writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Record a generation. The first generation recorded, any that does not
+     * follow on from the one before, and every keyframeInterval-th are
+     * keyframes; the others only look at the locations that changed.
+     * @param generation The generation the field is at.
+     * @param field The field, with its cells up to date.
+     * @param changes The locations that changed since the last record, in
+     *                row-major order, as from Field.takeLoggedChanges.
+     * @throws IllegalStateException if the log has been closed or could not be written.
+     */
+    public void record(int generation, Field field, int[] changes) {
+        if (closed) {
+            throw new IllegalStateException("The generation log is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("The generation log could not be written", failure);
+        }
+        boolean keyframe = lastGeneration < 0 || generation != lastGeneration + 1
+                           || generation % keyframeInterval == 0;
+        Frame frame = new Frame(generation, keyframe);
+        if (keyframe) {
+            frame.values = new int[depth * width];
+            for (int i = 0; i < frame.values.length; i++) {
+                frame.values[i] = valueOf(field.getObjectAt(i), frame);
+            }
+        }
+        else {
+            frame.locations = changes;
+            frame.values = new int[changes.length];
+            for (int i = 0; i < changes.length; i++) {
+                frame.values[i] = valueOf(field.getObjectAt(changes[i]), frame);
+            }
+        }
+        lastGeneration = generation;
+        put(frame);
+    }
+
+    /**
+     * Write what is left on the queue and the index of keyframes, then
+     * close the file.
+     * @throws IOException if the log could not be written.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        put(END);
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the generation log", e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return The number a cell shows as, numbering its type and colour if
+     *         they are new and adding them to the frame.
+     */
+    private int valueOf(Cell cell, Frame frame) {
+        if (cell == null) {
+            return 0;
+        }
+        Class<?> type = cell.getClass();
+        if (type != lastType) {
+            Integer index = types.get(type);
+            if (index == null) {
+                if (types.size() == MAX_TYPES) {
+                    throw new IllegalStateException("More than " + MAX_TYPES + " cell types to log");
+                }
+                index = types.size();
+                types.put(type, index);
+                frame.newTypes.add(type.getName());
+            }
+            lastType = type;
+            lastTypeIndex = index;
+        }
+        if (!cell.isAlive()) {
+            return lastTypeIndex + 1;
+        }
+        int argb = cell.getArgb();
+        if (argb != lastArgb || lastColorIndex < 0) {
+            Integer index = colors.get(argb);
+            if (index == null) {
+                index = colors.size();
+                colors.put(argb, index);
+                frame.newColors.add(argb);
+            }
+            lastArgb = argb;
+            lastColorIndex = index;
+        }
+        return (lastColorIndex + 1) << 8 | (lastTypeIndex + 1);
+    }
+
+    /**
+     * Hand a frame to the writer thread, waiting if the queue is full.
+     */
+    private void put(Frame frame) {
+        try {
+            while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+                if (!writer.isAlive()) {
+                    throw new IllegalStateException("The generation log could not be written", failure);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while logging a generation", e);
+        }
+    }
+
+    /**
+     * The writer thread: encode each frame and write it, until close.
+     */
+    private void write(DataOutputStream out) {
+        List<String> typeNames = new ArrayList<>();
+        List<Integer> colorTable = new ArrayList<>();
+        List<long[]> keyframes = new ArrayList<>(); // Generation and offset of each
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream record = new DataOutputStream(buffer);
+        long offset = 16; // The header
+        int last = -1;
+        try {
+            while (true) {
+                Frame frame = queue.take();
+                if (frame == END) {
+                    break;
+                }
+                buffer.reset();
+                for (String name : frame.newTypes) {
+                    record.writeByte(TYPE);
+                    record.writeUTF(name);
+                    typeNames.add(name);
+                }
+                for (int argb : frame.newColors) {
+                    record.writeByte(COLOR);
+                    record.writeInt(argb);
+                    colorTable.add(argb);
+                }
+                if (frame.keyframe) {
+                    keyframes.add(new long[] {frame.generation, offset + buffer.size()});
+                    record.writeByte(KEYFRAME);
+                    writeVarint(record, frame.generation);
+                    writeVarint(record, typeNames.size());
+                    for (String name : typeNames) {
+                        record.writeUTF(name);
+                    }
+                    writeVarint(record, colorTable.size());
+                    for (int argb : colorTable) {
+                        record.writeInt(argb);
+                    }
+                    writeKeyframeRuns(record, frame.values);
+                }
+                else {
+                    record.writeByte(DELTA);
+                    writeVarint(record, frame.generation);
+                    writeVarint(record, frame.locations.length);
+                    writeDeltaRuns(record, frame.locations, frame.values);
+                }
+                buffer.writeTo(out);
+                offset += buffer.size();
+                last = frame.generation;
+            }
+
+            buffer.reset();
+            record.writeByte(INDEX);
+            writeVarint(record, last + 1);
+            writeVarint(record, keyframes.size());
+            for (long[] keyframe : keyframes) {
+                writeVarint(record, keyframe[0]);
+                writeVarint(record, keyframe[1]);
+            }
+            record.writeLong(offset);
+            record.writeInt(END_MAGIC);
+            buffer.writeTo(out);
+            out.close();
+        }
+        catch (IOException e) {
+            failure = e;
+            try {
+                out.close();
+            }
+            catch (IOException ignored) {
+                // The first failure is the one reported
+            }
+        }
+        catch (InterruptedException e) {
+            failure = new IOException("The generation log writer was interrupted", e);
+        }
+    }
+
+    /**
+     * Write every location as runs of (length, number).
+     */
+    private static void writeKeyframeRuns(OutputStream out, int[] values) throws IOException {
+        int start = 0;
+        while (start < values.length) {
+            int end = start + 1;
+            while (end < values.length && values[end] == values[start]) {
+                end++;
+            }
+            writeVarint(out, end - start);
+            writeVarint(out, values[start]);
+            start = end;
+        }
+    }
+
+    /**
+     * Write the changed locations as runs of (gap, length, number), where a
+     * run is a row-major stretch of locations that now show the same number.
+     */
+    private static void writeDeltaRuns(OutputStream out, int[] locations, int[] values) throws IOException {
+        int previousEnd = 0;
+        int start = 0;
+        while (start < locations.length) {
+            int end = start + 1;
+            while (end < locations.length && locations[end] == locations[end - 1] + 1
+                   && values[end] == values[start]) {
+                end++;
+            }
+            writeVarint(out, locations[start] - previousEnd);
+            writeVarint(out, end - start);
+            writeVarint(out, values[start]);
+            previousEnd = locations[end - 1] + 1;
+            start = end;
+        }
+    }
+
+    /**
+     * Write a value that is not negative as a varint.
+     */
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * One generation on its way to the writer thread.
+     */
+    private static class Frame {
+        final int generation;
+        final boolean keyframe;
+        int[] locations; // The locations changed, for a delta
+        int[] values; // The number each location, or each changed one, shows
+        final List<String> newTypes = new ArrayList<>(0);
+        final List<Integer> newColors = new ArrayList<>(0);
+
+        Frame(int generation, boolean keyframe) {
+            this.generation = generation;
+            this.keyframe = keyframe;
+        }
+    }
+}
@@ -0,0 +1,593 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A HashLife engine for the Mycoplasma rules (classic Conway B3/S23), for
+ * running patterns for millions of generations on an effectively unbounded
+ * grid.
+ *
+ * The grid is a quadtree whose nodes are canonicalised through a hash table,
+ * so identical regions anywhere in space or time are stored once. Each node
+ * of level k (a square 2^k cells across) memoises its RESULT: the centre
+ * square of half its size, advanced 2^j generations for j up to k - 2. This
+ * lets the engine jump ahead by any power of two in time proportional to
+ * the amount of distinct structure rather than the area or the number of
+ * generations.
+ *
+ * Unlike Field, the universe has no edges. A field is loaded with its top
+ * left corner at (0, 0), and stored back by copying a window the size of the
+ * field, which can be moved with setWindow. Patterns that reach the edge of
+ * the field therefore carry on growing past it rather than dying there.
+ *
+ * The node table is capped at a configurable amount of memory. When it
+ * fills up, nodes that can no longer be reached from the current grid (or
+ * from a calculation in progress) are discarded, along with memoised results
+ * that point to them.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.13
+ */
+
+public class HashLifeEngine implements LifeEngine {
+
+    public static final int DEFAULT_MEMORY_CAP_MB = 256;
+    // Approximate heap used by a node and its share of the table
+    private static final int BYTES_PER_NODE = 72;
+    private static final int MIN_LEVEL = 3;
+    private static final Node DEAD = new Node(0, null, null, null, null, 0, 0);
+    private static final Node ALIVE = new Node(0, null, null, null, null, 1, 1);
+
+    private final long maxNodes;
+    private Node[] table;
+    private long size; // The number of nodes in the table
+    // Canonical empty node for each level
+    private final List<Node> empty = new ArrayList<>();
+    // Nodes being worked on by a calculation in progress, which must survive a collection
+    private final List<Node> stack = new ArrayList<>();
+
+    private Node root;
+    private long rootTop, rootLeft; // Universe coordinates of the root's top left cell
+    private long windowTop, windowLeft; // Universe coordinates of the field's top left cell
+    private long collections; // The number of times the table has been collected
+
+    /**
+     * Create an engine with the default memory cap.
+     */
+    public HashLifeEngine() {
+        this(DEFAULT_MEMORY_CAP_MB);
+    }
+
+    /**
+     * Create an engine whose node table stays within the given memory.
+     * @param memoryCapMegabytes The most memory the node table may use.
+     */
+    public HashLifeEngine(int memoryCapMegabytes) {
+        maxNodes = Math.max(1024, memoryCapMegabytes * (1024L * 1024L) / BYTES_PER_NODE);
+        table = new Node[1 << 16];
+        root = empty(MIN_LEVEL);
+    }
+
+    /**
+     * Only fields made up entirely of Mycoplasma follow the Conway rules.
+     * A field that wraps around cannot be placed in the unbounded universe.
+     */
+    public boolean supports(Field field) {
+        return field.getTopology() == Topology.BOUNDED && field.containsOnly(Mycoplasma.class);
+    }
+
+    /**
+     * Build the quadtree from the field, which is placed with its top left
+     * corner at (0, 0) in the universe. The window is moved back there too.
+     */
+    public void load(Field field) {
+        int level = MIN_LEVEL;
+        while ((1L << level) < Math.max(field.getDepth(), field.getWidth())) {
+            level++;
+        }
+        stack.clear();
+        root = build(field, level, 0, 0);
+        rootTop = 0;
+        rootLeft = 0;
+        windowTop = 0;
+        windowLeft = 0;
+    }
+
+    /**
+     * Copy the cells of the universe that lie in the window into the field.
+     */
+    public void store(Field field) {
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell != null) {
+                    cell.setNextState(false);
+                    cell.updateState();
+                }
+            }
+        }
+        export(root, rootTop, rootLeft, field);
+    }
+
+    /**
+     * Advance one generation.
+     */
+    public void step() {
+        advance(0);
+    }
+
+    /**
+     * Advance by any number of generations, as a series of power of two jumps.
+     */
+    public void step(long generations) {
+        for (int log2 = 0; generations != 0; log2++, generations >>>= 1) {
+            if ((generations & 1) != 0) {
+                advance(log2);
+            }
+        }
+    }
+
+    /**
+     * Advance the universe by 2^log2 generations in one jump.
+     * @param log2 The base 2 logarithm of the number of generations.
+     */
+    public void advance(int log2) {
+        if (log2 < 0 || log2 > 60) {
+            throw new IllegalArgumentException("Cannot advance by 2^" + log2 + " generations");
+        }
+        // Make the root big enough, and the pattern far enough from its
+        // edges, that nothing can grow out of the centre square in time
+        while (root.level < log2 + 3 || !isPadded(root)) {
+            expand();
+        }
+        expand();
+        stack.clear();
+        root = successor(root, log2);
+        long quarter = 1L << (root.level - 1);
+        rootTop += quarter;
+        rootLeft += quarter;
+        shrink();
+    }
+
+    /**
+     * Move the window of the universe that is copied into the field.
+     * @param top The universe row shown in the field's first row.
+     * @param left The universe column shown in the field's first column.
+     */
+    public void setWindow(long top, long left) {
+        windowTop = top;
+        windowLeft = left;
+    }
+
+    /**
+     * Check whether the cell at the given universe coordinates is alive.
+     * @param row The universe row.
+     * @param col The universe column.
+     * @return true if the cell is alive.
+     */
+    public boolean isAlive(long row, long col) {
+        long span = 1L << root.level;
+        long r = row - rootTop;
+        long c = col - rootLeft;
+        if (r < 0 || c < 0 || r >= span || c >= span) {
+            return false;
+        }
+        Node node = root;
+        while (node.level > 0 && node.population > 0) {
+            long half = 1L << (node.level - 1);
+            boolean south = r >= half;
+            boolean east = c >= half;
+            node = south ? (east ? node.se : node.sw) : (east ? node.ne : node.nw);
+            if (south) {
+                r -= half;
+            }
+            if (east) {
+                c -= half;
+            }
+        }
+        return node == ALIVE;
+    }
+
+    public long getPopulation() {
+        return root.population;
+    }
+
+    /**
+     * Cells that leave the field carry on in the unbounded universe.
+     */
+    public boolean isBounded() {
+        return false;
+    }
+
+    /**
+     * @return The number of nodes currently held in the table.
+     */
+    public long getNodeCount() {
+        return size;
+    }
+
+    /**
+     * @return The number of times unreachable nodes have been collected.
+     */
+    public long getCollections() {
+        return collections;
+    }
+
+    /**
+     * Compute the centre of a node advanced by 2^min(log2, level - 2)
+     * generations, memoising the answer on the node.
+     * @param node A node of level 2 or more.
+     * @param log2 The largest jump wanted, as a base 2 logarithm.
+     * @return The centre square, one level down.
+     */
+    private Node successor(Node node, int log2) {
+        if (node.population == 0) {
+            return empty(node.level - 1);
+        }
+        int jump = Math.min(log2, node.level - 2);
+        if (node.result != null && node.resultJump == jump) {
+            return node.result;
+        }
+        Node result;
+        if (node.level == 2) {
+            result = stepLevel2(node);
+        }
+        else {
+            int mark = stack.size();
+            // The nine overlapping squares of half the node's size
+            Node n00 = node.nw;
+            Node n01 = push(horizontal(node.nw, node.ne));
+            Node n02 = node.ne;
+            Node n10 = push(vertical(node.nw, node.sw));
+            Node n11 = push(centre(node));
+            Node n12 = push(vertical(node.ne, node.se));
+            Node n20 = node.sw;
+            Node n21 = push(horizontal(node.sw, node.se));
+            Node n22 = node.se;
+
+            // Either advance each by half the jump, or just take its centre
+            boolean full = jump == node.level - 2;
+            Node r00 = push(full ? successor(n00, log2) : centre(n00));
+            Node r01 = push(full ? successor(n01, log2) : centre(n01));
+            Node r02 = push(full ? successor(n02, log2) : centre(n02));
+            Node r10 = push(full ? successor(n10, log2) : centre(n10));
+            Node r11 = push(full ? successor(n11, log2) : centre(n11));
+            Node r12 = push(full ? successor(n12, log2) : centre(n12));
+            Node r20 = push(full ? successor(n20, log2) : centre(n20));
+            Node r21 = push(full ? successor(n21, log2) : centre(n21));
+            Node r22 = push(full ? successor(n22, log2) : centre(n22));
+
+            // Then advance the four quadrants they form by the rest of it
+            Node nw = push(successor(push(join(r00, r01, r10, r11)), log2));
+            Node ne = push(successor(push(join(r01, r02, r11, r12)), log2));
+            Node sw = push(successor(push(join(r10, r11, r20, r21)), log2));
+            Node se = push(successor(push(join(r11, r12, r21, r22)), log2));
+            result = join(nw, ne, sw, se);
+            truncate(mark);
+        }
+        node.result = result;
+        node.resultJump = jump;
+        return result;
+    }
+
+    /**
+     * Advance the centre 2x2 of a 4x4 node by one generation, cell by cell.
+     */
+    private Node stepLevel2(Node node) {
+        int bits = 0;
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                Node quadrant = row < 2 ? (col < 2 ? node.nw : node.ne) : (col < 2 ? node.sw : node.se);
+                int r = row & 1;
+                int c = col & 1;
+                Node leaf = r == 0 ? (c == 0 ? quadrant.nw : quadrant.ne) : (c == 0 ? quadrant.sw : quadrant.se);
+                if (leaf == ALIVE) {
+                    bits |= 1 << (row * 4 + col);
+                }
+            }
+        }
+        return join(nextLeaf(bits, 1, 1), nextLeaf(bits, 1, 2), nextLeaf(bits, 2, 1), nextLeaf(bits, 2, 2));
+    }
+
+    /**
+     * Apply the Conway rules to one cell of a 4x4 block held as bits.
+     */
+    private static Node nextLeaf(int bits, int row, int col) {
+        int count = 0;
+        for (int r = row - 1; r <= row + 1; r++) {
+            for (int c = col - 1; c <= col + 1; c++) {
+                if ((r != row || c != col) && (bits & (1 << (r * 4 + c))) != 0) {
+                    count++;
+                }
+            }
+        }
+        boolean alive = (bits & (1 << (row * 4 + col))) != 0;
+        return count == 3 || (alive && count == 2) ? ALIVE : DEAD;
+    }
+
+    /**
+     * @return The node straddling the boundary between two side by side nodes.
+     */
+    private Node horizontal(Node west, Node east) {
+        return join(west.ne, east.nw, west.se, east.sw);
+    }
+
+    /**
+     * @return The node straddling the boundary between two stacked nodes.
+     */
+    private Node vertical(Node north, Node south) {
+        return join(north.sw, north.se, south.nw, south.ne);
+    }
+
+    /**
+     * @return The centre of a node, one level down.
+     */
+    private Node centre(Node node) {
+        return join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+    }
+
+    /**
+     * Surround the root with empty space, doubling its size while keeping
+     * the pattern where it is in the universe.
+     */
+    private void expand() {
+        int mark = stack.size();
+        // Each join can collect the table, so the new quadrants are kept on the stack
+        Node border = push(empty(root.level - 1));
+        Node nw = push(join(border, border, border, root.nw));
+        Node ne = push(join(border, border, root.ne, border));
+        Node sw = push(join(border, root.sw, border, border));
+        Node se = push(join(root.se, border, border, border));
+        long half = 1L << (root.level - 1);
+        root = join(nw, ne, sw, se);
+        truncate(mark);
+        rootTop -= half;
+        rootLeft -= half;
+    }
+
+    /**
+     * Drop empty space around the root while the pattern fits in its centre.
+     */
+    private void shrink() {
+        while (root.level > MIN_LEVEL && isPadded(root)) {
+            long quarter = 1L << (root.level - 2);
+            root = centre(root);
+            rootTop += quarter;
+            rootLeft += quarter;
+        }
+    }
+
+    /**
+     * @return true if all the node's live cells are in its centre square.
+     */
+    private static boolean isPadded(Node node) {
+        return node.population == node.nw.se.population + node.ne.sw.population
+                                  + node.sw.ne.population + node.se.nw.population;
+    }
+
+    /**
+     * Build the part of the field covered by a node of the given level.
+     */
+    private Node build(Field field, int level, int top, int left) {
+        if (top >= field.getDepth() || left >= field.getWidth()) {
+            return empty(level);
+        }
+        if (level == 0) {
+            Cell cell = field.getObjectAt(top, left);
+            return cell != null && cell.isAlive() ? ALIVE : DEAD;
+        }
+        int half = 1 << (level - 1);
+        int mark = stack.size();
+        Node nw = push(build(field, level - 1, top, left));
+        Node ne = push(build(field, level - 1, top, left + half));
+        Node sw = push(build(field, level - 1, top + half, left));
+        Node se = push(build(field, level - 1, top + half, left + half));
+        Node node = join(nw, ne, sw, se);
+        truncate(mark);
+        return node;
+    }
+
+    /**
+     * Set the cells of the field that a node covers and that are alive.
+     */
+    private void export(Node node, long top, long left, Field field) {
+        long span = 1L << node.level;
+        if (node.population == 0
+            || top >= windowTop + field.getDepth() || top + span <= windowTop
+            || left >= windowLeft + field.getWidth() || left + span <= windowLeft) {
+            return;
+        }
+        if (node.level == 0) {
+            Cell cell = field.getObjectAt((int) (top - windowTop), (int) (left - windowLeft));
+            if (cell != null) {
+                cell.setNextState(true);
+                cell.updateState();
+            }
+            return;
+        }
+        long half = span / 2;
+        export(node.nw, top, left, field);
+        export(node.ne, top, left + half, field);
+        export(node.sw, top + half, left, field);
+        export(node.se, top + half, left + half, field);
+    }
+
+    /**
+     * @return The canonical empty node of the given level.
+     */
+    private Node empty(int level) {
+        if (level == 0) {
+            return DEAD;
+        }
+        while (empty.size() <= level) {
+            empty.add(null);
+        }
+        Node node = empty.get(level);
+        if (node == null) {
+            Node quadrant = empty(level - 1);
+            node = join(quadrant, quadrant, quadrant, quadrant);
+            empty.set(level, node);
+        }
+        return node;
+    }
+
+    /**
+     * Return the canonical node with the given quadrants, creating it if
+     * there is none yet.
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        int hash = hash(nw, ne, sw, se);
+        int bucket = hash & (table.length - 1);
+        for (Node node = table[bucket]; node != null; node = node.next) {
+            if (node.hash == hash && node.nw == nw && node.ne == ne && node.sw == sw && node.se == se) {
+                return node;
+            }
+        }
+        if (size >= maxNodes) {
+            collect();
+        }
+        if (size >= table.length * 3L / 4) {
+            rehash(table.length * 2);
+        }
+        Node node = new Node(nw.level + 1, nw, ne, sw, se,
+                             nw.population + ne.population + sw.population + se.population, hash);
+        bucket = hash & (table.length - 1);
+        node.next = table[bucket];
+        table[bucket] = node;
+        size++;
+        return node;
+    }
+
+    private static int hash(Node nw, Node ne, Node sw, Node se) {
+        int h = nw.hash;
+        h = h * 1000003 + ne.hash;
+        h = h * 1000003 + sw.hash;
+        h = h * 1000003 + se.hash;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Discard nodes that cannot be reached from the root, the empty nodes or
+     * a calculation in progress. Memoised results are kept alive too if that
+     * frees enough of the table; if not, they are dropped as well.
+     */
+    private void collect() {
+        collections++;
+        sweep(true);
+        if (size > maxNodes / 2) {
+            sweep(false);
+        }
+        if (size > maxNodes * 3 / 4) {
+            throw new IllegalStateException("HashLife pattern needs more than the "
+                                            + (maxNodes * BYTES_PER_NODE >> 20) + " MB node cap");
+        }
+    }
+
+    /**
+     * Remove every unmarked node from the table, and forget memoised
+     * results that point to removed nodes.
+     * @param keepResults Whether memoised results count as reachable.
+     */
+    private void sweep(boolean keepResults) {
+        mark(root, keepResults);
+        for (Node node : empty) {
+            mark(node, keepResults);
+        }
+        for (Node node : stack) {
+            mark(node, keepResults);
+        }
+        long kept = 0;
+        for (int i = 0; i < table.length; i++) {
+            Node survivors = null;
+            for (Node node = table[i]; node != null; ) {
+                Node next = node.next;
+                if (node.marked) {
+                    node.next = survivors;
+                    survivors = node;
+                    kept++;
+                }
+                node = next;
+            }
+            table[i] = survivors;
+        }
+        for (Node chain : table) {
+            for (Node node = chain; node != null; node = node.next) {
+                if (node.result != null && !node.result.marked) {
+                    node.result = null;
+                }
+            }
+        }
+        for (Node chain : table) {
+            for (Node node = chain; node != null; node = node.next) {
+                node.marked = false;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Mark a node and everything below it as reachable.
+     * @param followResults Whether to follow memoised results as well.
+     */
+    private static void mark(Node node, boolean followResults) {
+        if (node == null || node.level == 0 || node.marked) {
+            return;
+        }
+        node.marked = true;
+        mark(node.nw, followResults);
+        mark(node.ne, followResults);
+        mark(node.sw, followResults);
+        mark(node.se, followResults);
+        if (followResults) {
+            mark(node.result, followResults);
+        }
+    }
+
+    private void rehash(int capacity) {
+        Node[] old = table;
+        table = new Node[capacity];
+        for (Node chain : old) {
+            for (Node node = chain; node != null; ) {
+                Node next = node.next;
+                int bucket = node.hash & (capacity - 1);
+                node.next = table[bucket];
+                table[bucket] = node;
+                node = next;
+            }
+        }
+    }
+
+    private Node push(Node node) {
+        stack.add(node);
+        return node;
+    }
+
+    private void truncate(int mark) {
+        stack.subList(mark, stack.size()).clear();
+    }
+
+    /**
+     * A square of the universe 2^level cells across, made up of four
+     * quadrants one level down. Level 0 nodes are single cells.
+     */
+    private static class Node {
+
+        private final int level;
+        private final Node nw, ne, sw, se;
+        private final long population;
+        private final int hash;
+        private Node next; // The next node in the same table bucket
+        private Node result; // Memoised centre after 2^resultJump generations
+        private int resultJump;
+        private boolean marked;
+
+        Node(int level, Node nw, Node ne, Node sw, Node se, long population, int hash) {
+            this.level = level;
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            this.population = population;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * A whole-grid strategy for stepping the simulation. When an engine is selected
+ * in the Simulator it takes over from the per-cell act()/updateState() loop for
+ * the life forms it supports, keeping its own copy of the grid between
+ * generations. The cells in the field are only brought up to date when the
+ * field is next requested.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.04
+ */
+
+public interface LifeEngine {
+
+    /**
+     * Check whether this engine can reproduce the behaviour of every cell
+     * in the field.
+     * @param field The field to be stepped.
+     * @return true if the engine implements the rules of all the cells.
+     */
+    boolean supports(Field field);
+
+    /**
+     * Copy the state of every cell in the field into the engine.
+     * @param field The field to read from.
+     */
+    void load(Field field);
+
+    /**
+     * Advance the engine's copy of the grid by one generation.
+     */
+    void step();
+
+    /**
+     * Advance the engine's copy of the grid by a number of generations.
+     * Engines that can skip ahead override this; by default it steps one
+     * generation at a time.
+     * @param generations The number of generations to advance.
+     */
+    default void step(long generations) {
+        for (long gen = 0; gen < generations; gen++) {
+            step();
+        }
+    }
+
+    /**
+     * Write the engine's copy of the grid back into the cells of the field.
+     * @param field The field to write to. Must be the one that was loaded.
+     */
+    void store(Field field);
+
+    /**
+     * @return The number of living cells in the engine's copy of the grid.
+     */
+    long getPopulation();
+
+    /**
+     * Pass on every location whose cell came to life or died in the last
+     * step, so that the grid can be followed (by a CycleDetector, say)
+     * without storing it in the field. Only valid straight after step().
+     * Engines that do not keep what they need to tell return false.
+     * @param changes Given the locations that changed, up to 64 at a time.
+     * @return true if the changes were passed on.
+     */
+    default boolean reportChanges(Changes changes) {
+        return false;
+    }
+
+    /**
+     * Check whether the engine's grid ends at the edges of the field, as
+     * the cells' own neighbourhoods do. Engines whose grid carries on
+     * beyond the field, keeping cells that have left it, override this.
+     * @return true if nothing outside the field is kept.
+     */
+    default boolean isBounded() {
+        return true;
+    }
+
+    /**
+     * Takes the locations whose cells changed in a step.
+     */
+    interface Changes {
+        /**
+         * Take a run of up to 64 locations, in the order of their indices.
+         * @param index The index (row * width + col) of the first location.
+         * @param cells One bit for each location from index on, lowest
+         *              first, set where the cell changed. None are set past
+         *              the last location in the field.
+         */
+        void flip(int index, long cells);
+    }
+}
@@ -0,0 +1,430 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads back a file written by GenerationLog, rebuilding what the field
+ * showed at any generation in it. Seeking starts from the nearest keyframe
+ * at or before the generation and applies the deltas after it, or carries
+ * on from the last generation read if that is nearer.
+ *
+ * A log that was never closed, as after a crash, has no index of its
+ * keyframes; it is then read from the start to find them, and ends at the
+ * last whole record.
+ *
+ * Usage:
+ *   java LogReplay file [generation ...]
+ * prints the number of cells of each type, and how many are alive, at each
+ * generation given, or at the first and last in the log.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.26
+ */
+
+public class LogReplay {
+
+    private static final int HEADER_LENGTH = 16;
+    private static final int END_LENGTH = 12; // The offset of the index, and the closing magic number
+
+    private final FileChannel channel;
+    private final int depth, width;
+    private final List<Integer> keyframes = new ArrayList<>(); // The generation of each, in order
+    private final List<Long> offsets = new ArrayList<>(); // Where each keyframe starts
+    private int lastGeneration = -1;
+    // The field at the generation last read, and where reading can carry on from
+    private final int[] grid;
+    private int current = -1;
+    private DataInputStream in;
+    private final List<String> types = new ArrayList<>();
+    private final List<Integer> colors = new ArrayList<>();
+
+    /**
+     * Open a log and find its keyframes.
+     * @param path The file written by GenerationLog.
+     * @throws IOException if the file cannot be read or is not a generation log.
+     */
+    public LogReplay(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Read the whole header
+        }
+        if (header.hasRemaining() || header.getInt(0) != GenerationLog.MAGIC) {
+            channel.close();
+            throw new IOException("Not a generation log: " + path);
+        }
+        if (header.getInt(4) != GenerationLog.VERSION) {
+            channel.close();
+            throw new IOException("Unknown generation log version " + header.getInt(4) + ": " + path);
+        }
+        depth = header.getInt(8);
+        width = header.getInt(12);
+        if (depth <= 0 || width <= 0 || (long) depth * width > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Damaged generation log header: " + path);
+        }
+        grid = new int[depth * width];
+        if (!readIndex()) {
+            scan();
+        }
+        if (keyframes.isEmpty()) {
+            channel.close();
+            throw new IOException("No generations in the log: " + path);
+        }
+    }
+
+    /**
+     * @return The depth of the field recorded.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field recorded.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The first generation in the log.
+     */
+    public int getFirstGeneration() {
+        return keyframes.get(0);
+    }
+
+    /**
+     * @return The last generation in the log.
+     */
+    public int getLastGeneration() {
+        return lastGeneration;
+    }
+
+    /**
+     * @return The number of keyframes in the log.
+     */
+    public int getKeyframeCount() {
+        return keyframes.size();
+    }
+
+    /**
+     * Rebuild the field as it was at a generation.
+     * @param generation The generation, from getFirstGeneration to getLastGeneration.
+     * @return What each location showed, indexed row * width + col, as the
+     *         numbers described in GenerationLog; see getType, isAlive and
+     *         getArgb. The array is reused by the next seek.
+     * @throws IOException if the log cannot be read.
+     */
+    public int[] seek(int generation) throws IOException {
+        if (generation < getFirstGeneration() || generation > lastGeneration) {
+            throw new IllegalArgumentException("Generation " + generation + " is not in the log, which has "
+                                               + getFirstGeneration() + " to " + lastGeneration);
+        }
+        int keyframe = keyframeAtOrBefore(generation);
+        if (in == null || current > generation || current < keyframes.get(keyframe)) {
+            startAt(offsets.get(keyframe));
+        }
+        while (current < generation) {
+            if (readRecord(in, true) < 0) {
+                throw new IOException("The log ends before generation " + generation);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return The class name of the cell a location shows, or null if it is empty.
+     */
+    public String getType(int value) {
+        return value == 0 ? null : types.get((value & 0xFF) - 1);
+    }
+
+    /**
+     * @return true if a location shows a living cell.
+     */
+    public boolean isAlive(int value) {
+        return value >>> 8 != 0;
+    }
+
+    /**
+     * @return The colour of the living cell a location shows, as premultiplied
+     *         ARGB (see Cell.getArgb), or 0 if it is empty or the cell is dead.
+     */
+    public int getArgb(int value) {
+        return isAlive(value) ? colors.get((value >>> 8) - 1) : 0;
+    }
+
+    /**
+     * Close the file.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read the index written when the log was closed, if it was.
+     * @return true if there was an index.
+     */
+    private boolean readIndex() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_LENGTH + END_LENGTH) {
+            return false;
+        }
+        ByteBuffer end = ByteBuffer.allocate(END_LENGTH);
+        channel.read(end, size - END_LENGTH);
+        long indexOffset = end.getLong(0);
+        if (end.getInt(8) != GenerationLog.END_MAGIC || indexOffset < HEADER_LENGTH
+            || indexOffset >= size - END_LENGTH) {
+            return false;
+        }
+        DataInputStream index = open(indexOffset);
+        if (index.readByte() != GenerationLog.INDEX) {
+            return false;
+        }
+        lastGeneration = (int) readVarint(index) - 1;
+        int count = (int) readVarint(index);
+        for (int k = 0; k < count; k++) {
+            keyframes.add((int) readVarint(index));
+            offsets.add(readVarint(index));
+        }
+        return true;
+    }
+
+    /**
+     * Read through the whole log to find its keyframes and last generation.
+     */
+    private void scan() throws IOException {
+        CountingStream counter = new CountingStream(
+            new BufferedInputStream(Channels.newInputStream(channel.position(HEADER_LENGTH)), 1 << 16));
+        DataInputStream scanner = new DataInputStream(counter);
+        counter.count = HEADER_LENGTH;
+        try {
+            while (true) {
+                long offset = counter.count;
+                int kind = readRecord(scanner, false);
+                if (kind < 0) {
+                    break;
+                }
+                if (kind == GenerationLog.KEYFRAME) {
+                    keyframes.add(current);
+                    offsets.add(offset);
+                }
+                if (kind == GenerationLog.KEYFRAME || kind == GenerationLog.DELTA) {
+                    lastGeneration = current;
+                }
+            }
+        }
+        catch (EOFException e) {
+            // A record cut short by a crash: the log ends at the one before
+        }
+        current = -1;
+    }
+
+    /**
+     * Start reading at a keyframe.
+     */
+    private void startAt(long offset) throws IOException {
+        in = open(offset);
+        current = -1;
+        if (readRecord(in, true) != GenerationLog.KEYFRAME) {
+            throw new IOException("No keyframe at offset " + offset);
+        }
+    }
+
+    /**
+     * Read one record, and apply it to the grid if asked to.
+     * @return The letter the record starts with, or -1 at the end of the log.
+     */
+    private int readRecord(DataInputStream input, boolean apply) throws IOException {
+        int kind = input.read();
+        switch (kind) {
+            case GenerationLog.TYPE:
+                String name = input.readUTF();
+                if (apply) {
+                    types.add(name);
+                }
+                return kind;
+            case GenerationLog.COLOR:
+                int argb = input.readInt();
+                if (apply) {
+                    colors.add(argb);
+                }
+                return kind;
+            case GenerationLog.KEYFRAME:
+                current = (int) readVarint(input);
+                int typeCount = (int) readVarint(input);
+                List<String> names = new ArrayList<>();
+                for (int t = 0; t < typeCount; t++) {
+                    names.add(input.readUTF());
+                }
+                int colorCount = (int) readVarint(input);
+                List<Integer> argbs = new ArrayList<>();
+                for (int c = 0; c < colorCount; c++) {
+                    argbs.add(input.readInt());
+                }
+                if (apply) {
+                    types.clear();
+                    types.addAll(names);
+                    colors.clear();
+                    colors.addAll(argbs);
+                }
+                int location = 0;
+                while (location < grid.length) {
+                    int length = (int) readVarint(input);
+                    int value = (int) readVarint(input);
+                    if (length <= 0 || length > grid.length - location) {
+                        throw new IOException("Damaged keyframe for generation " + current);
+                    }
+                    if (apply) {
+                        Arrays.fill(grid, location, location + length, value);
+                    }
+                    location += length;
+                }
+                return kind;
+            case GenerationLog.DELTA:
+                current = (int) readVarint(input);
+                int changed = (int) readVarint(input);
+                int end = 0;
+                while (changed > 0) {
+                    int start = end + (int) readVarint(input);
+                    int length = (int) readVarint(input);
+                    int value = (int) readVarint(input);
+                    if (length <= 0 || length > changed || start < end || start > grid.length - length) {
+                        throw new IOException("Damaged delta for generation " + current);
+                    }
+                    if (apply) {
+                        Arrays.fill(grid, start, start + length, value);
+                    }
+                    end = start + length;
+                    changed -= length;
+                }
+                return kind;
+            case GenerationLog.INDEX:
+            case -1:
+                return -1;
+            default:
+                throw new IOException("Damaged generation log: unknown record " + kind);
+        }
+    }
+
+    /**
+     * @return The index of the last keyframe at or before a generation.
+     */
+    private int keyframeAtOrBefore(int generation) {
+        int low = 0, high = keyframes.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (keyframes.get(middle) <= generation) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private DataInputStream open(long offset) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(offset)),
+                                                           1 << 16));
+    }
+
+    /**
+     * Read a varint written by GenerationLog.writeVarint.
+     */
+    private static long readVarint(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Damaged varint");
+    }
+
+    /**
+     * Counts the bytes read through it, to find the offsets of records.
+     */
+    private static class CountingStream extends FilterInputStream {
+        long count;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java LogReplay file [generation ...]");
+            System.exit(1);
+        }
+        LogReplay replay = new LogReplay(Paths.get(args[0]));
+        System.out.println("Log: " + args[0] + ", grid " + replay.getDepth() + "x" + replay.getWidth()
+                           + ", generations " + replay.getFirstGeneration() + " to " + replay.getLastGeneration()
+                           + ", " + replay.getKeyframeCount() + " keyframes");
+        List<Integer> generations = new ArrayList<>();
+        for (int a = 1; a < args.length; a++) {
+            generations.add(Integer.parseInt(args[a]));
+        }
+        if (generations.isEmpty()) {
+            generations.add(replay.getFirstGeneration());
+            generations.add(replay.getLastGeneration());
+        }
+        for (int generation : generations) {
+            long start = System.nanoTime();
+            int[] grid = replay.seek(generation);
+            double millis = (System.nanoTime() - start) / 1e6;
+            Map<String, int[]> counts = new TreeMap<>(); // Cells and living cells of each type
+            for (int value : grid) {
+                if (value != 0) {
+                    int[] count = counts.computeIfAbsent(replay.getType(value), type -> new int[2]);
+                    count[0]++;
+                    if (replay.isAlive(value)) {
+                        count[1]++;
+                    }
+                }
+            }
+            StringBuilder line = new StringBuilder("Generation " + generation + ":");
+            for (Map.Entry<String, int[]> count : counts.entrySet()) {
+                line.append(' ').append(count.getKey()).append(": ").append(count.getValue()[1])
+                    .append(" alive of ").append(count.getValue()[0]).append(',');
+            }
+            line.setLength(line.length() - 1);
+            System.out.printf("%s (%.1f ms)%n", line, millis);
+        }
+        replay.close();
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The moves that cells ask for during a generation, held back until every
+ * cell has acted and then made all at once, so that no cell sees another
+ * one move while it is deciding what to do.
+ *
+ * A cell asking to move posts its target, and claims the target location
+ * with a compare-and-set on that location's slot in the claims array, so
+ * cells acting on different threads need no lock. When two cells want
+ * the same location the one with the higher priority keeps the claim. The
+ * priority is a hash of the generation and the location the cell is
+ * moving from, so which cell wins does not depend on the order the cells
+ * acted in or on the threads, and favours no direction.
+ *
+ * A move is then made if the cell won its target and whatever is at the
+ * target is not moving itself. The mover and whatever was at the target
+ * (a dead cell, or nothing) swap places, so no cell is lost from the field
+ * and none is left showing in two places. Since a location is never both
+ * the target of one move made and the start of another, the moves made do
+ * not depend on each other either. A cell whose move is not made stays
+ * where it is.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.31
+ */
+
+public class MoveClaims {
+
+    private final AtomicIntegerArray claims; // 1 + where the best claim on each location comes from, 0 if none
+    private final int[] targets; // 1 + the target of the cell at each location, 0 if it is staying
+    private final AtomicLongArray movers; // One bit per location whose cell asked to move
+    private long salt; // Mixed into the priorities, from the generation
+
+    /**
+     * Create the claims for a field.
+     * @param size The number of locations in the field.
+     */
+    public MoveClaims(int size) {
+        claims = new AtomicIntegerArray(size);
+        targets = new int[size];
+        movers = new AtomicLongArray((size + 63) / 64);
+    }
+
+    /**
+     * Get ready for the cells of a generation to ask to move.
+     * @param generation The generation being stepped.
+     */
+    public void startGeneration(int generation) {
+        salt = SplitRandom.mix(generation);
+    }
+
+    /**
+     * Ask for the cell at one location to move to another. Only the first
+     * move the cell asks for in a generation counts. Safe to call from
+     * several threads, as long as each location's cell acts on one.
+     * @param source The index (row * width + col) of the cell's location.
+     * @param target The index of the location it wants to move to.
+     */
+    public void request(int source, int target) {
+        if (targets[source] != 0) {
+            return;
+        }
+        targets[source] = target + 1;
+        movers.getAndAccumulate(source >>> 6, 1L << source, (bits, mask) -> bits | mask);
+        while (true) {
+            int current = claims.get(target);
+            if (current != 0 && !beats(source, current - 1)) {
+                return;
+            }
+            if (claims.compareAndSet(target, current, source + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Make the moves that won their claims, and clear the claims for the
+     * next generation. Called once every cell has acted.
+     * @param field The field the cells are in.
+     * @param tracker Told of the cells that moved, or null.
+     */
+    public void apply(Field field, TileTracker tracker) {
+        int[] sources = new int[64];
+        int count = 0;
+        for (int word = 0; word < movers.length(); word++) {
+            long bits = movers.getAndSet(word, 0);
+            while (bits != 0) {
+                if (count == sources.length) {
+                    sources = Arrays.copyOf(sources, count * 2);
+                }
+                sources[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        // Decide every move before making any, marking those to make with a negative target
+        for (int i = 0; i < count; i++) {
+            int source = sources[i];
+            int target = targets[source] - 1;
+            if (claims.get(target) == source + 1 && targets[target] == 0) {
+                targets[source] = -target - 1;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int source = sources[i];
+            int posted = targets[source];
+            int target = Math.abs(posted) - 1;
+            claims.set(target, 0);
+            targets[source] = 0;
+            if (posted < 0) {
+                field.swap(source, target, tracker);
+            }
+        }
+    }
+
+    /**
+     * @return true if a claim from one location beats a claim from another.
+     */
+    private boolean beats(int source, int other) {
+        long priority = SplitRandom.mix(salt + source);
+        long otherPriority = SplitRandom.mix(salt + other);
+        return priority > otherPriority || (priority == otherPriority && source < other);
+    }
+}
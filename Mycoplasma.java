@@ -1,5 +1,4 @@
 import javafx.scene.paint.Color; 
-import java.util.List;
 
 /**
  * Simplest form of life.
@@ -35,10 +34,10 @@ public class Mycoplasma extends Cell {
     * @authors Haleema Mohammed, Ahmet Taramis
     */
     public void act() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
     
         if (isAlive()) {
-            if (neighbours.size() < 2 || neighbours.size() > 3) {
+            if (neighbours < 2 || neighbours > 3) {
                 setNextState(false);
             }
             else {
@@ -46,9 +45,16 @@ public class Mycoplasma extends Cell {
             }
         }
         else {
-            if (neighbours.size() == 3) {
+            if (neighbours == 3) {
                 setNextState(true);
             }
         }
     }
+
+    /**
+     * The rules only depend on the neighbours, so nothing changes unless they do.
+     */
+    protected boolean isStable() {
+        return true;
+    }
 }
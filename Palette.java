@@ -0,0 +1,238 @@
+import javafx.scene.paint.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The colours cells can have, each given a small index, so that a cell
+ * keeps an int rather than a Color and changing colour makes no objects.
+ * Each entry holds the colour packed as premultiplied ARGB (see
+ * toArgb) for drawing into pixels, and one Color object for the
+ * places that want one, such as the rectangle renderer.
+ *
+ * The first entries are made in advance: the 18 hues, 20 degrees apart,
+ * that ChromaCell and Ripples cycle through, then the 4096 colours an
+ * Evolver picks between at random (16 levels of red, green and blue).
+ * Any other colour is added the first time it is interned; entries are
+ * never changed or removed, so an index stays valid for the whole run.
+ * Every hue is also one of the Evolver colours, as a third of the way up
+ * is a level of both, so those packed colours have two indices; interning
+ * finds the first, and indicesOf both.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.29
+ */
+
+public class Palette {
+
+    // The hue cycle of ChromaCell and Ripples
+    public static final int HUE_STEPS = 18;
+    public static final int HUE_STEP = 360 / HUE_STEPS; // Degrees
+    // The colours an Evolver picks from
+    public static final int RANDOM_LEVELS = 16;
+    public static final int RANDOM_COLORS = RANDOM_LEVELS * RANDOM_LEVELS * RANDOM_LEVELS;
+    // The most colours there can be
+    public static final int CAPACITY = 1 << 16;
+
+    private static final int RANDOM_START = HUE_STEPS;
+    private static final Color[] colors = new Color[CAPACITY];
+    private static final int[] argbs = new int[CAPACITY];
+    // The index of each packed colour, for interning
+    private static final Map<Integer, Integer> indices = new HashMap<>();
+    // The later indices of packed colours added more than once
+    private static final Map<Integer, int[]> duplicates = new HashMap<>();
+    private static volatile int size;
+    // The last colour interned, as cells are usually made in runs of the same colour
+    private static volatile Entry last;
+
+    static {
+        for (int step = 0; step < HUE_STEPS; step++) {
+            add(Color.hsb(step * HUE_STEP, 1, 1));
+        }
+        for (int i = 0; i < RANDOM_COLORS; i++) {
+            double red = (i / (RANDOM_LEVELS * RANDOM_LEVELS)) / (RANDOM_LEVELS - 1.0);
+            double green = (i / RANDOM_LEVELS % RANDOM_LEVELS) / (RANDOM_LEVELS - 1.0);
+            double blue = (i % RANDOM_LEVELS) / (RANDOM_LEVELS - 1.0);
+            add(new Color(red, green, blue, 1));
+        }
+        last = new Entry(colors[0], 0);
+    }
+
+    /**
+     * @param step A step of the hue cycle, from 0 to HUE_STEPS - 1.
+     * @return The index of that hue, at full saturation and brightness.
+     */
+    public static int hue(int step) {
+        return step;
+    }
+
+    /**
+     * @param index A colour's index.
+     * @return The step of the hue cycle the colour is, or -1 if it is not one.
+     */
+    public static int hueStepOf(int index) {
+        return index >= 0 && index < HUE_STEPS ? index : -1;
+    }
+
+    /**
+     * @param choice A number from 0 to RANDOM_COLORS - 1.
+     * @return The index of one of the colours an Evolver picks between.
+     */
+    public static int randomColor(int choice) {
+        return RANDOM_START + choice;
+    }
+
+    /**
+     * Find the index of a colour, adding it if it is new. This looks the
+     * colour up, so it is for setting up rather than every generation.
+     * @param color The colour.
+     * @return Its index.
+     * @throws IllegalStateException if the palette is full.
+     */
+    public static int intern(Color color) {
+        Entry entry = last;
+        if (entry.color == color) {
+            return entry.index;
+        }
+        int index = intern(toArgb(color), color);
+        last = new Entry(color, index);
+        return index;
+    }
+
+    /**
+     * Find the index of a packed colour, adding it if it is new.
+     * @param argb The colour packed as premultiplied ARGB.
+     * @return Its index.
+     * @throws IllegalStateException if the palette is full.
+     */
+    public static int internArgb(int argb) {
+        return intern(argb, null);
+    }
+
+    /**
+     * @param color A colour.
+     * @return Its index, or -1 if it has never been interned.
+     */
+    public static synchronized int indexOf(Color color) {
+        return indices.getOrDefault(toArgb(color), -1);
+    }
+
+    /**
+     * @param color A colour.
+     * @return Every index with the same packed colour, first the one
+     *         interning gives, or none if it has never been interned.
+     */
+    public static synchronized int[] indicesOf(Color color) {
+        int argb = toArgb(color);
+        Integer first = indices.get(argb);
+        if (first == null) {
+            return new int[0];
+        }
+        int[] later = duplicates.getOrDefault(argb, new int[0]);
+        int[] all = new int[later.length + 1];
+        all[0] = first;
+        System.arraycopy(later, 0, all, 1, later.length);
+        return all;
+    }
+
+    /**
+     * @param index A colour's index.
+     * @return The first index with the same packed colour, the one
+     *         interning gives.
+     */
+    public static synchronized int firstIndexOf(int index) {
+        return indices.get(argbs[index]);
+    }
+
+    /**
+     * @param index A colour's index.
+     * @return The colour.
+     */
+    public static Color getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * @param index A colour's index.
+     * @return The colour packed as premultiplied ARGB.
+     */
+    public static int getArgb(int index) {
+        return argbs[index];
+    }
+
+    /**
+     * @return The number of colours, one more than the highest index.
+     */
+    public static int size() {
+        return size;
+    }
+
+    /**
+     * Pack a colour into an int as premultiplied ARGB, the layout used by
+     * JavaFX int pixel buffers. For an opaque colour this is plain ARGB.
+     * @param color The colour to pack, or null for transparent.
+     * @return The packed colour.
+     */
+    public static int toArgb(Color color) {
+        if (color == null) {
+            return 0;
+        }
+        double opacity = color.getOpacity();
+        int alpha = (int) Math.round(opacity * 255);
+        int red = (int) Math.round(color.getRed() * opacity * 255);
+        int green = (int) Math.round(color.getGreen() * opacity * 255);
+        int blue = (int) Math.round(color.getBlue() * opacity * 255);
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    private static synchronized int intern(int argb, Color color) {
+        Integer index = indices.get(argb);
+        if (index != null) {
+            return index;
+        }
+        if (size == CAPACITY) {
+            throw new IllegalStateException("More than " + CAPACITY + " colours");
+        }
+        if (color == null) {
+            double alpha = (argb >>> 24) / 255.0;
+            // Undo the premultiplying, as Color wants plain components
+            color = alpha == 0 ? Color.TRANSPARENT
+                               : new Color(Math.min(1, ((argb >> 16) & 0xFF) / 255.0 / alpha),
+                                           Math.min(1, ((argb >> 8) & 0xFF) / 255.0 / alpha),
+                                           Math.min(1, (argb & 0xFF) / 255.0 / alpha), alpha);
+        }
+        return add(color);
+    }
+
+    /**
+     * Add a colour as the next entry. Called with the lock held, or from
+     * the static initialiser.
+     */
+    private static int add(Color color) {
+        int index = size;
+        int argb = toArgb(color);
+        colors[index] = color;
+        argbs[index] = argb;
+        if (indices.putIfAbsent(argb, index) != null) {
+            int[] later = duplicates.getOrDefault(argb, new int[0]);
+            later = Arrays.copyOf(later, later.length + 1);
+            later[later.length - 1] = index;
+            duplicates.put(argb, later);
+        }
+        size = index + 1;
+        return index;
+    }
+
+    /**
+     * A colour and its index.
+     */
+    private static class Entry {
+        final Color color;
+        final int index;
+
+        Entry(Color color, int index) {
+            this.color = color;
+            this.index = index;
+        }
+    }
+}
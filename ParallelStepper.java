@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a generation on several threads by splitting the field into
+ * horizontal bands of rows.
+ *
+ * A cell only ever reads or writes the locations next to it: it reads its
+ * neighbours, eats a neighbour (Predator) or infects one (DiseasedCells).
+ * So while a band is acting it touches its own rows and at most one row
+ * either side. Cells that move (Predator, Prey, Evolver) only ask to, with
+ * a lock-free claim on the target location, and the moves are made together
+ * once every band has acted (see MoveClaims). Bands are at least two rows
+ * high, which means no two even-numbered bands ever touch the same row, and
+ * neither do two odd-numbered bands. The act phase is therefore run as two
+ * rounds - all even bands in parallel, then all odd bands - with each round
+ * finishing before the next one starts. Then the moves are made and the
+ * generation is committed, either by swapping GenerationBuffers or by a
+ * round of updateState for every band, and if any cells moved out of their
+ * band the bands are shared out afresh.
+ *
+ * On a field that wraps around, the first and last bands touch as well. Any
+ * rows left over are then added to the last band rather than making a band
+ * of their own, and if there is an odd number of bands the last one acts in
+ * a third round, as it and the first are both even.
+ *
+ * Each cell draws its random numbers from its own stream derived from the
+ * seed, generation and its location (see Randomizer), and no cell moves
+ * while others act, so the results do not depend on the number of threads
+ * and are the same as stepping the cells on one.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.06
+ */
+
+public class ParallelStepper {
+
+    public static final int DEFAULT_BAND_HEIGHT = 8;
+    private final ForkJoinPool pool;
+    private final int bandHeight;
+    // The cells whose location was in each band at the start of the generation
+    private List<List<Cell>> bands;
+    private int bandedCells; // The number of cells shared out among the bands
+
+    /**
+     * Create a stepper with its own pool of the given number of threads.
+     * @param threads The number of threads to step with.
+     */
+    public ParallelStepper(int threads) {
+        this(new ForkJoinPool(threads), DEFAULT_BAND_HEIGHT);
+    }
+
+    /**
+     * Create a stepper that runs on the given pool.
+     * @param pool The pool to run the bands on.
+     * @param bandHeight The number of rows in each band. Must be at least 2.
+     */
+    public ParallelStepper(ForkJoinPool pool, int bandHeight) {
+        if (bandHeight < 2) {
+            throw new IllegalArgumentException("Bands must be at least 2 rows high: " + bandHeight);
+        }
+        this.pool = pool;
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * Forget how the cells are shared out among the bands. This must be
+     * called whenever the cell list is replaced.
+     */
+    public void invalidate() {
+        bands = null;
+    }
+
+    /**
+     * Run one generation: act for every cell, then update every cell.
+     * @param cells All the cells in the simulation.
+     * @param field The field the cells live in.
+     * @param generation The number of the generation being stepped.
+     * @param states The buffers to commit the generation with, or null to
+     *               update each cell in turn.
+     */
+    public void step(List<Cell> cells, Field field, int generation, GenerationBuffers states) {
+        if (bands == null || bandedCells != cells.size()) {
+            assignBands(cells, field);
+        }
+        int count = bands.size();
+
+        List<BandTask> even = new ArrayList<>();
+        List<BandTask> odd = new ArrayList<>();
+        List<BandTask> last = new ArrayList<>(); // The last band, when it touches the first
+        boolean lastApart = field.getTopology().wraps() && count > 1 && count % 2 == 1;
+        for (int band = 0; band < count; band++) {
+            BandTask task = new BandTask(band, field, generation, true, false);
+            if (lastApart && band == count - 1) {
+                last.add(task);
+            }
+            else if (band % 2 == 0) {
+                even.add(task);
+            }
+            else {
+                odd.add(task);
+            }
+        }
+        runAll(even);
+        runAll(odd);
+        runAll(last);
+        field.applyMoves(null);
+        if (states != null) {
+            states.commit(field.getStats(), null);
+        }
+
+        List<BandTask> updates = new ArrayList<>();
+        for (int band = 0; band < count; band++) {
+            updates.add(new BandTask(band, field, generation, false, states == null));
+        }
+        runAll(updates);
+
+        // If any cells left their band, share them all out again, so that
+        // each band keeps to the order of the cell list
+        for (BandTask task : updates) {
+            if (!task.strays.isEmpty()) {
+                assignBands(cells, field);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Run a round of tasks and wait for all of them to finish.
+     */
+    private void runAll(List<BandTask> tasks) {
+        pool.invoke(new RecursiveAction() {
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /**
+     * Share the cells out among the bands by the row they are in.
+     */
+    private void assignBands(List<Cell> cells, Field field) {
+        int depth = field.getDepth();
+        int count;
+        if (field.getTopology().wraps()) {
+            count = Math.max(1, depth / bandHeight);
+        }
+        else {
+            count = Math.max(1, (depth + bandHeight - 1) / bandHeight);
+        }
+        bands = new ArrayList<>(count);
+        for (int band = 0; band < count; band++) {
+            bands.add(new ArrayList<>());
+        }
+        for (Cell cell : cells) {
+            bands.get(bandOf(cell)).add(cell);
+        }
+        bandedCells = cells.size();
+    }
+
+    /**
+     * @return The band containing the cell's location.
+     */
+    private int bandOf(Cell cell) {
+        return Math.min(cell.getLocation().getRow() / bandHeight, bands.size() - 1);
+    }
+
+    /**
+     * Either acts for all the cells in one band, or updates their state and
+     * finds those that have left the band.
+     */
+    private class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final int band;
+        private final Field field;
+        private final int generation;
+        private final boolean act;
+        private final boolean update; // Whether to call updateState, if not acting
+        // Cells found outside the band after updating, to be moved
+        private final List<Cell> strays = new ArrayList<>();
+
+        BandTask(int band, Field field, int generation, boolean act, boolean update) {
+            this.band = band;
+            this.field = field;
+            this.generation = generation;
+            this.act = act;
+            this.update = update;
+        }
+
+        protected void compute() {
+            List<Cell> cells = bands.get(band);
+            if (act) {
+                SplitRandom random = Randomizer.startGeneration(generation);
+                try {
+                    for (Cell cell : cells) {
+                        random.select(field.indexOf(cell.getLocation()));
+                        cell.act();
+                    }
+                }
+                finally {
+                    Randomizer.finishGeneration();
+                }
+            }
+            else {
+                int kept = 0;
+                for (int i = 0; i < cells.size(); i++) {
+                    Cell cell = cells.get(i);
+                    if (update) {
+                        cell.updateState();
+                    }
+                    if (bandOf(cell) == band) {
+                        cells.set(kept++, cell);
+                    }
+                    else {
+                        strays.add(cell);
+                    }
+                }
+                cells.subList(kept, cells.size()).clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes patterns in the two usual Life file formats:
+ *
+ *   RLE      a header line "x = 3, y = 3, rule = B3/S23", then runs such
+ *            as "bo$2bo$3o!": b a dead cell, o a living one, $ the end of a
+ *            row and ! the end, each after an optional count. Generations
+ *            rules use . for dead, A for alive and B to X for the dying
+ *            states up to 24; later states take a prefix, p to y, that
+ *            adds 24 for each letter from p, so pA is 25 and yO is 255.
+ *            Lines starting with # are comments.
+ *   .cells   plaintext, a row a line, with . for dead and O for alive.
+ *            Lines starting with ! are comments.
+ *
+ * Patterns are decoded as a stream of runs handed to a Receiver, in
+ * row-major order, without building anything for each cell; a .cells file
+ * is read twice, the first time to find its width. Files are told apart
+ * by their extension, .rle or .cells.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.27
+ */
+
+public class PatternFile {
+
+    // The longest line written to an RLE file, as the format asks
+    private static final int RLE_LINE_LENGTH = 70;
+    // The states given by each of the letters A to X, and so by each prefix
+    private static final int RLE_STATES_PER_PREFIX = 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Takes a pattern as it is decoded.
+     */
+    public interface Receiver {
+        /**
+         * Called once, before any runs.
+         * @param depth The number of rows in the pattern.
+         * @param width The number of columns in the pattern.
+         * @param rule The pattern's rule, or null if the file does not say.
+         * @throws IOException to stop reading, if the pattern cannot be used.
+         */
+        void start(int depth, int width, RuleSpec rule) throws IOException;
+
+        /**
+         * Take a run of cells in the same state on the current row, starting
+         * where the last run on the row ended, or at the first column.
+         * @param state 0 for dead, 1 for alive, 2 onwards for dying.
+         * @param length The number of cells.
+         * @throws IOException to stop reading, if the run cannot be used.
+         */
+        void run(int state, int length) throws IOException;
+
+        /**
+         * Move on to the start of a later row.
+         * @param rows The number of rows to move down, 1 for the next row.
+         */
+        void endRows(int rows);
+    }
+
+    /**
+     * Read a pattern file, choosing the format by its extension.
+     * @param path A .rle or .cells file.
+     * @param receiver Takes the pattern.
+     * @throws IOException if the file cannot be read, is not a pattern, or
+     *                     the receiver cannot take it.
+     */
+    public static void read(Path path, Receiver receiver) throws IOException {
+        if (isCells(path)) {
+            readCells(path, receiver);
+        }
+        else {
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+                readRle(in, receiver);
+            }
+        }
+    }
+
+    /**
+     * Decode an RLE pattern.
+     * @param in The text, from the start of the file.
+     * @param receiver Takes the pattern.
+     * @throws IOException if the text cannot be read or is not RLE.
+     */
+    public static void readRle(Reader in, Receiver receiver) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in
+                                                             : new BufferedReader(in, BUFFER_SIZE);
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("No RLE header line");
+            }
+        }
+        while (line.startsWith("#") || line.trim().isEmpty());
+        readRleHeader(line, receiver);
+
+        int count = 0;
+        char prefix = 0; // The p to y before a later dying state, or 0
+        boolean lineStart = true;
+        boolean comment = false; // Inside a # line
+        char[] buffer = new char[BUFFER_SIZE];
+        for (int n = reader.read(buffer); n >= 0; n = reader.read(buffer)) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                if (c == '\n' || c == '\r') {
+                    lineStart = true;
+                    comment = false;
+                    continue;
+                }
+                if (comment || (lineStart && c == '#')) {
+                    comment = true;
+                    continue;
+                }
+                lineStart = false;
+                if (c >= '0' && c <= '9') {
+                    count = count * 10 + (c - '0');
+                    if (count < 0) {
+                        throw new IOException("Run too long in RLE pattern");
+                    }
+                    continue;
+                }
+                if (c >= 'p' && c <= 'y' && prefix == 0) {
+                    prefix = c;
+                    continue;
+                }
+                int length = count == 0 ? 1 : count;
+                count = 0;
+                if (prefix != 0) {
+                    if (c < 'A' || c > 'X') {
+                        throw new IOException("Not an RLE cell state: " + prefix + c);
+                    }
+                    receiver.run((prefix - 'p' + 1) * RLE_STATES_PER_PREFIX + c - 'A' + 1, length);
+                    prefix = 0;
+                }
+                else if (c == 'b' || c == '.') {
+                    receiver.run(0, length);
+                }
+                else if (c == 'o' || c == 'A') {
+                    receiver.run(1, length);
+                }
+                else if (c >= 'B' && c <= 'X') {
+                    receiver.run(c - 'A' + 1, length);
+                }
+                else if (c == '$') {
+                    receiver.endRows(length);
+                }
+                else if (c == '!') {
+                    return;
+                }
+                else if (c != ' ' && c != '\t') {
+                    throw new IOException("Not an RLE cell state: " + c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the "x = 3, y = 3, rule = B3/S23" line and start the receiver.
+     */
+    private static void readRleHeader(String line, Receiver receiver) throws IOException {
+        int depth = -1, width = -1;
+        RuleSpec rule = null;
+        for (String part : line.split(",")) {
+            String[] pair = part.split("=", 2);
+            if (pair.length != 2) {
+                throw new IOException("Not an RLE header line: " + line);
+            }
+            String key = pair[0].trim().toLowerCase();
+            String value = pair[1].trim();
+            try {
+                if (key.equals("x")) {
+                    width = Integer.parseInt(value);
+                }
+                else if (key.equals("y")) {
+                    depth = Integer.parseInt(value);
+                }
+                else if (key.equals("rule")) {
+                    // Golly adds the size of a bounded grid after a colon, which is left out here
+                    rule = RuleSpec.parse(value.split(":")[0]);
+                }
+            }
+            catch (IllegalArgumentException e) {
+                throw new IOException("Cannot read " + key + " in RLE header: " + e.getMessage(), e);
+            }
+        }
+        if (depth < 0 || width < 0) {
+            throw new IOException("No x and y in RLE header line: " + line);
+        }
+        receiver.start(depth, width, rule);
+    }
+
+    /**
+     * Decode a plaintext .cells pattern, reading it once to find its size
+     * and again to hand it over.
+     * @param path The file.
+     * @param receiver Takes the pattern.
+     * @throws IOException if the file cannot be read or is not a .cells pattern.
+     */
+    public static void readCells(Path path, Receiver receiver) throws IOException {
+        int depth = 0, width = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.startsWith("!")) {
+                    depth++;
+                    width = Math.max(width, line.length());
+                }
+            }
+        }
+        receiver.start(depth, width, null);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            boolean first = true;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith("!")) {
+                    continue;
+                }
+                if (!first) {
+                    receiver.endRows(1);
+                }
+                first = false;
+                int start = 0;
+                while (start < line.length()) {
+                    int state = cellsState(line.charAt(start));
+                    int end = start + 1;
+                    while (end < line.length() && cellsState(line.charAt(end)) == state) {
+                        end++;
+                    }
+                    receiver.run(state, end - start);
+                    start = end;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 1 for a living cell in a .cells file, 0 for a dead one.
+     */
+    private static int cellsState(char c) throws IOException {
+        if (c == '.' || c == ' ') {
+            return 0;
+        }
+        if (c == 'O' || c == 'o' || c == '*') {
+            return 1;
+        }
+        throw new IOException("Not a .cells cell state: " + c);
+    }
+
+    /**
+     * Write the part of a field that holds living or dying cells as a
+     * pattern, choosing the format by the file's extension.
+     * @param field The field.
+     * @param path A .rle or .cells file, replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(Field field, Path path) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.ISO_8859_1),
+                                             BUFFER_SIZE)) {
+            if (isCells(path)) {
+                writeCells(field, out);
+            }
+            else {
+                writeRle(field, out);
+            }
+        }
+    }
+
+    /**
+     * Write the part of a field that holds living or dying cells as RLE,
+     * with the rule if every cell follows the same one.
+     * @param field The field.
+     * @param out Where to write it.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeRle(Field field, Writer out) throws IOException {
+        int[] box = boundingBox(field);
+        RuleSpec rule = ruleOf(field);
+        boolean generations = rule != null && rule.getStates() > 2;
+        out.write("x = " + (box[3] - box[1]) + ", y = " + (box[2] - box[0]));
+        if (rule != null) {
+            out.write(", rule = " + rule);
+        }
+        out.write('\n');
+
+        RleLine line = new RleLine(out);
+        int blankRows = 0;
+        for (int row = box[0]; row < box[2]; row++) {
+            if (row > box[0]) {
+                blankRows++;
+            }
+            int col = box[1];
+            while (col < box[3]) {
+                int state = stateAt(field, row, col);
+                int end = col + 1;
+                while (end < box[3] && stateAt(field, row, end) == state) {
+                    end++;
+                }
+                // A row's trailing dead cells are left out
+                if (state != 0 || end < box[3]) {
+                    if (blankRows > 0) {
+                        line.add(blankRows, "$");
+                        blankRows = 0;
+                    }
+                    line.add(end - col, generations ? rleState(state) : (state == 0 ? "b" : "o"));
+                }
+                col = end;
+            }
+        }
+        line.add(1, "!");
+        line.finish();
+    }
+
+    /**
+     * @return The letters of a Generations state in RLE: . for dead, A for
+     *         alive, B to X for the dying states up to 24, and a prefix from
+     *         p onwards before those for the later ones.
+     */
+    private static String rleState(int state) {
+        if (state == 0) {
+            return ".";
+        }
+        int prefix = (state - 1) / RLE_STATES_PER_PREFIX;
+        char letter = (char) ('A' + (state - 1) % RLE_STATES_PER_PREFIX);
+        return prefix == 0 ? String.valueOf(letter) : "" + (char) ('p' + prefix - 1) + letter;
+    }
+
+    /**
+     * Write the part of a field that holds living or dying cells as a .cells
+     * pattern, in which dying cells are dead.
+     * @param field The field.
+     * @param out Where to write it.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeCells(Field field, Writer out) throws IOException {
+        int[] box = boundingBox(field);
+        out.write("!Written by the Life simulation\n");
+        StringBuilder line = new StringBuilder();
+        for (int row = box[0]; row < box[2]; row++) {
+            line.setLength(0);
+            for (int col = box[1]; col < box[3]; col++) {
+                line.append(stateAt(field, row, col) == 1 ? 'O' : '.');
+            }
+            int length = line.length();
+            while (length > 0 && line.charAt(length - 1) == '.') {
+                length--;
+            }
+            out.write(line.toString(), 0, length);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @return The top row, left column, and the row and column just past
+     *         the bottom right, of the cells that are not dead; all 0 if
+     *         there are none.
+     */
+    private static int[] boundingBox(Field field) {
+        int top = field.getDepth(), left = field.getWidth(), bottom = 0, right = 0;
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                if (stateAt(field, row, col) != 0) {
+                    top = Math.min(top, row);
+                    bottom = row + 1;
+                    left = Math.min(left, col);
+                    right = Math.max(right, col + 1);
+                }
+            }
+        }
+        return bottom == 0 ? new int[4] : new int[] {top, left, bottom, right};
+    }
+
+    /**
+     * @return 0 if a location is empty or its cell dead, 1 if alive, and a
+     *         RuleCell's dying state if it is dying.
+     */
+    private static int stateAt(Field field, int row, int col) {
+        Cell cell = field.getObjectAt(row, col);
+        if (cell == null) {
+            return 0;
+        }
+        if (cell.isAlive()) {
+            return 1;
+        }
+        return cell instanceof RuleCell ? ((RuleCell) cell).getDying() : 0;
+    }
+
+    /**
+     * @return The rule every cell in the field follows, or null if they do
+     *         not all follow the same one.
+     */
+    private static RuleSpec ruleOf(Field field) {
+        RuleSpec rule = null;
+        for (int i = 0; i < field.getDepth() * field.getWidth(); i++) {
+            Cell cell = field.getObjectAt(i);
+            RuleSpec cellRule = cell instanceof RuleCell ? ((RuleCell) cell).getRule()
+                                : cell instanceof Mycoplasma ? RuleSpec.MYCOPLASMA : null;
+            if (cellRule == null || (rule != null && !rule.equals(cellRule))) {
+                return null;
+            }
+            rule = cellRule;
+        }
+        return rule;
+    }
+
+    private static boolean isCells(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(".cells");
+    }
+
+    /**
+     * Writes runs of RLE, breaking the lines before they get too long.
+     */
+    private static class RleLine {
+        private final Writer out;
+        private final StringBuilder line = new StringBuilder();
+
+        RleLine(Writer out) {
+            this.out = out;
+        }
+
+        void add(int count, String tag) throws IOException {
+            String run = count == 1 ? tag : count + tag;
+            if (line.length() + run.length() > RLE_LINE_LENGTH) {
+                finish();
+            }
+            line.append(run);
+        }
+
+        void finish() throws IOException {
+            if (line.length() > 0) {
+                out.write(line.toString());
+                out.write('\n');
+                line.setLength(0);
+            }
+        }
+    }
+}
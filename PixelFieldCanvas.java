@@ -0,0 +1,115 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Node;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.util.Callback;
+
+/**
+ * Provide a graphical view of the field as an image. Each cell's packed
+ * colour is written straight into an int pixel buffer, and the part of the
+ * buffer that changed is handed to JavaFX once per frame, so drawing a cell
+ * costs a few array writes rather than a fill on a canvas.
+ *
+ * When the grid fits the display each cell is a block of pixels with a one
+ * pixel gap, as in FieldCanvas. Larger grids get one pixel per cell and the
+ * image is scaled down to fit.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.17
+ */
+
+public class PixelFieldCanvas extends ImageView implements FieldDisplay {
+
+    private int width, height; // The size of the display, in pixels
+    private int xScale, yScale; // The size of each cell, in pixels
+    private int imageWidth, imageHeight;
+    private int[] pixels;
+    private PixelBuffer<IntBuffer> buffer;
+    // The pixels changed since the last frame; none if minX > maxX
+    private int minX, minY, maxX, maxY;
+    private final Callback<PixelBuffer<IntBuffer>, Rectangle2D> changedRegion =
+        pixelBuffer -> new Rectangle2D(minX, minY, maxX - minX + 1, maxY - minY + 1);
+
+    /**
+     * Create a new view of the given size.
+     * @param height The height of the display, in pixels.
+     * @param width The width of the display, in pixels.
+     */
+    public PixelFieldCanvas(int height, int width) {
+        this.height = height;
+        this.width = width;
+        setPreserveRatio(true);
+    }
+
+    /**
+     * Create an image for a grid of the given size.
+     */
+    public void setScale(int gridHeight, int gridWidth) {
+        xScale = Math.max(width / gridWidth, 1);
+        yScale = Math.max(height / gridHeight, 1);
+        imageWidth = gridWidth * xScale;
+        imageHeight = gridHeight * yScale;
+        pixels = new int[imageWidth * imageHeight];
+        buffer = new PixelBuffer<>(imageWidth, imageHeight, IntBuffer.wrap(pixels),
+                                   PixelFormat.getIntArgbPreInstance());
+        setImage(new WritableImage(buffer));
+        setFitWidth(Math.min(imageWidth, width));
+        setFitHeight(Math.min(imageHeight, height));
+        // Blend neighbouring cells when shrinking, rather than dropping some
+        setSmooth(imageWidth > width || imageHeight > height);
+        clearChangedRegion();
+    }
+
+    /**
+     * Write a packed colour into the pixels of a grid position.
+     */
+    public void drawMark(int x, int y, Color color, int argb) {
+        int left = x * xScale;
+        int top = y * yScale;
+        // Leave a one pixel gap between cells, unless they are one pixel in size
+        int markWidth = xScale > 1 ? xScale - 1 : 1;
+        int markHeight = yScale > 1 ? yScale - 1 : 1;
+        if (markWidth == 1 && markHeight == 1) {
+            pixels[top * imageWidth + left] = argb;
+        }
+        else {
+            for (int row = top; row < top + markHeight; row++) {
+                int start = row * imageWidth + left;
+                Arrays.fill(pixels, start, start + markWidth, argb);
+            }
+        }
+        minX = Math.min(minX, left);
+        minY = Math.min(minY, top);
+        maxX = Math.max(maxX, left + markWidth - 1);
+        maxY = Math.max(maxY, top + markHeight - 1);
+    }
+
+    /**
+     * Hand the pixels changed since the last frame to JavaFX.
+     */
+    public void finishFrame() {
+        if (minX <= maxX) {
+            buffer.updateBuffer(changedRegion);
+            clearChangedRegion();
+        }
+    }
+
+    public Node getNode() {
+        return this;
+    }
+
+    /**
+     * Note that no pixels have changed.
+     */
+    private void clearChangedRegion() {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        maxX = Integer.MIN_VALUE;
+        maxY = Integer.MIN_VALUE;
+    }
+}
@@ -51,13 +51,14 @@ public class Predator extends Cell {
             if (cell instanceof Prey) {
                 rand = Randomizer.getRandom();
                 if (rand.nextDouble() <= 0.3) {
-                    cell.setNextState(false);
+                    // Eaten once every cell has acted, even if the prey has moved on
+                    cell.imposeNextState(false);
                     setNextState(true);
                     return;
                 }
             }
             if (field.isEmpty(adjacent)) {
-                setLocation(adjacent);
+                requestMove(adjacent);
                 setNextState(true);
                 return;
             }
@@ -69,4 +70,11 @@ public class Predator extends Cell {
             }
         }             
     }
+
+    /**
+     * Dead cells do nothing; living ones move and take chances.
+     */
+    protected boolean isStable() {
+        return !isAlive();
+    }
 }
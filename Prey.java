@@ -42,9 +42,19 @@ public class Prey extends Cell {
         
         for (Location adjacent : field.adjacentLocations(location)) {
             if (field.isEmpty(adjacent)) {
-                setLocation(adjacent);
+                requestMove(adjacent);
                 setNextState(true);
+                return;
             }
         }
     }
+
+    /**
+     * Dead cells do nothing. A living one moves to its first empty
+     * neighbour whenever it has one, so it changes the field even where
+     * nothing around it changed, and cannot be skipped.
+     */
+    protected boolean isStable() {
+        return !isAlive();
+    }
 }
@@ -1,4 +1,10 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Provide control over the randomization of the simulation. By using the
@@ -6,6 +12,13 @@ import java.util.Random;
  * (which helps with testing). Set 'useShared' to false to get different random
  * behaviour every time.
  *
+ * The generators are SplitRandoms, which take no locks. While a generation
+ * is being stepped, each thread stepping cells has startGeneration bind a
+ * generator to it, and selects each cell's own stream before the cell acts;
+ * getRandom then gives that stream. The numbers a cell draws depend only on
+ * the seed, the generation and the cell's location, so runs repeat exactly
+ * whatever order the cells act in and however many threads step them.
+ *
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
  */
@@ -13,19 +26,29 @@ import java.util.Random;
 public class Randomizer {
   
     private static final int SEED = 1111;
-    private static final Random rand = new Random(SEED);
+    private static long seed = SEED;
+    private static SplitRandom rand = new SplitRandom(SEED);
     private static final boolean useShared = true;
+    // Generator bound to the current thread while it steps cells
+    private static final ThreadLocal<SplitRandom> threadRandom = new ThreadLocal<>();
+    // Each thread's generator for cell streams, kept between generations
+    private static final ThreadLocal<SplitRandom> streams = ThreadLocal.withInitial(() -> new SplitRandom(0));
 
     /**
-     * Provide a random generator.
+     * Provide a random generator: the stream of the cell acting on this
+     * thread if a generation is being stepped, and otherwise the shared one.
      * @return A random object.
      */
     public static Random getRandom() {
+        SplitRandom bound = threadRandom.get();
+        if (bound != null) {
+            return bound;
+        }
         if (useShared) {
             return rand;
         }
         else {
-            return new Random();
+            return ThreadLocalRandom.current();
         }
     }
 
@@ -36,7 +59,80 @@ public class Randomizer {
      */
     public static void reset() {
         if (useShared) {
-            rand.setSeed(SEED);
+            rand.setSeed(seed);
+        }
+    }
+
+    /**
+     * Reset the randomization with a different seed, which is then
+     * used by every later reset.
+     * @param newSeed The seed to use.
+     */
+    public static void reset(long newSeed) {
+        seed = newSeed;
+        reset();
+    }
+
+    /**
+     * Record the state of the shared generator and the seed, so that a
+     * saved simulation can carry on with the same random numbers.
+     * @return The state, to be given to restoreState.
+     */
+    public static byte[] saveState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(seed);
+            out.writeLong(rand.getState());
+        }
+        catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Put the shared generator and the seed back as they were when
+     * saveState was called.
+     * @param state The state from saveState.
+     * @throws IOException if the state cannot be read.
+     */
+    public static void restoreState(byte[] state) throws IOException {
+        if (state.length != 2 * Long.BYTES) {
+            throw new IOException("Not a random generator state");
         }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+            seed = in.readLong();
+            rand.setSeed(in.readLong());
+        }
+    }
+
+    /**
+     * Bind a generator to the calling thread for stepping cells in one
+     * generation, until finishGeneration. Select each cell's stream on it
+     * before the cell acts.
+     * @param generation The generation being stepped.
+     * @return The generator.
+     */
+    public static SplitRandom startGeneration(int generation) {
+        SplitRandom random = streams.get();
+        random.startGeneration(useShared ? seed : ThreadLocalRandom.current().nextLong(), generation);
+        threadRandom.set(random);
+        return random;
+    }
+
+    /**
+     * @return The generator bound to the calling thread by startGeneration,
+     *         or null if it is not stepping cells.
+     */
+    public static SplitRandom getStreams() {
+        return threadRandom.get();
+    }
+
+    /**
+     * Go back to the shared generator on the calling thread.
+     */
+    public static void finishGeneration() {
+        threadRandom.remove();
     }
 }
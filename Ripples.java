@@ -1,5 +1,4 @@
 import javafx.scene.paint.Color; 
-import java.util.List;
 
 /**
  * Challenge Task #4
@@ -12,8 +11,8 @@ import java.util.List;
 
 public class Ripples extends Cell {
 
-    // Starting hue value for the color cycle
-    private float hue;
+    // Step of the color cycle, in Palette.HUE_STEP degrees
+    private int hue;
     
     /**
      * Create a new Ripple life form.
@@ -25,26 +24,48 @@ public class Ripples extends Cell {
     public Ripples(Field field, Location location) {
         super(field, location, Color.WHITE);
         hue = 0;
-        setColor(Color.hsb(hue, 1, 1));
+        setColorIndex(Palette.hue(hue));
     }
 
     /**
     * This is how the Ripple cell's decides its behaviour
     */
     public void act() {
-        List<Cell> neighbours = getField().getLivingNeighbours(getLocation());
+        int neighbours = getField().countLivingNeighbours(getLocation());
         
-        if (neighbours.size() >= 2) {
-            hue += 20;
-            if (hue >= 360) {
+        if (neighbours >= 2) {
+            hue++;
+            if (hue >= Palette.HUE_STEPS) {
                 hue = 0; // Reset hue after completing a full cycle
             }
-            setColor(Color.hsb(hue, 1, 1));
+            setColorIndex(Palette.hue(hue));
             setNextState(true);
         } else {
             hue = 0;
-            setColor(Color.hsb(hue, 1, 1));
+            setColorIndex(Palette.hue(hue));
             setNextState(false); 
         }
     }
+
+    /**
+     * Return the step of the hue cycle the cell has reached.
+     */
+    protected int getHue() {
+        return hue;
+    }
+
+    /**
+     * Set the step of the hue cycle the cell has reached, without changing its colour.
+     */
+    protected void setHue(int hue) {
+        this.hue = hue;
+    }
+
+    /**
+     * A living cell changes colour every generation; a dead one only comes
+     * to life if its neighbours change.
+     */
+    protected boolean isStable() {
+        return !isAlive();
+    }
 }
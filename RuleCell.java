@@ -0,0 +1,79 @@
+import javafx.scene.paint.Color;
+
+/**
+ * A life form that follows any Life-like or Generations rule, given as a
+ * RuleSpec, so a new rule such as B36/S23 can be tried without writing a
+ * new class.
+ *
+ * Neighbours only ever look at whether a cell is alive. The dying states
+ * of a Generations rule are kept in the cell itself, and a dying cell is
+ * dead as far as the rest of the simulation is concerned.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.24
+ */
+
+public class RuleCell extends Cell {
+
+    private final RuleSpec rule;
+    private final byte[] table; // The rule compiled, shared by all the cells with it
+    private int dying; // The dying state, 2 onwards, or 0 if not dying
+    private boolean settled = true; // Whether the cell was not dying, and will not be, when it last acted
+
+    /**
+     * Create a new cell following a rule.
+     *
+     * @param field The field currently occupied.
+     * @param location The location within the field.
+     * @param col The colour of the cell.
+     * @param rule The rule the cell follows.
+     * @param table The rule compiled with RuleSpec.compile.
+     */
+    public RuleCell(Field field, Location location, Color col, RuleSpec rule, byte[] table) {
+        super(field, location, col);
+        this.rule = rule;
+        this.table = table;
+    }
+
+    /**
+     * Look up the next state in the rule's table.
+     */
+    public void act() {
+        int neighbours = getField().countLivingNeighbours(getLocation());
+        int state = isAlive() ? 1 : dying;
+        int next = table[state * (Field.NEIGHBOURS + 1) + neighbours] & 0xFF;
+        setNextState(next == 1);
+        dying = next >= 2 ? next : 0;
+        settled = state < 2 && next < 2;
+    }
+
+    /**
+     * @return The rule the cell follows.
+     */
+    public RuleSpec getRule() {
+        return rule;
+    }
+
+    /**
+     * @return The dying state, 2 onwards, or 0 if the cell is alive or dead.
+     */
+    protected int getDying() {
+        return dying;
+    }
+
+    /**
+     * Set the dying state, 2 onwards, or 0 if the cell is alive or dead.
+     */
+    protected void setDying(int dying) {
+        this.dying = dying;
+        settled = false;
+    }
+
+    /**
+     * Unless it is dying or has just finished dying, the rule only depends
+     * on the neighbours, so nothing changes unless they do.
+     */
+    protected boolean isStable() {
+        return settled;
+    }
+}
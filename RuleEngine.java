@@ -0,0 +1,265 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps any Life-like or Generations rule by looking up each cell's next
+ * state in its rule's compiled table (see RuleSpec), with no branches on
+ * the rule itself.
+ *
+ * It takes fields where every location holds its own RuleCell, Mycoplasma,
+ * ChromaCell or Ripples cell; the last three follow RuleSpec.MYCOPLASMA,
+ * CHROMA_CELL and RIPPLES, and ChromaCell and Ripples hues are advanced as
+ * in VectorLifeEngine. Cells are a byte of state and a byte of whether
+ * they are alive, in grids with an empty border so no edges are checked.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.24
+ */
+
+public class RuleEngine implements LifeEngine {
+
+    private static final int COUNTS = Field.NEIGHBOURS + 1;
+    // Reads eight cells of a grid as one long, the first in the low byte
+    private static final VarHandle BYTES = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    // 1 for the living state, 0 for the others
+    private static final byte[] LIVING = new byte[RuleSpec.MAX_STATES];
+
+    static {
+        LIVING[1] = 1;
+    }
+
+    private int depth, width, stride;
+    private byte[] states, nextStates; // 0 dead, 1 alive, 2 onwards dying, with an empty border
+    private byte[] alive, next; // 1 for each living cell now and in the next generation
+    private byte[] rules; // The index in ruleStarts of each cell's rule
+    private int[] ruleStarts; // Where each rule's entries begin in table
+    private byte[] table; // The compiled tables of all the rules in the field, one after another
+    private byte[] types; // CellStore type codes for the cells with hues, NONE for the others
+    private byte[] hues; // ChromaCell and Ripples hue, in steps of Palette.HUE_STEP degrees
+    private byte[] shades; // The hue step each ChromaCell and Ripples cell is shown in
+    private boolean hasHues; // Whether there are any ChromaCell or Ripples cells
+
+    /**
+     * Check that the field has hard edges, that every location holds its
+     * own cell with a RuleSpec, and that ChromaCell and Ripples cells show
+     * the colour of one of their hue steps.
+     */
+    public boolean supports(Field field) {
+        if (field.getTopology() != Topology.BOUNDED) {
+            return false;
+        }
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (ruleOf(cell) == null
+                    || cell.getLocation().getRow() != row || cell.getLocation().getCol() != col
+                    || ((cell instanceof ChromaCell || cell instanceof Ripples)
+                        && Palette.hueStepOf(cell.getColorIndex()) < 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the state of every cell into the grids and compile their rules.
+     */
+    public void load(Field field) {
+        depth = field.getDepth();
+        width = field.getWidth();
+        stride = width + 2;
+        int size = (depth + 2) * stride;
+        states = new byte[size];
+        nextStates = new byte[size];
+        alive = new byte[size];
+        next = new byte[size];
+        rules = new byte[size];
+        types = new byte[size];
+        hues = new byte[size];
+        shades = new byte[size];
+        hasHues = false;
+        List<RuleSpec> specs = new ArrayList<>();
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                int i = (row + 1) * stride + col + 1;
+                RuleSpec rule = ruleOf(cell);
+                if (!specs.contains(rule)) {
+                    if (specs.size() > Byte.MAX_VALUE) {
+                        throw new IllegalArgumentException("More than " + (Byte.MAX_VALUE + 1)
+                                                           + " rules in one field");
+                    }
+                    specs.add(rule);
+                }
+                rules[i] = (byte) specs.indexOf(rule);
+                alive[i] = (byte) (cell.isAlive() ? 1 : 0);
+                states[i] = alive[i];
+                if (cell instanceof RuleCell) {
+                    states[i] = (byte) Math.max(states[i], ((RuleCell) cell).getDying());
+                }
+                else if (cell instanceof ChromaCell) {
+                    types[i] = CellStore.CHROMA_CELL;
+                    hues[i] = (byte) ((ChromaCell) cell).getHue();
+                }
+                else if (cell instanceof Ripples) {
+                    types[i] = CellStore.RIPPLES;
+                    hues[i] = (byte) ((Ripples) cell).getHue();
+                }
+                if (types[i] != CellStore.NONE) {
+                    shades[i] = (byte) Palette.hueStepOf(cell.getColorIndex());
+                    hasHues = true;
+                }
+            }
+        }
+
+        ruleStarts = new int[specs.size()];
+        int length = 0;
+        for (int r = 0; r < specs.size(); r++) {
+            ruleStarts[r] = length;
+            length += specs.get(r).getStates() * COUNTS;
+        }
+        table = new byte[length];
+        for (int r = 0; r < specs.size(); r++) {
+            byte[] compiled = specs.get(r).compile();
+            System.arraycopy(compiled, 0, table, ruleStarts[r], compiled.length);
+        }
+    }
+
+    /**
+     * Look up the next state of every cell, advance the hues, then make the
+     * next generation the current one.
+     */
+    public void step() {
+        for (int row = 1; row <= depth; row++) {
+            int start = row * stride + 1;
+            for (int i = start; i < start + width; i++) {
+                int count = alive[i - stride - 1] + alive[i - stride] + alive[i - stride + 1]
+                            + alive[i - 1] + alive[i + 1]
+                            + alive[i + stride - 1] + alive[i + stride] + alive[i + stride + 1];
+                byte state = table[ruleStarts[rules[i]] + (states[i] & 0xFF) * COUNTS + count];
+                nextStates[i] = state;
+                next[i] = LIVING[state & 0xFF];
+            }
+        }
+        if (hasHues) {
+            CellRules.advanceHues(types, alive, next, hues, shades);
+        }
+        byte[] previous = states;
+        states = nextStates;
+        nextStates = previous;
+        previous = alive;
+        alive = next;
+        next = previous;
+    }
+
+    /**
+     * The last generation is still in the spare grid, so the cells that
+     * changed are those whose living byte differs between the two.
+     */
+    public boolean reportChanges(Changes changes) {
+        reportChanges(alive, next, depth, width, changes);
+        return true;
+    }
+
+    /**
+     * Pass on the cells whose living byte differs between two grids with
+     * an empty border, as RuleEngine and VectorLifeEngine keep.
+     * @param alive One grid, 1 for each living cell.
+     * @param next The other grid.
+     * @param depth The depth of the grids, not counting the border.
+     * @param width The width of the grids, not counting the border.
+     * @param changes Given the cells that differ, up to 64 at a time.
+     */
+    static void reportChanges(byte[] alive, byte[] next, int depth, int width, Changes changes) {
+        int stride = width + 2;
+        for (int row = 0; row < depth; row++) {
+            int start = (row + 1) * stride + 1;
+            for (int col = 0; col < width; col += 64) {
+                long bits = changedBits(alive, next, start + col, Math.min(64, width - col));
+                if (bits != 0) {
+                    changes.flip(row * width + col, bits);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare a run of cells in two grids of 0 and 1 bytes.
+     * @param start The index of the first cell in both grids.
+     * @param count The number of cells, at most 64.
+     * @return One bit for each cell, lowest first, set where they differ.
+     */
+    static long changedBits(byte[] cells, byte[] other, int start, int count) {
+        long bits = 0;
+        int i = 0;
+        // Eight cells at a time: the multiply gathers the low bit of each byte into the top byte
+        for (; i + 8 <= count; i += 8) {
+            long diff = (long) BYTES.get(cells, start + i) ^ (long) BYTES.get(other, start + i);
+            if (diff != 0) {
+                bits |= ((diff * 0x0102040810204080L) >>> 56) << i;
+            }
+        }
+        for (; i < count; i++) {
+            bits |= (long) (cells[start + i] ^ other[start + i]) << i;
+        }
+        return bits;
+    }
+
+    /**
+     * Write the grids back into the cells of the field.
+     */
+    public void store(Field field) {
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                int i = (row + 1) * stride + col + 1;
+                if (cell instanceof RuleCell) {
+                    int state = states[i] & 0xFF;
+                    ((RuleCell) cell).setDying(state >= 2 ? state : 0);
+                }
+                else if (cell instanceof ChromaCell) {
+                    cell.setColorIndex(Palette.hue(shades[i]));
+                    ((ChromaCell) cell).setHue(hues[i]);
+                }
+                else if (cell instanceof Ripples) {
+                    cell.setColorIndex(Palette.hue(shades[i]));
+                    ((Ripples) cell).setHue(hues[i]);
+                }
+                cell.setNextState(alive[i] != 0);
+                cell.updateState();
+            }
+        }
+    }
+
+    public long getPopulation() {
+        long population = 0;
+        for (byte cell : alive) {
+            population += cell;
+        }
+        return population;
+    }
+
+    /**
+     * @return The rule a cell follows, or null if it has none.
+     */
+    private static RuleSpec ruleOf(Cell cell) {
+        if (cell instanceof RuleCell) {
+            return ((RuleCell) cell).getRule();
+        }
+        Class<?> type = cell == null ? null : cell.getClass();
+        if (type == Mycoplasma.class) {
+            return RuleSpec.MYCOPLASMA;
+        }
+        if (type == ChromaCell.class) {
+            return RuleSpec.CHROMA_CELL;
+        }
+        if (type == Ripples.class) {
+            return RuleSpec.RIPPLES;
+        }
+        return null;
+    }
+}
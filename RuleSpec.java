@@ -0,0 +1,197 @@
+/**
+ * A Life-like rule written as a rulestring, such as B3/S23 for Conway's
+ * Life: a dead cell is born with any of the neighbour counts after the B,
+ * and a living cell survives with any of those after the S.
+ *
+ * Generations rules add a number of states, as in B2/S/C3 (Brian's Brain).
+ * A living cell that does not survive then spends states - 2 generations
+ * dying before it is dead, and can only be born again once it is. The
+ * S/B/C form used by Golly (/2/3) and the old S/B form (23/3) are read too.
+ *
+ * A rule is compiled into a table of next states, indexed by
+ * state * 9 + living neighbours, where state 0 is dead, 1 is alive and 2
+ * onwards are dying. For a two-state rule that is 18 entries.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.24
+ */
+
+public final class RuleSpec {
+
+    // The rules of the life forms that only count their neighbours
+    public static final RuleSpec MYCOPLASMA = parse("B3/S23");
+    public static final RuleSpec CHROMA_CELL = parse("B3/S234");
+    public static final RuleSpec RIPPLES = parse("B2345678/S2345678");
+    public static final int MAX_STATES = 256;
+
+    private final int birth; // Bit n set if a dead cell with n living neighbours is born
+    private final int survival; // Bit n set if a living cell with n living neighbours survives
+    private final int states;
+
+    /**
+     * Create a rule.
+     * @param birth Bit n set if a dead cell with n living neighbours is born.
+     * @param survival Bit n set if a living cell with n living neighbours survives.
+     * @param states The number of states, 2 for a Life-like rule.
+     */
+    public RuleSpec(int birth, int survival, int states) {
+        if ((birth | survival) >>> (Field.NEIGHBOURS + 1) != 0) {
+            throw new IllegalArgumentException("Neighbour counts go from 0 to " + Field.NEIGHBOURS);
+        }
+        if (states < 2 || states > MAX_STATES) {
+            throw new IllegalArgumentException("A rule needs from 2 to " + MAX_STATES + " states: " + states);
+        }
+        this.birth = birth;
+        this.survival = survival;
+        this.states = states;
+    }
+
+    /**
+     * Read a rulestring: B/S (B3/S23), B/S/C (B2/S/C3), S/B (23/3) or
+     * S/B/C (/2/3). Letters may be in either case.
+     * @param rule The rulestring.
+     * @return The rule.
+     * @throws IllegalArgumentException if the rulestring cannot be read.
+     */
+    public static RuleSpec parse(String rule) {
+        String[] parts = rule.trim().toUpperCase().split("/", -1);
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Not a rulestring: " + rule);
+        }
+        String birth, survival;
+        if (parts[0].startsWith("B") || parts[0].startsWith("S")) {
+            // Lettered, in either order
+            String first = parts[0], second = parts[1];
+            if (first.startsWith("S")) {
+                first = parts[1];
+                second = parts[0];
+            }
+            if (!first.startsWith("B") || !second.startsWith("S")) {
+                throw new IllegalArgumentException("Not a rulestring: " + rule);
+            }
+            birth = first.substring(1);
+            survival = second.substring(1);
+        }
+        else {
+            survival = parts[0];
+            birth = parts[1];
+        }
+        int states = 2;
+        if (parts.length == 3) {
+            String count = parts[2];
+            if (count.startsWith("C") || count.startsWith("G")) {
+                count = count.substring(1);
+            }
+            try {
+                states = Integer.parseInt(count);
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number of states: " + parts[2]);
+            }
+        }
+        return new RuleSpec(counts(birth, rule), counts(survival, rule), states);
+    }
+
+    /**
+     * @return The neighbour counts in a run of digits, as bits.
+     */
+    private static int counts(String digits, String rule) {
+        int bits = 0;
+        for (char digit : digits.toCharArray()) {
+            if (digit < '0' || digit > '0' + Field.NEIGHBOURS) {
+                throw new IllegalArgumentException("Not a neighbour count: " + digit + " in " + rule);
+            }
+            bits |= 1 << (digit - '0');
+        }
+        return bits;
+    }
+
+    /**
+     * @return true if a dead cell with the given number of living neighbours is born.
+     */
+    public boolean isBorn(int neighbours) {
+        return (birth & (1 << neighbours)) != 0;
+    }
+
+    /**
+     * @return true if a living cell with the given number of living neighbours survives.
+     */
+    public boolean survives(int neighbours) {
+        return (survival & (1 << neighbours)) != 0;
+    }
+
+    /**
+     * @return The number of states, 2 for a Life-like rule.
+     */
+    public int getStates() {
+        return states;
+    }
+
+    /**
+     * Work out the state a cell moves to.
+     * @param state 0 if dead, 1 if alive, 2 onwards if dying.
+     * @param neighbours The number of living neighbours.
+     * @return The next state.
+     */
+    public int nextState(int state, int neighbours) {
+        if (state == 0) {
+            return isBorn(neighbours) ? 1 : 0;
+        }
+        if (state == 1 && survives(neighbours)) {
+            return 1;
+        }
+        return (state + 1) % states;
+    }
+
+    /**
+     * @return The next state for every state and number of living
+     *         neighbours, at index state * 9 + neighbours.
+     */
+    public byte[] compile() {
+        byte[] table = new byte[states * (Field.NEIGHBOURS + 1)];
+        for (int state = 0; state < states; state++) {
+            for (int neighbours = 0; neighbours <= Field.NEIGHBOURS; neighbours++) {
+                table[state * (Field.NEIGHBOURS + 1) + neighbours] = (byte) nextState(state, neighbours);
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof RuleSpec)) {
+            return false;
+        }
+        RuleSpec rule = (RuleSpec) other;
+        return birth == rule.birth && survival == rule.survival && states == rule.states;
+    }
+
+    @Override
+    public int hashCode() {
+        return (birth * 31 + survival) * 31 + states;
+    }
+
+    /**
+     * @return The rule in B/S notation, with /C and the number of states
+     *         for a Generations rule.
+     */
+    @Override
+    public String toString() {
+        StringBuilder rule = new StringBuilder("B");
+        appendCounts(rule, birth);
+        rule.append("/S");
+        appendCounts(rule, survival);
+        if (states > 2) {
+            rule.append("/C").append(states);
+        }
+        return rule.toString();
+    }
+
+    private static void appendCounts(StringBuilder rule, int bits) {
+        for (int neighbours = 0; neighbours <= Field.NEIGHBOURS; neighbours++) {
+            if ((bits & (1 << neighbours)) != 0) {
+                rule.append(neighbours);
+            }
+        }
+    }
+}
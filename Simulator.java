@@ -1,4 +1,7 @@
 import javafx.scene.paint.Color; 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -22,9 +25,24 @@ public class Simulator {
     private static final double PREDATOR_ALIVE_PROB = 0.015;
     private static final double PREY_ALIVE_PROB = 0.02;
     private static final double RIPPLE_ALIVE_PROB = 0.035;
+    private static final double RULE_ALIVE_PROB = 0.25;
     private List<Cell> cells;
+    private GenerationBuffers states; // Whether each cell is alive, now and after the update
+    private boolean doubleBuffered = true; // false to update every cell in a second pass
     private Field field;
     private int generation;
+    private LifeEngine engine; // Optional whole-grid engine, null to step cell by cell
+    private boolean engineChecked; // Whether the engine has been checked against the population
+    private boolean engineLoaded; // Whether the engine holds the current state of the field
+    private boolean fieldStale; // Whether the cells lag behind the engine
+    private CellStore holder; // The engine in use if it can hold the cells in place of the objects, or null
+    private boolean cellsHeld; // Whether the holder has the only copy of the cells, the field none
+    private ParallelStepper stepper; // Optional multi-threaded stepping, null for one thread
+    private TileTracker tracker; // Skips regions where nothing changes, null to evaluate every cell
+    private GenerationLog log; // Records every generation, or null
+    private CycleDetector cycles; // Spots the field repeating, or null
+    private boolean fastForward; // Whether to skip whole periods of a cycle found
+    private int skippedGenerations; // The generations skipped that way since the last reset
 
     /**
      * Construct a simulation field with default size.
@@ -39,34 +57,465 @@ public class Simulator {
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width) {
+        this(depth, width, Topology.BOUNDED);
+    }
+
+    /**
+     * Create a simulation field with the given size and topology.
+     * @param depth Depth of the field. Must be greater than zero, or at
+     *              least 3 if the field wraps.
+     * @param width Width of the field. Must be greater than zero, or at
+     *              least 3 if the field wraps.
+     * @param topology How the edges of the field are joined up.
+     */
+    public Simulator(int depth, int width, Topology topology) {
         cells = new ArrayList<>();
-        field = new Field(depth, width);
+        states = new GenerationBuffers();
+        field = new Field(depth, width, topology, states);
+        tracker = new TileTracker(depth, width, topology);
         reset();
     }
 
     /**
      * Run the simulation from its current state for a single generation.
-     * Iterate over the whole field updating the state of each life form.
+     * Every life form acts, then the next generation is committed.
+     */
+    public synchronized void simOneGeneration() {
+        boolean searching = cycles != null && cycles.isSearching();
+        if (searching) {
+            prepareCycle();
+        }
+        step();
+        if (log != null) {
+            syncField();
+            log.record(generation, field, field.takeLoggedChanges());
+        }
+        if (searching && cycles.isSearching()) {
+            recordCycle();
+        }
+    }
+
+    /**
+     * Bring the cycle detector up to date with the cells before a
+     * generation is run, starting it on the first. Nothing is stored from
+     * the engine unless the detector has yet to start.
      */
-    public void simOneGeneration() {
+    private void prepareCycle() {
+        if (!cycles.isStarted()) {
+            syncField();
+            field.takeHashedChanges();
+            cycles.start(isRepeatable(), field);
+            cycles.record(generation);
+        }
+        else if (!fieldStale) {
+            // Take in changes to the cells before an engine moves on from them
+            cycles.update(field, field.takeHashedChanges());
+        }
+    }
+
+    /**
+     * Bring the cycle detector up to date with the generation just run.
+     * An engine that can tell which cells changed feeds it directly, so
+     * its grid is not stored in the field every generation.
+     */
+    private void recordCycle() {
+        if (!fieldStale || !engine.reportChanges(cycles)) {
+            syncField();
+            cycles.update(field, field.takeHashedChanges());
+        }
+        cycles.record(generation);
+    }
+
+    /**
+     * Run one generation, by whichever means is in use.
+     */
+    private void step() {
         generation++;
-        for (Iterator<Cell> it = cells.iterator(); it.hasNext(); ) {
-            Cell cell = it.next();
-            cell.act();
+        field.startMoves(generation);
+        if (!useEngine() && stepper != null) {
+            stepper.step(cells, field, generation, doubleBuffered ? states : null);
+            return;
         }
-        
-        for (Cell cell : cells) {
-          cell.updateState();
+        SplitRandom random = Randomizer.startGeneration(generation);
+        try {
+            if (useEngine()) {
+                releaseCells();
+                engine.step();
+                fieldStale = true;
+                return;
+            }
+            if (!doubleBuffered) {
+                for (Iterator<Cell> it = cells.iterator(); it.hasNext(); ) {
+                    Cell cell = it.next();
+                    random.select(field.indexOf(cell.getLocation()));
+                    cell.act();
+                }
+                field.applyMoves(null);
+
+                for (Cell cell : cells) {
+                  cell.updateState();
+                }
+                return;
+            }
+            if (tracker != null) {
+                stepActiveTiles(random);
+                return;
+            }
+            for (Cell cell : cells) {
+                random.select(field.indexOf(cell.getLocation()));
+                cell.act();
+            }
+            field.applyMoves(null);
+            states.commit(field.getStats(), null);
+        }
+        finally {
+            Randomizer.finishGeneration();
+        }
+    }
+
+    /**
+     * Run one generation, only acting for the cells in tiles that the
+     * tracker says may change.
+     * @param random The generator bound for the generation.
+     */
+    private void stepActiveTiles(SplitRandom random) {
+        tracker.startGeneration(cells);
+        int count = cells.size();
+        for (int i = 0; i < count; i++) {
+            if (tracker.isActive(i)) {
+                Cell cell = cells.get(i);
+                tracker.beforeAct(i, cell);
+                random.select(field.indexOf(cell.getLocation()));
+                cell.act();
+                tracker.afterAct(i, cell);
+            }
+        }
+        field.applyMoves(tracker);
+        states.commit(field.getStats(), tracker);
+        tracker.finishGeneration();
+    }
+
+    /**
+     * Choose how a generation is committed. Double buffering (the default)
+     * swaps the current and next states of all the cells at once and only
+     * visits the cells whose next state was changed, by themselves or a
+     * neighbour (see GenerationBuffers). Without it every cell is updated in a
+     * second pass, as the simulator originally did; this is kept to check
+     * the two against each other, and does not skip tiles.
+     * @param enabled Whether to double buffer.
+     */
+    public synchronized void setDoubleBuffered(boolean enabled) {
+        doubleBuffered = enabled;
+        if (tracker != null) {
+            tracker.reset();
+        }
+    }
+
+    /**
+     * Run the simulation from its current state for a number of generations.
+     * An engine that can skip ahead does so in one go; otherwise this is the
+     * same as calling simOneGeneration repeatedly. With fast forwarding on,
+     * once a cycle is found the whole periods left are skipped, and only the
+     * generations left over are run.
+     * @param count The number of generations to run.
+     */
+    public synchronized void simGenerations(int count) {
+        int remaining = count;
+        while (remaining > 0) {
+            int period = getCyclePeriod();
+            if (fastForward && period > 0 && log == null) {
+                int skipped = remaining - remaining % period;
+                generation += skipped;
+                skippedGenerations += skipped;
+                remaining -= skipped;
+            }
+            if (log == null && (cycles == null || !cycles.isSearching()) && useEngine()) {
+                // An engine that draws random numbers moves the streams on a generation each step
+                Randomizer.startGeneration(generation + 1);
+                try {
+                    releaseCells();
+                    engine.step(remaining);
+                }
+                finally {
+                    Randomizer.finishGeneration();
+                }
+                generation += remaining;
+                fieldStale = true;
+                return;
+            }
+            if (remaining > 0) {
+                simOneGeneration();
+                remaining--;
+            }
         }
     }
 
     /**
      * Reset the simulation to a starting position.
      */
-    public void reset() {
+    public synchronized void reset() {
+        if (log != null) {
+            try {
+                stopLog();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         generation = 0;
+        skippedGenerations = 0;
         cells.clear();
+        states.clear();
         field.clear();
+        engineChecked = false;
+        engineLoaded = false;
+        fieldStale = false;
+        holder = null;
+        cellsHeld = false;
+        if (stepper != null) {
+            stepper.invalidate();
+        }
+        if (tracker != null) {
+            tracker.reset();
+        }
+        if (cycles != null) {
+            cycles.reset();
+        }
+    }
+
+    /**
+     * Turn skipping of unchanging regions on or off. It is on by default,
+     * and only applies when stepping cell by cell on a single thread.
+     * @param enabled Whether to skip tiles where nothing can change.
+     */
+    public synchronized void setTileTracking(boolean enabled) {
+        tracker = enabled ? new TileTracker(field.getDepth(), field.getWidth(), field.getTopology()) : null;
+    }
+
+    /**
+     * @return The fraction of tiles skipped in the last generation.
+     */
+    public double getSkippedTileFraction() {
+        return tracker == null ? 0 : tracker.getSkippedFraction();
+    }
+
+    /**
+     * @return The fraction of tiles skipped over all generations since the last reset.
+     */
+    public double getAverageSkippedTileFraction() {
+        return tracker == null ? 0 : tracker.getAverageSkippedFraction();
+    }
+
+    /**
+     * Step the cells on several threads. Each cell draws from its own random
+     * stream and moves are settled after every cell has acted, so the results
+     * are the same as stepping on a single thread, whatever the number of
+     * threads.
+     * @param stepper The stepper to use, or null to step on a single thread.
+     */
+    public synchronized void setParallelStepper(ParallelStepper stepper) {
+        this.stepper = stepper;
+        if (stepper != null) {
+            stepper.invalidate();
+        }
+        if (tracker != null) {
+            tracker.reset();
+        }
+    }
+
+    /**
+     * Select a whole-grid engine to step the simulation with. The engine is
+     * only used if it supports every cell in the field; otherwise the cells
+     * are stepped one by one as normal.
+     * @param engine The engine to use, or null to always step cell by cell.
+     */
+    public synchronized void setEngine(LifeEngine engine) {
+        syncField();
+        this.engine = engine;
+        engineChecked = false;
+        engineLoaded = false;
+        holder = null;
+        if (tracker != null) {
+            tracker.reset();
+        }
+        if (cycles != null) {
+            cycles.reset();
+        }
+    }
+
+    /**
+     * Decide whether this generation should be stepped by the engine,
+     * loading the field into it the first time.
+     * @return true if the engine is in use.
+     */
+    private boolean useEngine() {
+        if (engine == null) {
+            return false;
+        }
+        if (!engineChecked) {
+            engineChecked = true;
+            if (engine.supports(field)) {
+                engine.load(field);
+                engineLoaded = true;
+                if (engine instanceof CellStore) {
+                    holder = (CellStore) engine;
+                }
+            }
+        }
+        return engineLoaded;
+    }
+
+    /**
+     * Return the locations whose cell has been replaced, come to life, died
+     * or changed colour since the last call, so that a view only has to
+     * redraw those. After a reset every location is included.
+     * @return The index (row * width + col) of each changed location, in
+     *         row-major order.
+     */
+    public synchronized int[] takeChanges() {
+        if (cellsHeld) {
+            holder.markChanged(field);
+        }
+        else {
+            syncField();
+        }
+        return field.takeChanges();
+    }
+
+    /**
+     * Record how the locations that changed since the last snapshot (or the
+     * last takeChanges) look now, for a view to draw on another thread.
+     * @return The snapshot.
+     */
+    public synchronized FieldSnapshot takeSnapshot() {
+        if (cellsHeld) {
+            holder.markChanged(field);
+            holder.countCells(field.getStats());
+            return new FieldSnapshot(generation, holder, field.takeChanges(),
+                                     field.getStats().getPopulationDetails(), getSkippedTileFraction(),
+                                     getCyclePeriod());
+        }
+        syncField();
+        return new FieldSnapshot(generation, field, field.takeChanges(), getSkippedTileFraction(),
+                                 getCyclePeriod());
+    }
+
+    /**
+     * Turn looking for cycles on or off. Cycles are only looked for where
+     * a repeat of which cells are alive must be one (see isRepeatable).
+     * While looking, a whole-grid engine steps a generation at a time and
+     * reports the cells that changed, or stores its grid in the field if it
+     * cannot. The search starts afresh after a reset or a change of engine.
+     * @param enabled Whether to look for cycles.
+     */
+    public synchronized void setCycleDetection(boolean enabled) {
+        field.setChangeHashing(enabled);
+        cycles = enabled ? new CycleDetector() : null;
+    }
+
+    /**
+     * Choose whether simGenerations skips whole periods of a cycle once one
+     * is found. The field ends up as it would have after running every
+     * generation. Nothing is skipped while a log is being written.
+     * @param enabled Whether to fast forward.
+     */
+    public synchronized void setFastForward(boolean enabled) {
+        fastForward = enabled;
+    }
+
+    /**
+     * @return The period of the cycle the field is in, or 0 if none has been found.
+     */
+    public int getCyclePeriod() {
+        CycleDetector detector = cycles;
+        return detector == null ? 0 : detector.getPeriod();
+    }
+
+    /**
+     * @return The first generation of the cycle the field is in, if one has been found.
+     */
+    public int getCycleStart() {
+        CycleDetector detector = cycles;
+        return detector == null ? 0 : detector.getStart();
+    }
+
+    /**
+     * @return The generations skipped by fast forwarding since the last reset.
+     */
+    public int getSkippedGenerations() {
+        return skippedGenerations;
+    }
+
+    /**
+     * Check whether the next state of the field follows from nothing but
+     * what it shows, so that showing the same again is a cycle. That holds
+     * when every cell is a Mycoplasma or a RuleCell without dying states,
+     * at its own location, and any engine in use keeps nothing beyond the
+     * edges of the field. Cells that draw random numbers, or keep anything
+     * they do not show, can look the same and still go on differently.
+     * @return true if a repeat is a cycle.
+     */
+    private boolean isRepeatable() {
+        if (useEngine() && !engine.isBounded()) {
+            return false;
+        }
+        for (Cell cell : cells) {
+            boolean shownState = cell instanceof Mycoplasma
+                                 || (cell instanceof RuleCell && ((RuleCell) cell).getRule().getStates() == 2);
+            if (!shownState || field.getObjectAt(cell.getLocation()) != cell) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether anything is still alive, without making the cells
+     * again if a CellStore holds them.
+     * @return true if there is a living cell.
+     */
+    public synchronized boolean isViable() {
+        if (cellsHeld) {
+            return holder.getPopulation() > 0;
+        }
+        syncField();
+        return field.getStats().isViable();
+    }
+
+    /**
+     * Bring the cells in the field up to date with the engine, making them
+     * again if the engine holds them.
+     */
+    private void syncField() {
+        if (cellsHeld) {
+            field.clear();
+            cells.addAll(holder.createCells(field));
+            cellsHeld = false;
+            fieldStale = false;
+        }
+        else if (fieldStale) {
+            engine.store(field);
+            fieldStale = false;
+        }
+    }
+
+    /**
+     * Leave the cells to an engine that can hold them, dropping the Cell
+     * objects so that the field costs no more than the engine's arrays.
+     * The statistics are left as they are, and counted by the engine when
+     * next read. Not while logging, which needs the cells every generation.
+     */
+    private void releaseCells() {
+        if (holder == null || cellsHeld || log != null) {
+            return;
+        }
+        field.release();
+        cells = new ArrayList<>();
+        states.release();
+        if (stepper != null) {
+            stepper.invalidate();
+        }
+        cellsHeld = true;
     }
     
     /**
@@ -212,6 +661,122 @@ public class Simulator {
             }
         }
     }
+
+    /**
+     * Randomly populate the field with live/dead cells following a rule.
+     * @param rule The rule, such as RuleSpec.parse("B36/S23").
+     */
+    protected void populateRule(RuleSpec rule) {
+        Random rand = Randomizer.getRandom();
+        byte[] table = rule.compile();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Location location = new Location(row, col);
+                RuleCell cell = new RuleCell(field, location, Color.CORNFLOWERBLUE, rule, table);
+                if (rand.nextDouble() > RULE_ALIVE_PROB) {
+                    cell.setDead();
+                }
+                cells.add(cell);
+            }
+        }
+    }
+    
+    /**
+     * Fill the field with the cells of a pattern file, centred, and dead
+     * wherever the pattern has no living cell. The cells are Mycoplasma if
+     * the pattern's rule is B3/S23 or it gives none, and otherwise RuleCells
+     * following its rule. The pattern is placed as it is decoded.
+     * @param path A .rle or .cells file (see PatternFile).
+     * @throws IOException if the file cannot be read, or the pattern does
+     *                     not fit in the field.
+     */
+    protected void populatePattern(Path path) throws IOException {
+        PatternPlacer placer = new PatternPlacer();
+        PatternFile.read(path, placer);
+        placer.finish();
+    }
+
+    /**
+     * Write the part of the field with living cells in it as a pattern
+     * file, which populatePattern can read back.
+     * @param path A .rle or .cells file (see PatternFile), replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void exportPattern(Path path) throws IOException {
+        syncField();
+        PatternFile.write(field, path);
+    }
+
+    /**
+     * Makes the cells of a pattern as it is decoded, a location at a time in
+     * row-major order, with dead cells around it.
+     */
+    private class PatternPlacer implements PatternFile.Receiver {
+        private int top, left; // Where the top left of the pattern goes in the field
+        private int row, col; // The position reached in the pattern
+        private int filled; // The number of locations given cells, in row-major order
+        private RuleSpec rule; // The rule of the cells, or null for Mycoplasma
+        private byte[] table;
+
+        public void start(int depth, int width, RuleSpec patternRule) throws IOException {
+            if (depth > field.getDepth() || width > field.getWidth()) {
+                throw new IOException("The pattern is " + depth + "x" + width + ", larger than the "
+                                      + field.getDepth() + "x" + field.getWidth() + " field");
+            }
+            top = (field.getDepth() - depth) / 2;
+            left = (field.getWidth() - width) / 2;
+            if (patternRule != null && !patternRule.equals(RuleSpec.MYCOPLASMA)) {
+                rule = patternRule;
+                table = rule.compile();
+            }
+        }
+
+        public void run(int state, int length) throws IOException {
+            if (top + row >= field.getDepth() || left + col + length > field.getWidth()) {
+                throw new IOException("The pattern goes outside the field at row " + row + ", column " + col);
+            }
+            if (state >= (rule == null ? 2 : rule.getStates())) {
+                throw new IOException("The pattern has state " + state + ", which its rule does not");
+            }
+            fillTo((top + row) * field.getWidth() + left + col);
+            for (int i = 0; i < length; i++) {
+                add(state);
+            }
+            col += length;
+        }
+
+        public void endRows(int rows) {
+            row += rows;
+            col = 0;
+        }
+
+        /**
+         * Give the locations after the pattern dead cells.
+         */
+        void finish() {
+            fillTo(field.getDepth() * field.getWidth());
+        }
+
+        private void fillTo(int index) {
+            while (filled < index) {
+                add(0);
+            }
+        }
+
+        private void add(int state) {
+            Location location = new Location(filled / field.getWidth(), filled % field.getWidth());
+            Cell cell = rule == null ? new Mycoplasma(field, location, Color.ORANGE)
+                                     : new RuleCell(field, location, Color.CORNFLOWERBLUE, rule, table);
+            if (state != 1) {
+                cell.setDead();
+            }
+            if (state >= 2) {
+                ((RuleCell) cell).setDying(state);
+            }
+            cells.add(cell);
+            filled++;
+        }
+    }
     
     /**
      * Pause for a given time.
@@ -226,11 +791,77 @@ public class Simulator {
         }
     }
     
-    public Field getField() {
+    /**
+     * Return the field, bringing its cells up to date with the engine first.
+     * @return The field.
+     */
+    public synchronized Field getField() {
+        syncField();
         return field;
     }
 
     public int getGeneration() {
         return generation;
     }
+
+    /**
+     * Start streaming every generation from this one on to a file, on a
+     * background thread, until stopLog or reset. LogReplay reads it back.
+     * Whole-grid engines then store their state in the cells every
+     * generation, and do not skip ahead.
+     * @param path The file to write (see GenerationLog).
+     * @param keyframeInterval Record the whole field every this many generations.
+     * @throws IOException if the file cannot be created.
+     */
+    public synchronized void startLog(Path path, int keyframeInterval) throws IOException {
+        stopLog();
+        syncField();
+        log = new GenerationLog(path, field.getDepth(), field.getWidth(), keyframeInterval);
+        field.setChangeLogging(true);
+        log.record(generation, field, field.takeLoggedChanges());
+    }
+
+    /**
+     * Stop the generation log, if there is one, waiting for it to be written.
+     * @throws IOException if the log could not be written.
+     */
+    public synchronized void stopLog() throws IOException {
+        if (log != null) {
+            GenerationLog stopping = log;
+            log = null;
+            field.setChangeLogging(false);
+            stopping.close();
+        }
+    }
+
+    /**
+     * Save the simulation, with the state of the Randomizer, so that it can
+     * be carried on later with restore.
+     * @param path The file to write (see Checkpoint).
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save(Path path) throws IOException {
+        syncField();
+        Checkpoint.save(path, field, cells, generation);
+    }
+
+    /**
+     * Create a simulator at the generation a saved simulation had reached,
+     * and put the Randomizer back as it was then.
+     * @param path A file written by save.
+     * @return The simulator.
+     * @throws IOException if the file cannot be read or is not a checkpoint.
+     */
+    public static Simulator restore(Path path) throws IOException {
+        return Checkpoint.restore(path);
+    }
+
+    /**
+     * Take on the cells a checkpoint has rebuilt in the field, and the
+     * generation they had reached.
+     */
+    synchronized void restored(List<Cell> restoredCells, int restoredGeneration) {
+        cells.addAll(restoredCells);
+        generation = restoredGeneration;
+    }
 }
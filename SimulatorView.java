@@ -1,12 +1,17 @@
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import javafx.scene.control.*;
 import javafx.scene.layout.*; 
 import javafx.scene.Group; 
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.scene.paint.Color; 
 
 /**
  * A graphical view of the simulation grid. The view displays a rectangle for
@@ -17,6 +22,12 @@ import javafx.scene.paint.Color;
  * different lifeforms. There is also a simulate button, where the user can input their
  * desired number of generations to simulate.
  *
+ * The simulation runs on its own thread, as fast as it can or at a chosen
+ * rate, and hands snapshots of the field to the user interface through a
+ * slot that holds only the newest one. Once per screen refresh the view
+ * draws whatever is in the slot, so frames the screen could not keep up
+ * with are dropped rather than queued.
+ *
  * @author David J. Barnes, Michael Kölling & Jeffery Raphael
  * @author Haleema Mohammed
  * @version 2024.02.03
@@ -29,18 +40,24 @@ public class SimulatorView extends Application {
     public static final int WIN_WIDTH = 650;
     public static final int WIN_HEIGHT = 650;  
     
-    private static final Color EMPTY_COLOR = Color.WHITE;
 
     private final String GENERATION_PREFIX = "Generation: ";
     private final String POPULATION_PREFIX = "Population: ";
 
     private Label genLabel, population, infoLabel;
 
-    private FieldCanvas fieldCanvas;
-    private FieldStats stats;
+    private FieldDisplay fieldCanvas;
     private Simulator simulator;
     private Button simulateButton;
 
+    private final AtomicReference<FieldSnapshot> latestFrame = new AtomicReference<>(); // Newest frame not yet drawn
+    private Thread simulation; // The thread running the simulation, if any
+    private volatile boolean stopRequested;
+    private double targetRate; // Generations per second, or 0 to run as fast as possible
+    private final AtomicLong droppedFrames = new AtomicLong(); // Generations never drawn in this run
+    private long framesDrawn; // Frames drawn in this run
+    private int runStartGeneration; // The generation this run started from
+
     /**
      * Create buttons that will be displayed on the sidebar.
      * These are used to populate the field, as well as start the simulation.
@@ -48,55 +65,112 @@ public class SimulatorView extends Application {
     private void populateButtons(VBox sidebar) {
         Button mycoplasmaButton = new Button("Mycoplasma");
         mycoplasmaButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populateMycoplasma();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
         
         Button chromaCellButton = new Button("Chroma Cell");
         chromaCellButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populateChromaCell();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
 
         Button symbiosisButton = new Button("Predators and Prey");
         symbiosisButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populatePredator();
             simulator.populatePrey();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
 
         Button evolverButton = new Button("Evolvers");
         evolverButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populateEvolver();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
         
         Button diseasedCellsButton = new Button("Diseased Cells");
         diseasedCellsButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populateDiseasedCells();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
         
         Button rippleCellsButton = new Button("Ripples");
         rippleCellsButton.setOnAction(e -> {
+            stopSimulation();
             simulator.reset();
             simulator.populateRipples();
             enableSimulateButton();
-            updateCanvas(simulator.getGeneration(), simulator.getField());
+            showNow();
         });
         
+        // Asks for a rulestring, starting from --rule if one was given
+        Button ruleButton = new Button("Rule...");
+        ruleButton.setOnAction(e -> {
+            String initial = getParameters().getNamed().getOrDefault("rule", "B3/S23");
+            TextInputDialog dialog = new TextInputDialog(initial);
+            dialog.setTitle("Rule");
+            dialog.setHeaderText("Enter a rule such as B36/S23, or B2/S/C3 for Generations:");
+            dialog.setContentText("Rule:");
+            dialog.showAndWait().ifPresent(input -> {
+                RuleSpec rule;
+                try {
+                    rule = RuleSpec.parse(input);
+                }
+                catch (IllegalArgumentException ex) {
+                    new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+                    return;
+                }
+                stopSimulation();
+                simulator.reset();
+                simulator.populateRule(rule);
+                enableSimulateButton();
+                showNow();
+            });
+        });
+
+        // Asks for a .rle or .cells file, starting from --pattern if one was given
+        Button patternButton = new Button("Pattern...");
+        patternButton.setOnAction(e -> {
+            String initial = getParameters().getNamed().getOrDefault("pattern", "");
+            TextInputDialog dialog = new TextInputDialog(initial);
+            dialog.setTitle("Pattern");
+            dialog.setHeaderText("Enter the path of a .rle or .cells pattern file:");
+            dialog.setContentText("File:");
+            dialog.showAndWait().ifPresent(input -> {
+                stopSimulation();
+                simulator.reset();
+                try {
+                    simulator.populatePattern(Paths.get(input.trim()));
+                }
+                catch (IOException | InvalidPathException ex) {
+                    simulator.reset();
+                    simulateButton.setDisable(true);
+                    showNow();
+                    new Alert(Alert.AlertType.ERROR, "Cannot place " + input + ": " + ex.getMessage()).showAndWait();
+                    return;
+                }
+                enableSimulateButton();
+                showNow();
+            });
+        });
+
         VBox buttonBox = new VBox(); // VBox to contain the buttons
-        buttonBox.getChildren().addAll(mycoplasmaButton, chromaCellButton, symbiosisButton, evolverButton, diseasedCellsButton, rippleCellsButton);
+        buttonBox.getChildren().addAll(mycoplasmaButton, chromaCellButton, symbiosisButton, evolverButton, diseasedCellsButton, rippleCellsButton, ruleButton, patternButton);
         
         simulateButton = new Button("Simulate");
         simulateButton.setDisable(true); // Cannot simulate while the field is empty
@@ -130,10 +204,83 @@ public class SimulatorView extends Application {
     @Override
     public void start(Stage stage) {
                 
-        stats = new FieldStats();
-        fieldCanvas = new FieldCanvas(WIN_WIDTH - 50, WIN_HEIGHT - 50);
-        fieldCanvas.setScale(GRID_HEIGHT, GRID_WIDTH); 
-        simulator = new Simulator();
+        // --renderer=pixels to draw into a pixel buffer, which is faster for large grids
+        if ("pixels".equals(getParameters().getNamed().get("renderer"))) {
+            fieldCanvas = new PixelFieldCanvas(WIN_WIDTH - 50, WIN_HEIGHT - 50);
+        }
+        else {
+            fieldCanvas = new FieldCanvas(WIN_WIDTH - 50, WIN_HEIGHT - 50);
+        }
+        // --topology=torus or --topology=klein to join up the edges of the grid
+        Topology topology = Topology.BOUNDED;
+        String edges = getParameters().getNamed().get("topology");
+        if ("torus".equals(edges)) {
+            topology = Topology.TORUS;
+        }
+        else if ("klein".equals(edges)) {
+            topology = Topology.KLEIN_BOTTLE;
+        }
+        // e.g. --size=200x250 for a grid 200 deep and 250 wide
+        String size = getParameters().getNamed().get("size");
+        if (size != null) {
+            String[] dims = size.split("x");
+            int depth = Integer.parseInt(dims[0]);
+            int width = Integer.parseInt(dims[1]);
+            fieldCanvas.setScale(depth, width);
+            simulator = new Simulator(depth, width, topology);
+        }
+        else {
+            fieldCanvas.setScale(GRID_HEIGHT, GRID_WIDTH); 
+            simulator = new Simulator(GRID_HEIGHT, GRID_WIDTH, topology);
+        }
+        // e.g. --engine=bitgrid to step Mycoplasma with the bit-packed engine
+        String engine = getParameters().getNamed().get("engine");
+        if ("bitgrid".equals(engine)) {
+            simulator.setEngine(new BitGridEngine());
+        }
+        else if ("hashlife".equals(engine)) {
+            simulator.setEngine(new HashLifeEngine());
+        }
+        else if ("cellstore".equals(engine)) {
+            simulator.setEngine(new CellStore());
+        }
+        else if ("vector".equals(engine)) {
+            simulator.setEngine(new VectorLifeEngine());
+        }
+        else if ("rules".equals(engine)) {
+            simulator.setEngine(new RuleEngine());
+        }
+        else if ("sparse".equals(engine)) {
+            simulator.setEngine(new SparseLifeEngine());
+        }
+        else if (engine != null && engine.startsWith("sparse:")) {
+            simulator.setEngine(new SparseLifeEngine(Double.parseDouble(engine.substring("sparse:".length()))));
+        }
+        else if ("tiled".equals(engine)) {
+            simulator.setEngine(new TiledLifeEngine());
+        }
+        else if (engine != null && engine.startsWith("tiled:")) {
+            simulator.setEngine(new TiledLifeEngine(Integer.parseInt(engine.substring("tiled:".length()))));
+        }
+        // e.g. --threads=8 to step the cells in parallel bands of rows
+        String threads = getParameters().getNamed().get("threads");
+        if (threads != null) {
+            simulator.setParallelStepper(new ParallelStepper(Integer.parseInt(threads)));
+        }
+        // --tiles=off to evaluate every cell, even where nothing is changing
+        if ("off".equals(getParameters().getNamed().get("tiles"))) {
+            simulator.setTileTracking(false);
+        }
+        // --cycles=off to keep stepping a field that has settled into a cycle
+        if (!"off".equals(getParameters().getNamed().get("cycles"))) {
+            simulator.setCycleDetection(true);
+            simulator.setFastForward(true);
+        }
+        // e.g. --rate=30 for 30 generations per second; by default as fast as possible
+        String rate = getParameters().getNamed().get("rate");
+        if (rate != null) {
+            targetRate = Double.parseDouble(rate);
+        }
 
         Group root = new Group();
         
@@ -154,7 +301,7 @@ public class SimulatorView extends Application {
         
         bPane.setRight(sidebar);
         bPane.setTop(infoPane);
-        bPane.setCenter(fieldCanvas);
+        bPane.setCenter(fieldCanvas.getNode());
         bPane.setBottom(population);
         
         root.getChildren().add(bPane);
@@ -165,9 +312,20 @@ public class SimulatorView extends Application {
         stage.setMinWidth(WIN_WIDTH); // Set minimum width of the window
         stage.setMinHeight(WIN_HEIGHT); // Set minimum height of the window
         stage.setWidth(WIN_WIDTH + 75); // Adjust width to include sidebar
-        updateCanvas(simulator.getGeneration(), simulator.getField());
+        showNow();
         
         stage.show();     
+
+        // Draw the newest frame, if there is one, each time the screen refreshes
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                FieldSnapshot frame = latestFrame.getAndSet(null);
+                if (frame != null) {
+                    drawFrame(frame);
+                }
+            }
+        }.start();
     }
 
     /**
@@ -178,30 +336,58 @@ public class SimulatorView extends Application {
     }
 
     /**
-     * Show the current status of the field.
-     * @param generation The current generation.
-     * @param field The field whose status is to be displayed.
+     * Show the current status of the field, drawing only the locations that
+     * changed since the last frame.
+     * @param frame A snapshot of the field.
      */
-    public void updateCanvas(int generation, Field field) {
-        genLabel.setText(GENERATION_PREFIX + generation);
-        stats.reset();
-        
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Cell cell = field.getObjectAt(row, col);
-        
-                if (cell != null && cell.isAlive()) {
-                    stats.incrementCount(cell.getClass());
-                    fieldCanvas.drawMark(col, row, cell.getColor());
-                }
-                else {
-                    fieldCanvas.drawMark(col, row, EMPTY_COLOR);
-                }
-            }
+    private void drawFrame(FieldSnapshot frame) {
+        genLabel.setText(GENERATION_PREFIX + frame.getGeneration());
+        frame.drawOn(fieldCanvas);
+        population.setText(POPULATION_PREFIX + frame.getPopulationDetails());
+
+        framesDrawn++;
+        double generationsPerFrame = (double) (frame.getGeneration() - runStartGeneration) / framesDrawn;
+        setInfoText(String.format("Tiles skipped: %.0f%%  Dropped frames: %d  Generations/frame: %.1f",
+                                  frame.getSkippedTileFraction() * 100, droppedFrames.get(),
+                                  generationsPerFrame)
+                    + (frame.getCyclePeriod() > 0 ? "  Period: " + frame.getCyclePeriod() : ""));
+    }
+
+    /**
+     * Draw the field straight away, from the user interface thread, while
+     * the simulation is not running.
+     */
+    private void showNow() {
+        FieldSnapshot unseen = latestFrame.getAndSet(null);
+        if (unseen != null) {
+            drawFrame(unseen);
         }
-        
-        stats.countFinished();
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        resetFrameCounters();
+        drawFrame(simulator.takeSnapshot());
+    }
+
+    /**
+     * Offer the view a snapshot of the field. If it has not drawn the last
+     * one yet, no snapshot is made and the generation counts as a dropped
+     * frame; its changes are still included in the next snapshot.
+     * @return true if a snapshot was made.
+     */
+    private boolean publishFrame() {
+        if (latestFrame.get() != null) {
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+        latestFrame.set(simulator.takeSnapshot());
+        return true;
+    }
+
+    /**
+     * Start counting frames afresh, from the current generation.
+     */
+    private void resetFrameCounters() {
+        droppedFrames.set(0);
+        framesDrawn = 0;
+        runStartGeneration = simulator.getGeneration();
     }
 
     /**
@@ -209,35 +395,79 @@ public class SimulatorView extends Application {
      * @return true If there is more than one species alive.
      */
     public boolean isViable(Field field) {
-        return stats.isViable(field);
+        return field.getStats().isViable();
     }
 
     /**
      * Run the simulation from its current state for the given number of
      * generations.  Stop before the given number of generations if the
-     * simulation ceases to be viable.
+     * simulation ceases to be viable. Once the field is found to be in a
+     * cycle, a run at full speed skips straight to the last generation.
      * @param numGenerations The number of generations to run for.
      */
     public void simulate(int numGenerations) {
-        new Thread(() -> {
-           
-            for (int gen = 1; gen <= numGenerations; gen++) {
-                simulator.simOneGeneration();    
-                simulator.delay(250);
-                Platform.runLater(() -> {
-                    updateCanvas(simulator.getGeneration(), simulator.getField());
-                });
+        stopSimulation();
+        resetFrameCounters();
+        stopRequested = false;
+        simulation = new Thread(() -> {
+            long start = System.nanoTime();
+            boolean published = true;
+            for (int gen = 1; gen <= numGenerations && !stopRequested; gen++) {
+                simulator.simOneGeneration();
+                if (targetRate <= 0 && simulator.getCyclePeriod() > 0 && gen < numGenerations) {
+                    // The rest of the run only goes round the cycle
+                    simulator.simGenerations(numGenerations - gen);
+                    gen = numGenerations;
+                }
+                published = publishFrame();
+                // The field has just been brought up to date if a frame was made
+                if (published && !simulator.isViable()) {
+                    break;
+                }
+                if (targetRate > 0) {
+                    long due = start + (long) (gen * 1e9 / targetRate);
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
             }
-            
-        }).start();
+            // Make sure the final generation is drawn
+            if (!published) {
+                while (!stopRequested && latestFrame.get() != null) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+                if (!stopRequested) {
+                    latestFrame.set(simulator.takeSnapshot());
+                }
+            }
+        }, "Simulation");
+        simulation.setDaemon(true);
+        simulation.start();
+    }
+
+    /**
+     * Stop the simulation thread, if it is running, and wait for it to finish
+     * the generation it is on.
+     */
+    private void stopSimulation() {
+        if (simulation != null) {
+            stopRequested = true;
+            LockSupport.unpark(simulation);
+            try {
+                simulation.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            simulation = null;
+        }
     }
 
     /**
      * Reset the simulation to a starting position.
      */
     public void reset() {
+        stopSimulation();
         simulator.reset();
-        updateCanvas(simulator.getGeneration(), simulator.getField());
+        showNow();
     }
     
     public static void main(String args[]){           
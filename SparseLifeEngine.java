@@ -0,0 +1,637 @@
+import java.util.Arrays;
+
+/**
+ * An engine for the Mycoplasma rules (classic Conway B3/S23) that keeps
+ * only the living cells, for patterns that cover a small part of their
+ * grid. The living cells are a set of packed coordinates (the row in the
+ * high 32 bits of a long, the column in the low 32), and each generation
+ * adds up a count for every neighbour of every living cell, so the work
+ * goes with the population rather than the area. The set and the counts
+ * are open-addressing hash tables of plain longs and ints, so once they
+ * have grown a generation makes no objects.
+ *
+ * Like HashLifeEngine, the universe has no edges. A field is loaded with
+ * its top left corner at (0, 0), and stored back by copying a window the
+ * size of the field, which can be moved with setWindow. Coordinates are
+ * ints, so a pattern can travel about two billion cells either way.
+ *
+ * Once the living cells fill more than a threshold share of the rectangle
+ * around them, a hash lookup for each neighbour costs more than looking at
+ * every location, so the engine copies them into a byte per location over
+ * that rectangle, with a margin to grow into, and steps that densely. It
+ * goes back to the set when the share falls below half the threshold. The
+ * default threshold is where the two cross over in the
+ * SparseLifeEngine.step benchmark in Benchmarks, which times both at a
+ * range of densities.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.30
+ */
+
+public class SparseLifeEngine implements LifeEngine {
+
+    public static final double DEFAULT_DENSE_THRESHOLD = 0.025;
+    // Dead rows and columns left around the living cells when the dense grid is made
+    private static final int MARGIN = 16;
+    // The most locations the dense grid may have
+    private static final long MAX_GRID_SIZE = 1L << 30;
+
+    private final double denseThreshold;
+    // The next state at state * 9 + living neighbours, which is also state * 8
+    // + the living cells in the 3x3 square around the cell
+    private final byte[] rule = RuleSpec.MYCOPLASMA.compile();
+    private LongSet live = new LongSet();
+    private LongSet nextLive = new LongSet();
+    // Neighbour counts, plus 9 for a living cell, for the sparse step
+    private final LongIntMap counts = new LongIntMap();
+    private long population;
+    private int minRow, maxRow, minCol, maxCol; // The rectangle around the living cells
+    private int windowTop, windowLeft; // Universe coordinates of the field's top left cell
+
+    // The dense grid, a byte per location, 1 if alive, when it is in use
+    private boolean dense;
+    private byte[] grid, nextGrid;
+    private int gridTop, gridLeft, gridRows, gridCols;
+    // The rectangle, in grid coordinates, around the living cells left in nextGrid
+    private int staleTop, staleBottom, staleLeft, staleRight;
+
+    /**
+     * Create an engine that switches to the dense grid at the default density.
+     */
+    public SparseLifeEngine() {
+        this(DEFAULT_DENSE_THRESHOLD);
+    }
+
+    /**
+     * Create an engine that switches to the dense grid at the given density.
+     * @param denseThreshold The share of the rectangle around the living
+     *                       cells they must fill for the dense grid to be
+     *                       used: 0 to use it whenever anything is alive,
+     *                       more than 1 never to use it.
+     */
+    public SparseLifeEngine(double denseThreshold) {
+        if (!(denseThreshold >= 0)) {
+            throw new IllegalArgumentException("The dense threshold must not be negative: " + denseThreshold);
+        }
+        this.denseThreshold = denseThreshold;
+    }
+
+    /**
+     * Only fields made up entirely of Mycoplasma follow the Conway rules.
+     * A field that wraps around cannot be placed in the unbounded universe.
+     */
+    public boolean supports(Field field) {
+        return field.getTopology() == Topology.BOUNDED && field.containsOnly(Mycoplasma.class);
+    }
+
+    /**
+     * Collect the living cells of the field, which is placed with its top
+     * left corner at (0, 0) in the universe. The window is moved back there too.
+     */
+    public void load(Field field) {
+        dense = false;
+        grid = null;
+        nextGrid = null;
+        live.clear();
+        resetBounds();
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell != null && cell.isAlive()) {
+                    long key = pack(row, col);
+                    live.add(key);
+                    include(key);
+                }
+            }
+        }
+        population = live.size;
+        windowTop = 0;
+        windowLeft = 0;
+        chooseGrid();
+    }
+
+    /**
+     * Copy the cells of the universe that lie in the window into the field.
+     */
+    public void store(Field field) {
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                if (cell != null) {
+                    cell.setNextState(false);
+                    cell.updateState();
+                }
+            }
+        }
+        if (population == 0) {
+            return;
+        }
+        // Only the part of the window the living cells reach
+        long top = Math.max(minRow, (long) windowTop);
+        long bottom = Math.min(maxRow, (long) windowTop + field.getDepth() - 1);
+        long left = Math.max(minCol, (long) windowLeft);
+        long right = Math.min(maxCol, (long) windowLeft + field.getWidth() - 1);
+        if (dense) {
+            for (long row = top; row <= bottom; row++) {
+                int start = (int) (row - gridTop) * gridCols - gridLeft;
+                for (long col = left; col <= right; col++) {
+                    if (grid[start + (int) col] != 0) {
+                        storeAlive(field, row, col);
+                    }
+                }
+            }
+        }
+        else {
+            for (long key : live.keys) {
+                if (key != 0) {
+                    storeIfInside(field, key, top, bottom, left, right);
+                }
+            }
+            if (live.hasZero) {
+                storeIfInside(field, 0, top, bottom, left, right);
+            }
+        }
+    }
+
+    /**
+     * Advance one generation.
+     */
+    public void step() {
+        if (population == 0) {
+            return;
+        }
+        if (dense) {
+            stepDense();
+        }
+        else {
+            stepSparse();
+        }
+        chooseGrid();
+    }
+
+    public long getPopulation() {
+        return population;
+    }
+
+    /**
+     * Cells that leave the field carry on in the unbounded universe.
+     */
+    public boolean isBounded() {
+        return false;
+    }
+
+    /**
+     * Move the window of the universe that is copied into the field.
+     * @param top The universe row shown in the field's first row.
+     * @param left The universe column shown in the field's first column.
+     */
+    public void setWindow(int top, int left) {
+        windowTop = top;
+        windowLeft = left;
+    }
+
+    /**
+     * Check whether the cell at the given universe coordinates is alive.
+     * @param row The universe row.
+     * @param col The universe column.
+     * @return true if the cell is alive.
+     */
+    public boolean isAlive(int row, int col) {
+        if (!dense) {
+            return live.contains(pack(row, col));
+        }
+        long r = (long) row - gridTop;
+        long c = (long) col - gridLeft;
+        return r >= 0 && c >= 0 && r < gridRows && c < gridCols && grid[(int) r * gridCols + (int) c] != 0;
+    }
+
+    /**
+     * @return true if the living cells are currently held in the dense grid.
+     */
+    public boolean isDense() {
+        return dense;
+    }
+
+    /**
+     * Add up how many living neighbours every location next to a living
+     * cell has, then keep those the rules say are alive next generation.
+     */
+    private void stepSparse() {
+        counts.clear();
+        for (long key : live.keys) {
+            if (key != 0) {
+                countAround(key);
+            }
+        }
+        if (live.hasZero) {
+            countAround(0);
+        }
+
+        nextLive.clear();
+        resetBounds();
+        long[] keys = counts.keys;
+        int[] values = counts.values;
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (key != 0 && rule[values[i]] != 0) {
+                nextLive.add(key);
+                include(key);
+            }
+        }
+        if (counts.hasZero && rule[counts.zeroValue] != 0) {
+            nextLive.add(0);
+            include(0);
+        }
+        LongSet swap = live;
+        live = nextLive;
+        nextLive = swap;
+        population = live.size;
+    }
+
+    /**
+     * Count a living cell as a neighbour of the eight locations around it,
+     * and add 9 to its own location to mark it alive.
+     */
+    private void countAround(long key) {
+        int row = (int) (key >> 32);
+        int col = (int) key;
+        counts.add(pack(row - 1, col - 1), 1);
+        counts.add(pack(row - 1, col), 1);
+        counts.add(pack(row - 1, col + 1), 1);
+        counts.add(pack(row, col - 1), 1);
+        counts.add(key, Field.NEIGHBOURS + 1);
+        counts.add(pack(row, col + 1), 1);
+        counts.add(pack(row + 1, col - 1), 1);
+        counts.add(pack(row + 1, col), 1);
+        counts.add(pack(row + 1, col + 1), 1);
+    }
+
+    /**
+     * Step the dense grid over the rectangle around the living cells, grown
+     * by one for births, and around the cells left in nextGrid from the
+     * generation before, so that they are cleared.
+     */
+    private void stepDense() {
+        if (minRow - gridTop < 2 || gridTop + gridRows - 1 - maxRow < 2
+            || minCol - gridLeft < 2 || gridLeft + gridCols - 1 - maxCol < 2
+            || (long) gridRows * gridCols > 4 * gridSize()) {
+            // Too near the edge to grow, or far larger than it needs to be
+            fitGrid();
+        }
+        int top = Math.min(minRow - 1 - gridTop, staleTop);
+        int bottom = Math.max(maxRow + 1 - gridTop, staleBottom);
+        int left = Math.min(minCol - 1 - gridLeft, staleLeft);
+        int right = Math.max(maxCol + 1 - gridLeft, staleRight);
+        staleTop = minRow - gridTop;
+        staleBottom = maxRow - gridTop;
+        staleLeft = minCol - gridLeft;
+        staleRight = maxCol - gridLeft;
+
+        byte[] current = grid;
+        byte[] next = nextGrid;
+        int cols = gridCols;
+        long count = 0;
+        int firstRow = Integer.MAX_VALUE, lastRow = Integer.MIN_VALUE;
+        int firstCol = Integer.MAX_VALUE, lastCol = Integer.MIN_VALUE;
+        for (int row = top; row <= bottom; row++) {
+            int above = (row - 1) * cols;
+            int here = row * cols;
+            int below = (row + 1) * cols;
+            // The living cells in the columns to the left of, at and to the right of each location
+            int west = current[above + left - 1] + current[here + left - 1] + current[below + left - 1];
+            int middle = current[above + left] + current[here + left] + current[below + left];
+            for (int col = left; col <= right; col++) {
+                int east = current[above + col + 1] + current[here + col + 1] + current[below + col + 1];
+                byte state = rule[(current[here + col] << 3) + west + middle + east];
+                next[here + col] = state;
+                if (state != 0) {
+                    count++;
+                    firstRow = Math.min(firstRow, row);
+                    lastRow = row;
+                    firstCol = Math.min(firstCol, col);
+                    lastCol = Math.max(lastCol, col);
+                }
+                west = middle;
+                middle = east;
+            }
+        }
+        grid = next;
+        nextGrid = current;
+        population = count;
+        if (count == 0) {
+            resetBounds();
+        }
+        else {
+            minRow = gridTop + firstRow;
+            maxRow = gridTop + lastRow;
+            minCol = gridLeft + firstCol;
+            maxCol = gridLeft + lastCol;
+        }
+    }
+
+    /**
+     * Move the living cells between the set and the dense grid if their
+     * density has crossed the threshold.
+     */
+    private void chooseGrid() {
+        if (population == 0) {
+            if (dense) {
+                toSparse();
+            }
+            return;
+        }
+        double density = population / (((double) maxRow - minRow + 1) * ((double) maxCol - minCol + 1));
+        boolean fits = (long) minRow - MARGIN >= Integer.MIN_VALUE && (long) maxRow + MARGIN <= Integer.MAX_VALUE
+                       && (long) minCol - MARGIN >= Integer.MIN_VALUE && (long) maxCol + MARGIN <= Integer.MAX_VALUE
+                       && gridSize() <= MAX_GRID_SIZE;
+        if (!dense && density >= denseThreshold && fits) {
+            fitGrid();
+            dense = true;
+            live.clear();
+        }
+        else if (dense && (density < denseThreshold / 2 || !fits)) {
+            toSparse();
+        }
+    }
+
+    /**
+     * @return The number of locations a dense grid around the living cells has.
+     */
+    private long gridSize() {
+        return ((long) maxRow - minRow + 1 + 2 * MARGIN) * ((long) maxCol - minCol + 1 + 2 * MARGIN);
+    }
+
+    /**
+     * Make a new dense grid around the living cells, with a margin on every
+     * side, and copy them into it from the set or the old grid.
+     */
+    private void fitGrid() {
+        int top = minRow - MARGIN;
+        int left = minCol - MARGIN;
+        int rows = maxRow - minRow + 1 + 2 * MARGIN;
+        int cols = maxCol - minCol + 1 + 2 * MARGIN;
+        byte[] fitted = new byte[rows * cols];
+        if (dense) {
+            int length = maxCol - minCol + 1;
+            for (int row = minRow; row <= maxRow; row++) {
+                System.arraycopy(grid, (row - gridTop) * gridCols + minCol - gridLeft,
+                                 fitted, (row - top) * cols + MARGIN, length);
+            }
+        }
+        else {
+            for (long key : live.keys) {
+                if (key != 0) {
+                    fitted[((int) (key >> 32) - top) * cols + (int) key - left] = 1;
+                }
+            }
+            if (live.hasZero) {
+                fitted[-top * cols - left] = 1;
+            }
+        }
+        grid = fitted;
+        nextGrid = new byte[rows * cols];
+        gridTop = top;
+        gridLeft = left;
+        gridRows = rows;
+        gridCols = cols;
+        // Nothing is left in the new nextGrid to clear
+        staleTop = MARGIN;
+        staleBottom = MARGIN - 1;
+        staleLeft = MARGIN;
+        staleRight = MARGIN - 1;
+    }
+
+    /**
+     * Copy the living cells of the dense grid back into the set and drop the grid.
+     */
+    private void toSparse() {
+        live.clear();
+        if (population > 0) {
+            for (int row = minRow; row <= maxRow; row++) {
+                int start = (row - gridTop) * gridCols - gridLeft;
+                for (int col = minCol; col <= maxCol; col++) {
+                    if (grid[start + col] != 0) {
+                        live.add(pack(row, col));
+                    }
+                }
+            }
+        }
+        dense = false;
+        grid = null;
+        nextGrid = null;
+    }
+
+    private void storeIfInside(Field field, long key, long top, long bottom, long left, long right) {
+        long row = (int) (key >> 32);
+        long col = (int) key;
+        if (row >= top && row <= bottom && col >= left && col <= right) {
+            storeAlive(field, row, col);
+        }
+    }
+
+    private void storeAlive(Field field, long row, long col) {
+        Cell cell = field.getObjectAt((int) (row - windowTop), (int) (col - windowLeft));
+        if (cell != null) {
+            cell.setNextState(true);
+            cell.updateState();
+        }
+    }
+
+    private void resetBounds() {
+        minRow = Integer.MAX_VALUE;
+        maxRow = Integer.MIN_VALUE;
+        minCol = Integer.MAX_VALUE;
+        maxCol = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Grow the rectangle around the living cells to take in a cell.
+     */
+    private void include(long key) {
+        int row = (int) (key >> 32);
+        int col = (int) key;
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minCol = Math.min(minCol, col);
+        maxCol = Math.max(maxCol, col);
+    }
+
+    /**
+     * @return The row and column packed into one long.
+     */
+    private static long pack(int row, int col) {
+        return (long) row << 32 | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return The slot a key starts looking from in a table of 2^(64 - shift) slots.
+     */
+    private static int slot(long key, int shift) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> shift);
+    }
+
+    /**
+     * A set of longs, open addressing with linear probing. 0 marks an empty
+     * slot, so whether 0 is in the set is kept apart.
+     */
+    private static class LongSet {
+        private static final int MIN_CAPACITY = 64;
+
+        long[] keys = new long[MIN_CAPACITY];
+        boolean hasZero;
+        int size;
+        private int shift = 64 - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+
+        void add(long key) {
+            if (key == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+                return;
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, shift);
+            long found;
+            while ((found = keys[i]) != 0) {
+                if (found == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+        }
+
+        boolean contains(long key) {
+            if (key == 0) {
+                return hasZero;
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, shift);
+            long found;
+            while ((found = keys[i]) != 0) {
+                if (found == key) {
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        /**
+         * Empty the set, halving the table if it was far larger than needed.
+         */
+        void clear() {
+            if (size * 8 < keys.length && keys.length > MIN_CAPACITY) {
+                keys = new long[keys.length / 2];
+                shift++;
+            }
+            else {
+                Arrays.fill(keys, 0);
+            }
+            hasZero = false;
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            long[] old = keys;
+            keys = new long[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            int mask = capacity - 1;
+            for (long key : old) {
+                if (key != 0) {
+                    int i = slot(key, shift);
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = key;
+                }
+            }
+        }
+    }
+
+    /**
+     * A map from longs to ints that can only be added to, open addressing
+     * with linear probing. As in LongSet, key 0 is kept apart.
+     */
+    private static class LongIntMap {
+        private static final int MIN_CAPACITY = 64;
+
+        long[] keys = new long[MIN_CAPACITY];
+        int[] values = new int[MIN_CAPACITY];
+        boolean hasZero;
+        int zeroValue;
+        int size;
+        private int shift = 64 - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+
+        /**
+         * Add an amount to a key's value, which starts at 0.
+         */
+        void add(long key, int amount) {
+            if (key == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+                zeroValue += amount;
+                return;
+            }
+            int mask = keys.length - 1;
+            int i = slot(key, shift);
+            long found;
+            while ((found = keys[i]) != 0) {
+                if (found == key) {
+                    values[i] += amount;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = amount;
+            if (++size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+        }
+
+        /**
+         * Empty the map, halving the table if it was far larger than needed.
+         * The values of empty slots are left, as adding a key sets its value.
+         */
+        void clear() {
+            if (size * 8 < keys.length && keys.length > MIN_CAPACITY) {
+                keys = new long[keys.length / 2];
+                values = new int[keys.length];
+                shift++;
+            }
+            else {
+                Arrays.fill(keys, 0);
+            }
+            hasZero = false;
+            zeroValue = 0;
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[capacity];
+            values = new int[capacity];
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                long key = oldKeys[j];
+                if (key != 0) {
+                    int i = slot(key, shift);
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = key;
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Random;
+
+/**
+ * A fast random generator (SplitMix64) for the simulation. Unlike
+ * java.util.Random it takes no lock and does no atomic update for each
+ * number, so an instance must only be used by one thread at a time.
+ *
+ * Besides its own sequence it can give each cell a stream of its own for
+ * a generation, worked out from the seed, the generation and the index of
+ * the cell's location alone. What a cell draws then does not depend on the
+ * order the cells act in, or on which thread steps it. Selecting a cell's
+ * stream only records the index; the stream is seeded if the cell draws
+ * from it.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.28
+ */
+
+public class SplitRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+    // The golden ratio, which SplitMix64 adds to its state for each number
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    // None of these have initialisers, as Random's constructor calls setSeed first
+    private long state;
+    private long seed; // The seed the streams are derived from
+    private int generation; // The generation the streams are for
+    private long generationKey;
+    private long selected; // The index whose stream the next number comes from
+    private boolean pending; // Whether the selected stream still has to be seeded
+
+    /**
+     * Create a generator.
+     * @param seed The seed of its sequence.
+     */
+    public SplitRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Start the sequence again from a seed. This also leaves any stream.
+     * @param seed The seed.
+     */
+    @Override
+    public void setSeed(long seed) {
+        state = seed;
+        pending = false;
+    }
+
+    /**
+     * @return The state, which setSeed puts back to carry on the sequence.
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Get ready to give each cell its stream for a generation.
+     * @param seed The seed the streams are derived from.
+     * @param generation The generation.
+     */
+    public void startGeneration(long seed, int generation) {
+        this.seed = seed;
+        this.generation = generation;
+        generationKey = mix(mix(seed) + generation);
+        pending = false;
+    }
+
+    /**
+     * Move the streams on to the next generation, for an engine that steps
+     * several generations at once.
+     */
+    public void nextGeneration() {
+        startGeneration(seed, generation + 1);
+    }
+
+    /**
+     * Take the next numbers from the stream of one cell.
+     * @param index The index (row * width + col) of the cell's location.
+     */
+    public void select(int index) {
+        selected = index;
+        pending = true;
+    }
+
+    @Override
+    public long nextLong() {
+        if (pending) {
+            state = mix(generationKey + selected * GAMMA);
+            pending = false;
+        }
+        state += GAMMA;
+        return mix(state);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * All the other methods of Random take their bits from here.
+     */
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    /**
+     * Scramble a value so that nearby inputs give unrelated outputs
+     * (the SplitMix64 finaliser).
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps track of which parts of the field need to be evaluated, so that the
+ * simulator can skip regions where nothing is happening.
+ *
+ * The field is divided into square tiles. A tile is active - its cells act -
+ * if in the previous generation anything in it or in one of the
+ * eight tiles around it changed, or contained a cell that is not stable (see
+ * Cell.isStable). A change is a cell coming to life, dying, changing colour
+ * or moving. As a cell only ever looks one location away, a cell in an
+ * inactive tile would have been left exactly as it is, and since stable cells
+ * draw no random numbers, skipping it does not disturb anything else either.
+ *
+ * Cells are still visited in the order of the cell list, so the order in
+ * which they act is the same as without tracking.
+ *
+ * On a field that wraps around, the tiles along one edge are next to those
+ * along the opposite edge. Across the mirrored edge of a Klein bottle, a
+ * change activates the whole row of tiles on the other side.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.15
+ */
+
+public class TileTracker {
+
+    public static final int TILE_SIZE = 32;
+    private final int tileRows, tileCols;
+    private final Topology topology;
+    private boolean[] active; // Tiles to evaluate this generation
+    private boolean[] changed; // Tiles in which something changed this generation
+    private int[] cellTiles; // The tile of each cell in the cell list
+    private int trackedCells; // The number of cells cellTiles was built for
+    private boolean cellsMoved; // Whether cellTiles has to be worked out again
+
+    // The state of each cell in the list before it acted
+    private int[] wasColor;
+    private Location[] wasLocation;
+
+    private double skippedFraction; // Fraction of tiles skipped in the last generation
+    private long tilesSkipped, tilesConsidered; // Totals since the last reset
+
+    /**
+     * Create a tracker for a bounded field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public TileTracker(int depth, int width) {
+        this(depth, width, Topology.BOUNDED);
+    }
+
+    /**
+     * Create a tracker for a field of the given size and topology.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param topology How the edges of the field are joined up.
+     */
+    public TileTracker(int depth, int width, Topology topology) {
+        this.topology = topology;
+        tileRows = (depth + TILE_SIZE - 1) / TILE_SIZE;
+        tileCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        active = new boolean[tileRows * tileCols];
+        changed = new boolean[tileRows * tileCols];
+        reset();
+    }
+
+    /**
+     * Forget everything, so that every tile is evaluated in the next generation.
+     */
+    public void reset() {
+        trackedCells = -1;
+        skippedFraction = 0;
+        tilesSkipped = 0;
+        tilesConsidered = 0;
+    }
+
+    /**
+     * Get ready for a generation. If the cell list has changed since the last
+     * one, every tile is made active.
+     * @param cells All the cells in the simulation.
+     */
+    public void startGeneration(List<Cell> cells) {
+        if (trackedCells != cells.size()) {
+            int count = cells.size();
+            cellTiles = new int[count];
+            wasColor = new int[count];
+            wasLocation = new Location[count];
+            for (int i = 0; i < count; i++) {
+                cellTiles[i] = tileOf(cells.get(i).getLocation());
+            }
+            trackedCells = count;
+            Arrays.fill(active, true);
+        }
+        else if (cellsMoved) {
+            for (int i = 0; i < cellTiles.length; i++) {
+                cellTiles[i] = tileOf(cells.get(i).getLocation());
+            }
+        }
+        cellsMoved = false;
+    }
+
+    /**
+     * @param index The position of a cell in the cell list.
+     * @return true if the cell is in an active tile.
+     */
+    public boolean isActive(int index) {
+        return active[cellTiles[index]];
+    }
+
+    /**
+     * Record the state of a cell in an active tile before it acts.
+     * @param index The position of the cell in the cell list.
+     * @param cell The cell.
+     */
+    public void beforeAct(int index, Cell cell) {
+        wasColor[index] = cell.getColorIndex();
+        wasLocation[index] = cell.getLocation();
+    }
+
+    /**
+     * Compare a cell in an active tile with its state before it acted, and
+     * mark its tile as changed if it moved, changed colour or is not
+     * stable. Coming to life or dying is reported by cellChanged.
+     * @param index The position of the cell in the cell list.
+     * @param cell The cell, which has acted.
+     */
+    public void afterAct(int index, Cell cell) {
+        Location location = cell.getLocation();
+        if (location != wasLocation[index]) {
+            changed[tileOf(wasLocation[index])] = true;
+            cellTiles[index] = tileOf(location);
+            changed[cellTiles[index]] = true;
+        }
+        else if (cell.getColorIndex() != wasColor[index] || !cell.isStable()) {
+            changed[cellTiles[index]] = true;
+        }
+        wasLocation[index] = null;
+    }
+
+    /**
+     * Mark the tiles a cell moved between as changed, when the field makes
+     * the moves asked for in a generation.
+     * @param from Where the cell was.
+     * @param to Where it is now.
+     */
+    public void cellMoved(Location from, Location to) {
+        changed[tileOf(from)] = true;
+        changed[tileOf(to)] = true;
+        cellsMoved = true;
+    }
+
+    /**
+     * Mark the tile of a cell as changed because the cell came to life,
+     * died or was written to by a neighbour when the generation was committed.
+     * @param cell The cell.
+     */
+    public void cellChanged(Cell cell) {
+        changed[tileOf(cell.getLocation())] = true;
+    }
+
+    /**
+     * Work out the active tiles for the next generation: those that changed
+     * and their neighbours.
+     */
+    public void finishGeneration() {
+        int skipped = 0;
+        for (int tile = 0; tile < active.length; tile++) {
+            if (!active[tile]) {
+                skipped++;
+            }
+        }
+        skippedFraction = (double) skipped / active.length;
+        tilesSkipped += skipped;
+        tilesConsidered += active.length;
+
+        Arrays.fill(active, false);
+        for (int row = 0; row < tileRows; row++) {
+            for (int col = 0; col < tileCols; col++) {
+                if (changed[row * tileCols + col]) {
+                    activateAround(row, col);
+                }
+            }
+        }
+        Arrays.fill(changed, false);
+    }
+
+    /**
+     * Make a tile and the tiles around it active.
+     */
+    private void activateAround(int row, int col) {
+        for (int r = row - 1; r <= row + 1; r++) {
+            int tileRow = r;
+            if (r < 0 || r >= tileRows) {
+                if (!topology.wraps()) {
+                    continue;
+                }
+                tileRow = (r + tileRows) % tileRows;
+                if (topology == Topology.KLEIN_BOTTLE) {
+                    Arrays.fill(active, tileRow * tileCols, (tileRow + 1) * tileCols, true);
+                    continue;
+                }
+            }
+            for (int c = col - 1; c <= col + 1; c++) {
+                int tileCol = c;
+                if (c < 0 || c >= tileCols) {
+                    if (!topology.wraps()) {
+                        continue;
+                    }
+                    tileCol = (c + tileCols) % tileCols;
+                }
+                active[tileRow * tileCols + tileCol] = true;
+            }
+        }
+    }
+
+    /**
+     * @return The fraction of tiles skipped in the last generation.
+     */
+    public double getSkippedFraction() {
+        return skippedFraction;
+    }
+
+    /**
+     * @return The fraction of tiles skipped over all generations since the last reset.
+     */
+    public double getAverageSkippedFraction() {
+        return tilesConsidered == 0 ? 0 : (double) tilesSkipped / tilesConsidered;
+    }
+
+    /**
+     * @return The index of the tile containing the location.
+     */
+    private int tileOf(Location location) {
+        return (location.getRow() / TILE_SIZE) * tileCols + location.getCol() / TILE_SIZE;
+    }
+}
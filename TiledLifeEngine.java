@@ -0,0 +1,444 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps a Life-like or Generations rule with the grid cut into square
+ * tiles of TILE_SIZE x TILE_SIZE cells, so that stepping works through
+ * one small block of memory at a time instead of sweeping rows that are
+ * too long to stay in the cache.
+ *
+ * Each tile keeps a byte per cell (0 dead, 1 alive, 2 onwards dying) with
+ * a halo: a border one cell wide holding a copy of the edges of the tiles
+ * around it, or dead cells past the edge of the field. A tile can then be
+ * stepped on its own without looking anywhere else. Once every tile has
+ * been stepped, the halos are brought up to date from the neighbours'
+ * new edges.
+ *
+ * The tiles are also the unit of work and of change tracking. Tiles are
+ * stepped on the threads of a pool, each writing only its own cells in
+ * the step and only its own halo in the refresh that follows, so the two
+ * phases need nothing but the wait between them. A tile in which nothing
+ * changed, and next to no tile that did, would come out exactly the same,
+ * so it is skipped; and store only writes back the tiles that changed
+ * since it was last called.
+ *
+ * It takes fields where every location holds its own Mycoplasma or
+ * RuleCell, all following the same rule.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.04.01
+ */
+
+public class TiledLifeEngine implements LifeEngine {
+
+    public static final int TILE_SIZE = 64;
+    private static final int COUNTS = Field.NEIGHBOURS + 1;
+    // The most tiles stepped as one piece of work on the pool
+    private static final int TILES_PER_TASK = 4;
+
+    private final ForkJoinPool pool; // null to step on the calling thread
+    private int depth, width;
+    private int tileRows, tileCols;
+    private Tile[] tiles;
+    private byte[] table; // The rule compiled, next state at state * 9 + living neighbours
+    private byte[] living; // 1 for the living state, 0 for the others
+    private boolean lifeLike; // Whether the rule has just the two states
+    private int[] work; // The tiles to step this generation
+    private int workCount;
+
+    /**
+     * Create an engine that steps on as many threads as there are processors.
+     */
+    public TiledLifeEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an engine that steps on the given number of threads.
+     * @param threads The number of threads; 1 steps on the calling thread.
+     */
+    public TiledLifeEngine(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
+    /**
+     * Check that the field has hard edges and that every location holds
+     * its own Mycoplasma or RuleCell, all with the same rule.
+     */
+    public boolean supports(Field field) {
+        if (field.getTopology() != Topology.BOUNDED) {
+            return false;
+        }
+        RuleSpec rule = null;
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                RuleSpec cellRule = ruleOf(cell);
+                if (cellRule == null || (rule != null && !rule.equals(cellRule))
+                    || cell.getLocation().getRow() != row || cell.getLocation().getCol() != col) {
+                    return false;
+                }
+                rule = cellRule;
+            }
+        }
+        return rule != null;
+    }
+
+    /**
+     * Cut the field into tiles and copy the state of every cell into them.
+     * Every tile starts out to be stepped.
+     */
+    public void load(Field field) {
+        depth = field.getDepth();
+        width = field.getWidth();
+        RuleSpec rule = ruleOf(field.getObjectAt(0, 0));
+        table = rule.compile();
+        living = new byte[rule.getStates()];
+        living[1] = 1;
+        lifeLike = rule.getStates() == 2;
+        tileRows = (depth + TILE_SIZE - 1) / TILE_SIZE;
+        tileCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new Tile[tileRows * tileCols];
+        work = new int[tiles.length];
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            for (int tileCol = 0; tileCol < tileCols; tileCol++) {
+                Tile tile = new Tile(tileRow * TILE_SIZE, tileCol * TILE_SIZE,
+                                     Math.min(TILE_SIZE, depth - tileRow * TILE_SIZE),
+                                     Math.min(TILE_SIZE, width - tileCol * TILE_SIZE));
+                for (int row = 0; row < tile.rows; row++) {
+                    for (int col = 0; col < tile.cols; col++) {
+                        Cell cell = field.getObjectAt(tile.top + row, tile.left + col);
+                        int state = cell.isAlive() ? 1 : 0;
+                        if (cell instanceof RuleCell) {
+                            state = Math.max(state, ((RuleCell) cell).getDying());
+                        }
+                        tile.cells[(row + 1) * tile.stride + col + 1] = (byte) state;
+                        tile.population += state == 1 ? 1 : 0;
+                    }
+                }
+                tile.active = true;
+                tiles[tileRow * tileCols + tileCol] = tile;
+            }
+        }
+        for (Tile tile : tiles) {
+            tile.neighbours = neighboursOf(tile);
+            tile.refreshHalo();
+        }
+    }
+
+    /**
+     * Step the active tiles, bring the halos around the ones that changed
+     * up to date, and work out which tiles to step next time.
+     */
+    public void step() {
+        for (Tile tile : tiles) {
+            tile.changed = false;
+        }
+        workCount = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i].active) {
+                work[workCount++] = i;
+            }
+        }
+        runAll(true);
+
+        // A tile is stepped next time, and its halo refreshed now, if it
+        // or a tile next to it changed
+        workCount = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            Tile tile = tiles[i];
+            boolean active = tile.changed;
+            for (Tile neighbour : tile.neighbours) {
+                active |= neighbour.changed;
+            }
+            tile.active = active;
+            if (active) {
+                work[workCount++] = i;
+            }
+        }
+        runAll(false);
+    }
+
+    /**
+     * Only the tiles that changed need looking at, and the last generation
+     * of each of those is still in its spare array.
+     */
+    public boolean reportChanges(Changes changes) {
+        for (Tile tile : tiles) {
+            if (!tile.changed) {
+                continue;
+            }
+            // A tile is at most 64 cells wide, so each of its rows is one run
+            for (int row = 0; row < tile.rows; row++) {
+                int start = (row + 1) * tile.stride + 1;
+                long bits = 0;
+                if (living.length == 2) {
+                    // With no dying states each cell's byte is whether it is alive
+                    bits = RuleEngine.changedBits(tile.cells, tile.spare, start, tile.cols);
+                }
+                else {
+                    for (int col = 0; col < tile.cols; col++) {
+                        int now = living[tile.cells[start + col] & 0xFF];
+                        bits |= (long) (now ^ living[tile.spare[start + col] & 0xFF]) << col;
+                    }
+                }
+                if (bits != 0) {
+                    changes.flip((tile.top + row) * width + tile.left, bits);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the tiles that changed since the last store back into the cells of the field.
+     */
+    public void store(Field field) {
+        for (Tile tile : tiles) {
+            if (!tile.dirty) {
+                continue;
+            }
+            for (int row = 0; row < tile.rows; row++) {
+                for (int col = 0; col < tile.cols; col++) {
+                    Cell cell = field.getObjectAt(tile.top + row, tile.left + col);
+                    int state = tile.cells[(row + 1) * tile.stride + col + 1] & 0xFF;
+                    if (cell instanceof RuleCell) {
+                        ((RuleCell) cell).setDying(state >= 2 ? state : 0);
+                    }
+                    cell.setNextState(state == 1);
+                    cell.updateState();
+                }
+            }
+            tile.dirty = false;
+        }
+    }
+
+    public long getPopulation() {
+        long population = 0;
+        for (Tile tile : tiles) {
+            population += tile.population;
+        }
+        return population;
+    }
+
+    /**
+     * @return The fraction of tiles that will be stepped in the next generation.
+     */
+    public double getActiveFraction() {
+        int active = 0;
+        for (Tile tile : tiles) {
+            if (tile.active) {
+                active++;
+            }
+        }
+        return tiles.length == 0 ? 0 : (double) active / tiles.length;
+    }
+
+    /**
+     * Step, or refresh the halos of, the tiles listed in work, on the pool
+     * if there is one.
+     */
+    private void runAll(boolean stepping) {
+        if (pool == null || workCount <= TILES_PER_TASK) {
+            runRange(stepping, 0, workCount);
+        }
+        else {
+            pool.invoke(new TileRange(stepping, 0, workCount));
+        }
+    }
+
+    private void runRange(boolean stepping, int start, int end) {
+        for (int i = start; i < end; i++) {
+            Tile tile = tiles[work[i]];
+            if (stepping) {
+                if (lifeLike) {
+                    tile.stepLifeLike(table);
+                }
+                else {
+                    tile.stepGenerations(table, living);
+                }
+            }
+            else {
+                tile.refreshHalo();
+            }
+        }
+    }
+
+    /**
+     * @return The tiles around a tile, leaving out those past the edge of the field.
+     */
+    private Tile[] neighboursOf(Tile tile) {
+        int tileRow = tile.top / TILE_SIZE;
+        int tileCol = tile.left / TILE_SIZE;
+        List<Tile> neighbours = new ArrayList<>();
+        for (int r = tileRow - 1; r <= tileRow + 1; r++) {
+            for (int c = tileCol - 1; c <= tileCol + 1; c++) {
+                if (r >= 0 && r < tileRows && c >= 0 && c < tileCols && (r != tileRow || c != tileCol)) {
+                    neighbours.add(tiles[r * tileCols + c]);
+                }
+            }
+        }
+        return neighbours.toArray(new Tile[0]);
+    }
+
+    /**
+     * @return The rule a cell follows, or null if this engine cannot step it.
+     */
+    private static RuleSpec ruleOf(Cell cell) {
+        if (cell instanceof RuleCell) {
+            return ((RuleCell) cell).getRule();
+        }
+        return cell != null && cell.getClass() == Mycoplasma.class ? RuleSpec.MYCOPLASMA : null;
+    }
+
+    /**
+     * Splits a run of tiles in half until it is small enough to do at once.
+     */
+    private class TileRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final boolean stepping;
+        private final int start, end;
+
+        TileRange(boolean stepping, int start, int end) {
+            this.stepping = stepping;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start <= TILES_PER_TASK) {
+                runRange(stepping, start, end);
+            }
+            else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TileRange(stepping, start, middle), new TileRange(stepping, middle, end));
+            }
+        }
+    }
+
+    /**
+     * One block of the grid, with a halo around it.
+     */
+    private static class Tile {
+        final int top, left; // The field location of the tile's first cell
+        final int rows, cols; // Its size, smaller than TILE_SIZE along the far edges of the field
+        final int stride; // cols + 2, the length of a row with its halo
+        byte[] cells, spare; // The current and the next states, with halos
+        Tile[] neighbours;
+        int population;
+        boolean active; // Whether to step the tile this generation
+        boolean changed; // Whether a cell changed state in the last step
+        boolean dirty; // Whether a cell changed state since the last store
+
+        Tile(int top, int left, int rows, int cols) {
+            this.top = top;
+            this.left = left;
+            this.rows = rows;
+            this.cols = cols;
+            stride = cols + 2;
+            cells = new byte[(rows + 2) * stride];
+            spare = new byte[cells.length];
+        }
+
+        /**
+         * Step a two-state rule, adding the cells of three columns at a
+         * time and sliding along the row. The living count then includes
+         * the cell itself, which state * 8 + count takes back out of
+         * state * 9 + neighbours.
+         */
+        void stepLifeLike(byte[] table) {
+            byte[] current = cells;
+            byte[] next = spare;
+            int count = 0;
+            int differ = 0;
+            for (int row = 1; row <= rows; row++) {
+                int here = row * stride;
+                int above = here - stride;
+                int below = here + stride;
+                int west = current[above] + current[here] + current[below];
+                int middle = current[above + 1] + current[here + 1] + current[below + 1];
+                for (int i = here + 1; i <= here + cols; i++) {
+                    int east = current[above + i - here + 1] + current[i + 1] + current[below + i - here + 1];
+                    byte state = current[i];
+                    byte after = table[(state << 3) + west + middle + east];
+                    next[i] = after;
+                    count += after;
+                    differ |= after ^ state;
+                    west = middle;
+                    middle = east;
+                }
+            }
+            finish(count, differ);
+        }
+
+        /**
+         * Step a rule with dying states, which do not count as living neighbours.
+         */
+        void stepGenerations(byte[] table, byte[] living) {
+            byte[] current = cells;
+            byte[] next = spare;
+            int count = 0;
+            int differ = 0;
+            for (int row = 1; row <= rows; row++) {
+                int start = row * stride + 1;
+                for (int i = start; i < start + cols; i++) {
+                    int neighbours = living[current[i - stride - 1] & 0xFF] + living[current[i - stride] & 0xFF]
+                                     + living[current[i - stride + 1] & 0xFF]
+                                     + living[current[i - 1] & 0xFF] + living[current[i + 1] & 0xFF]
+                                     + living[current[i + stride - 1] & 0xFF] + living[current[i + stride] & 0xFF]
+                                     + living[current[i + stride + 1] & 0xFF];
+                    byte state = current[i];
+                    byte after = table[(state & 0xFF) * COUNTS + neighbours];
+                    next[i] = after;
+                    count += living[after & 0xFF];
+                    differ |= after ^ state;
+                }
+            }
+            finish(count, differ);
+        }
+
+        /**
+         * Make the next states current if any changed. The halo of the new
+         * current array is out of date until refreshHalo.
+         */
+        private void finish(int count, int differ) {
+            population = count;
+            changed = differ != 0;
+            if (changed) {
+                byte[] previous = cells;
+                cells = spare;
+                spare = previous;
+                dirty = true;
+            }
+        }
+
+        /**
+         * Copy the edges of the tiles around this one into its halo. Only
+         * this tile's halo is written, and only the neighbours' own cells
+         * read, so tiles can do this at the same time.
+         */
+        void refreshHalo() {
+            for (Tile neighbour : neighbours) {
+                int dr = Integer.signum(neighbour.top - top);
+                int dc = Integer.signum(neighbour.left - left);
+                // The rows and columns of this tile's halo the neighbour fills, and where they come from
+                int row = dr < 0 ? 0 : dr > 0 ? rows + 1 : 1;
+                int fromRow = dr < 0 ? neighbour.rows : 1;
+                int height = dr == 0 ? rows : 1;
+                int col = dc < 0 ? 0 : dc > 0 ? cols + 1 : 1;
+                int fromCol = dc < 0 ? neighbour.cols : 1;
+                int length = dc == 0 ? cols : 1;
+                for (int r = 0; r < height; r++) {
+                    System.arraycopy(neighbour.cells, (fromRow + r) * neighbour.stride + fromCol,
+                                     cells, (row + r) * stride + col, length);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * How the edges of the field are joined up, which decides the neighbours of
+ * the locations along them.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.22
+ */
+
+public enum Topology {
+    /** Hard edges: locations on the border have fewer neighbours. */
+    BOUNDED,
+    /** The left edge joins the right and the top joins the bottom. */
+    TORUS,
+    /**
+     * The left edge joins the right, and the top joins the bottom mirrored,
+     * so that crossing it from column c arrives in column width - 1 - c.
+     */
+    KLEIN_BOTTLE;
+
+    /**
+     * @return true if the field has no edges, so every location has all
+     *         eight neighbours.
+     */
+    public boolean wraps() {
+        return this != BOUNDED;
+    }
+}
@@ -0,0 +1,248 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Steps the life forms whose rules only count their living neighbours and
+ * compare the count with a range - Mycoplasma, ChromaCell and Ripples - a
+ * whole row of cells at a time.
+ *
+ * Every cell is a byte, 1 if alive, in a grid with a border of empty cells
+ * all the way round. The neighbour counts of a row are then the sum of the
+ * rows above, at and below shifted one place left and right, with no edges
+ * to check, and each cell's next state is whether its count lies in the
+ * birth or survival range of its type:
+ *
+ *   Mycoplasma  born on 3, survives on 2 to 3 (B3/S23)
+ *   ChromaCell  born on 3, survives on 2 to 4 (B3/S234)
+ *   Ripples     alive with 2 or more, whatever its state (B2345678/S2345678)
+ *
+ * The loop is run by simd.VectorKernel with the Vector API when that has
+ * been compiled and the jdk.incubator.vector module is present, and by an
+ * equivalent scalar loop here otherwise. ChromaCell and Ripples hues are
+ * then advanced in a second pass. A cell costs 5 bytes.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.23
+ */
+
+public class VectorLifeEngine implements LifeEngine {
+
+    // The birth and survival ranges of each type, indexed by the CellStore type codes
+    private static final byte[] BIRTH_MIN = {9, 3, 3, 2};
+    private static final byte[] BIRTH_MAX = {0, 3, 3, 8};
+    private static final byte[] SURVIVE_MIN = {9, 2, 2, 2};
+    private static final byte[] SURVIVE_MAX = {0, 3, 4, 8};
+    // simd.VectorKernel.step, or null if the Vector API cannot be used
+    private static final MethodHandle VECTOR_STEP = findVectorKernel();
+
+    private final boolean vectorized;
+    private int depth, width, stride;
+    private byte[] alive; // 1 for each living cell, with a border of empty cells
+    private byte[] next; // Whether each cell will be alive, worked out by step
+    private byte[] types; // CellStore type codes, NONE in the border
+    private byte[] hues; // ChromaCell and Ripples hue, in steps of Palette.HUE_STEP degrees
+    private byte[] shades; // The hue step each ChromaCell and Ripples cell is shown in
+    private boolean hasHues; // Whether there are any ChromaCell or Ripples cells
+
+    /**
+     * Create an engine that uses the Vector API if it can.
+     */
+    public VectorLifeEngine() {
+        this(true);
+    }
+
+    /**
+     * Create an engine.
+     * @param useVectors false to always use the scalar loop, as when
+     *                   comparing the two.
+     */
+    public VectorLifeEngine(boolean useVectors) {
+        vectorized = useVectors && VECTOR_STEP != null;
+    }
+
+    /**
+     * @return true if the engine steps with the Vector API.
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * Check that the field has hard edges, that every location holds its
+     * own Mycoplasma, ChromaCell or Ripples cell, and that ChromaCell and
+     * Ripples cells show the colour of one of their hue steps.
+     */
+    public boolean supports(Field field) {
+        if (field.getTopology() != Topology.BOUNDED) {
+            return false;
+        }
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                Cell cell = field.getObjectAt(row, col);
+                byte type = typeOf(cell);
+                if (type == CellStore.NONE
+                    || cell.getLocation().getRow() != row || cell.getLocation().getCol() != col
+                    || (type != CellStore.MYCOPLASMA && Palette.hueStepOf(cell.getColorIndex()) < 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the state of every cell into the grid.
+     */
+    public void load(Field field) {
+        depth = field.getDepth();
+        width = field.getWidth();
+        stride = width + 2;
+        int size = (depth + 2) * stride;
+        alive = new byte[size];
+        next = new byte[size];
+        types = new byte[size];
+        hues = new byte[size];
+        shades = new byte[size];
+        hasHues = false;
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                int i = (row + 1) * stride + col + 1;
+                types[i] = typeOf(cell);
+                alive[i] = (byte) (cell.isAlive() ? 1 : 0);
+                if (cell instanceof ChromaCell) {
+                    hues[i] = (byte) ((ChromaCell) cell).getHue();
+                }
+                else if (cell instanceof Ripples) {
+                    hues[i] = (byte) ((Ripples) cell).getHue();
+                }
+                if (types[i] != CellStore.MYCOPLASMA) {
+                    shades[i] = (byte) Palette.hueStepOf(cell.getColorIndex());
+                    hasHues = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Work out the next state of every cell, advance the hues, then make
+     * the next generation the current one.
+     */
+    public void step() {
+        if (vectorized) {
+            try {
+                VECTOR_STEP.invokeExact(alive, types, next, depth, width,
+                                        BIRTH_MIN, BIRTH_MAX, SURVIVE_MIN, SURVIVE_MAX);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        else {
+            stepScalar();
+        }
+        if (hasHues) {
+            CellRules.advanceHues(types, alive, next, hues, shades);
+        }
+        byte[] previous = alive;
+        alive = next;
+        next = previous;
+    }
+
+    /**
+     * The last generation is still in the spare grid, so the cells that
+     * changed are those whose living byte differs between the two.
+     */
+    public boolean reportChanges(Changes changes) {
+        RuleEngine.reportChanges(alive, next, depth, width, changes);
+        return true;
+    }
+
+    /**
+     * Write the grid back into the cells of the field.
+     */
+    public void store(Field field) {
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                Cell cell = field.getObjectAt(row, col);
+                int i = (row + 1) * stride + col + 1;
+                if (cell instanceof ChromaCell) {
+                    cell.setColorIndex(Palette.hue(shades[i]));
+                    ((ChromaCell) cell).setHue(hues[i]);
+                }
+                else if (cell instanceof Ripples) {
+                    cell.setColorIndex(Palette.hue(shades[i]));
+                    ((Ripples) cell).setHue(hues[i]);
+                }
+                cell.setNextState(alive[i] != 0);
+                cell.updateState();
+            }
+        }
+    }
+
+    public long getPopulation() {
+        long population = 0;
+        for (byte cell : alive) {
+            population += cell;
+        }
+        return population;
+    }
+
+    /**
+     * The same as simd.VectorKernel.step, a cell at a time.
+     */
+    private void stepScalar() {
+        for (int row = 1; row <= depth; row++) {
+            int start = row * stride + 1;
+            for (int i = start; i < start + width; i++) {
+                int count = alive[i - stride - 1] + alive[i - stride] + alive[i - stride + 1]
+                            + alive[i - 1] + alive[i + 1]
+                            + alive[i + stride - 1] + alive[i + stride] + alive[i + stride + 1];
+                int type = types[i];
+                boolean lives = alive[i] != 0 ? count >= SURVIVE_MIN[type] && count <= SURVIVE_MAX[type]
+                                              : count >= BIRTH_MIN[type] && count <= BIRTH_MAX[type];
+                next[i] = (byte) (lives ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * @return The type code for a cell, or NONE if it has no rules here.
+     */
+    private static byte typeOf(Cell cell) {
+        Class<?> type = cell == null ? null : cell.getClass();
+        if (type == Mycoplasma.class) {
+            return CellStore.MYCOPLASMA;
+        }
+        if (type == ChromaCell.class) {
+            return CellStore.CHROMA_CELL;
+        }
+        if (type == Ripples.class) {
+            return CellStore.RIPPLES;
+        }
+        return CellStore.NONE;
+    }
+
+    /**
+     * Look for the Vector API kernel, which is only there if it was
+     * compiled with the jdk.incubator.vector module and that module is
+     * present now.
+     * @return Its step method, or null if it cannot be used.
+     */
+    private static MethodHandle findVectorKernel() {
+        try {
+            Class<?> kernel = Class.forName("simd.VectorKernel");
+            return MethodHandles.publicLookup().findStatic(kernel, "step",
+                MethodType.methodType(void.class, byte[].class, byte[].class, byte[].class,
+                                      int.class, int.class, byte[].class, byte[].class,
+                                      byte[].class, byte[].class));
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package simd;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The inner loop of VectorLifeEngine written with the incubating Vector
+ * API, which works on as many cells at once as the processor's widest
+ * vectors hold (32 on a machine with AVX2).
+ *
+ * It lives in a package of its own because it only compiles and runs with
+ * the jdk.incubator.vector module added:
+ *   javac --add-modules jdk.incubator.vector simd/VectorKernel.java
+ *   java --add-modules jdk.incubator.vector ...
+ * VectorLifeEngine finds it by name when it is there and the module is
+ * present, and otherwise uses its own scalar loop, which does exactly the
+ * same.
+ *
+ * @author Haleema Mohammed, Ahmet Taramis
+ * @version 2024.03.23
+ */
+
+public class VectorKernel {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * Work out which cells will be alive in the next generation. The grids
+     * are laid out as in VectorLifeEngine: one byte per cell, row by row,
+     * with a border of empty cells all the way round, so that row r and
+     * column c is at (r + 1) * (width + 2) + c + 1.
+     * @param alive 1 for each living cell, 0 otherwise.
+     * @param types The type of each cell, which indexes the rule arrays.
+     * @param next Set to 1 for each cell that will be alive, 0 otherwise.
+     * @param depth The number of rows, not counting the border.
+     * @param width The number of columns, not counting the border.
+     * @param birthMin The fewest neighbours with which a dead cell of each type comes to life.
+     * @param birthMax The most neighbours with which a dead cell of each type comes to life.
+     * @param surviveMin The fewest neighbours with which a living cell of each type survives.
+     * @param surviveMax The most neighbours with which a living cell of each type survives.
+     */
+    public static void step(byte[] alive, byte[] types, byte[] next, int depth, int width,
+                            byte[] birthMin, byte[] birthMax, byte[] surviveMin, byte[] surviveMax) {
+        int stride = width + 2;
+        int bound = SPECIES.loopBound(width);
+        for (int row = 1; row <= depth; row++) {
+            int start = row * stride + 1;
+            int col = 0;
+            for (; col < bound; col += SPECIES.length()) {
+                int i = start + col;
+                // The neighbour counts of a run of cells are the sums of the
+                // runs shifted one place in each of the eight directions
+                ByteVector count = ByteVector.fromArray(SPECIES, alive, i - stride - 1)
+                    .add(ByteVector.fromArray(SPECIES, alive, i - stride))
+                    .add(ByteVector.fromArray(SPECIES, alive, i - stride + 1))
+                    .add(ByteVector.fromArray(SPECIES, alive, i - 1))
+                    .add(ByteVector.fromArray(SPECIES, alive, i + 1))
+                    .add(ByteVector.fromArray(SPECIES, alive, i + stride - 1))
+                    .add(ByteVector.fromArray(SPECIES, alive, i + stride))
+                    .add(ByteVector.fromArray(SPECIES, alive, i + stride + 1));
+                VectorMask<Byte> living = ByteVector.fromArray(SPECIES, alive, i)
+                    .compare(VectorOperators.NE, (byte) 0);
+                ByteVector cellTypes = ByteVector.fromArray(SPECIES, types, i);
+                ByteVector result = ByteVector.zero(SPECIES);
+                for (int type = 1; type < birthMin.length; type++) {
+                    VectorMask<Byte> ofType = cellTypes.compare(VectorOperators.EQ, (byte) type);
+                    if (!ofType.anyTrue()) {
+                        continue;
+                    }
+                    ByteVector min = ByteVector.broadcast(SPECIES, birthMin[type])
+                        .blend(surviveMin[type], living);
+                    ByteVector max = ByteVector.broadcast(SPECIES, birthMax[type])
+                        .blend(surviveMax[type], living);
+                    VectorMask<Byte> lives = count.compare(VectorOperators.GE, min)
+                        .and(count.compare(VectorOperators.LE, max))
+                        .and(ofType);
+                    result = result.blend((byte) 1, lives);
+                }
+                result.intoArray(next, i);
+            }
+            for (; col < width; col++) {
+                int i = start + col;
+                int count = alive[i - stride - 1] + alive[i - stride] + alive[i - stride + 1]
+                            + alive[i - 1] + alive[i + 1]
+                            + alive[i + stride - 1] + alive[i + stride] + alive[i + stride + 1];
+                int type = types[i];
+                boolean lives = alive[i] != 0 ? count >= surviveMin[type] && count <= surviveMax[type]
+                                              : count >= birthMin[type] && count <= birthMax[type];
+                next[i] = (byte) (lives ? 1 : 0);
+            }
+        }
+    }
+}